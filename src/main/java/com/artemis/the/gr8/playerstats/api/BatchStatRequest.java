@@ -0,0 +1,71 @@
+package com.artemis.the.gr8.playerstats.api;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Holds a group of statistics that should be looked up together, and can be
+ * executed by the {@link StatManager} to get a top-list and a server-total
+ * for each of them. All statistics in a BatchStatRequest are calculated in
+ * a single pass over all players, which is a lot faster than executing
+ * a separate {@link StatRequest} for every statistic.
+ * <br>
+ * <br>Statistics are added by their stat-key, which has one of the following
+ * formats (using the names of Bukkit's enums):
+ * <ul>
+ * <li> <code>UNTYPED:STATISTIC</code>
+ * <li> <code>BLOCK:STATISTIC:MATERIAL</code>
+ * <li> <code>ITEM:STATISTIC:MATERIAL</code>
+ * <li> <code>ENTITY:STATISTIC:ENTITY_TYPE</code>
+ * </ul>
+ */
+public abstract class BatchStatRequest {
+
+    private final int topListSize;
+    private final LinkedHashMap<String, StatRequest.Settings> settings;
+
+    protected BatchStatRequest(int topListSize) {
+        this.topListSize = topListSize;
+        settings = new LinkedHashMap<>();
+    }
+
+    /**
+     * Adds the statistic belonging to this stat-key to the request.
+     * Adding the same stat-key twice has no effect.
+     *
+     * @param statKey a stat-key (see class description for the format)
+     * @return this BatchStatRequest
+     * @throws IllegalArgumentException if the stat-key is not in the right format,
+     * or if the statistic does not match the provided block, item or entity
+     */
+    public abstract @NotNull BatchStatRequest addStatistic(@NotNull String statKey) throws IllegalArgumentException;
+
+    public boolean isValid() {
+        return !settings.isEmpty();
+    }
+
+    /**
+     * @return how big the top-list for each statistic should be
+     */
+    public int getTopListSize() {
+        return topListSize;
+    }
+
+    /**
+     * Use this method to view the settings for every statistic
+     * that has been added to this BatchStatRequest.
+     *
+     * @return an unmodifiable Map with the stat-keys as keys,
+     * in the order they were added
+     */
+    public @NotNull Map<String, StatRequest.Settings> getSettings() {
+        return Collections.unmodifiableMap(settings);
+    }
+
+    protected void addSettings(@NotNull String statKey, @NotNull StatRequest.Settings statSettings) {
+        settings.putIfAbsent(statKey, statSettings);
+    }
+}
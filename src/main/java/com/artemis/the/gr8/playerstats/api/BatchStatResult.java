@@ -0,0 +1,36 @@
+package com.artemis.the.gr8.playerstats.api;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Holds the result of a completed {@link BatchStatRequest}. For every
+ * stat-key that was added to the request, it contains a top-list and the
+ * total for all players on the server. Unlike a {@link StatResult}, no
+ * formatted messages are included.
+ *
+ * @param topLists the top-list for each stat-key, with player-names as keys,
+ *                 sorted from highest to lowest number
+ * @param totals the server-total for each stat-key
+ */
+public record BatchStatResult(Map<String, LinkedHashMap<String, Integer>> topLists, Map<String, Long> totals) {
+
+    /**
+     * @param statKey one of the stat-keys that were added to the request
+     * @return the top-list for this statistic, or an empty LinkedHashMap
+     * if this stat-key was not part of the request
+     */
+    public LinkedHashMap<String, Integer> getTopList(String statKey) {
+        LinkedHashMap<String, Integer> topList = topLists.get(statKey);
+        return topList != null ? topList : new LinkedHashMap<>();
+    }
+
+    /**
+     * @param statKey one of the stat-keys that were added to the request
+     * @return the server-total for this statistic, or 0 if this
+     * stat-key was not part of the request
+     */
+    public long getTotal(String statKey) {
+        return totals.getOrDefault(statKey, 0L);
+    }
+}
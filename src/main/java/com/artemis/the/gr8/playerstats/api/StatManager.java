@@ -1,7 +1,14 @@
 package com.artemis.the.gr8.playerstats.api;
 
 import java.util.LinkedHashMap;
+import java.util.concurrent.CompletableFuture;
 
+/**
+ * The methods ending in Async do not block the calling Thread, so they are
+ * safe to call from the main Thread. Keep in mind that the returned future
+ * is completed on a different Thread. If PlayerStats is still loading its
+ * players after startup, these requests start once they are loaded.
+ */
 public interface StatManager {
 
     /** Checks if the player belonging to this name
@@ -9,7 +16,7 @@ public interface StatManager {
      * player is not counted for the server total, and
      * does not show in top results).
      *
-     * @param playerName the name of the player to check
+     * @param playerName the name of the player to check (not case-sensitive)
      * @return true if this player is on the exclude-list
      */
     boolean isExcludedPlayer(String playerName);
@@ -33,6 +40,14 @@ public interface StatManager {
      */
     StatResult<Integer> executePlayerStatRequest(StatRequest<Integer> request);
 
+    /**
+     * Executes this StatRequest without blocking the calling Thread.
+     *
+     * @return a CompletableFuture that completes with the StatResult
+     * @see #executePlayerStatRequest(StatRequest)
+     */
+    CompletableFuture<StatResult<Integer>> executePlayerStatRequestAsync(StatRequest<Integer> request);
+
     /** Gets a RequestGenerator that can be used to create a ServerStatRequest.
      * This RequestGenerator will make sure all default settings
      * for a server-statistic-lookup are configured.
@@ -51,6 +66,14 @@ public interface StatManager {
      */
     StatResult<Long> executeServerStatRequest(StatRequest<Long> request);
 
+    /**
+     * Executes this StatRequest without blocking the calling Thread.
+     *
+     * @return a CompletableFuture that completes with the StatResult
+     * @see #executeServerStatRequest(StatRequest)
+     */
+    CompletableFuture<StatResult<Long>> executeServerStatRequestAsync(StatRequest<Long> request);
+
     /** Gets a RequestGenerator that can be used to create a TopStatRequest
      * for a top-list of the specified size. This RequestGenerator will
      * make sure all default settings for a top-statistic-lookup are configured.
@@ -77,4 +100,41 @@ public interface StatManager {
      * @see StatResult
      */
     StatResult<LinkedHashMap<String, Integer>> executeTopRequest(StatRequest<LinkedHashMap<String, Integer>> request);
+
+    /**
+     * Executes this StatRequest without blocking the calling Thread.
+     *
+     * @return a CompletableFuture that completes with the StatResult
+     * @see #executeTopRequest(StatRequest)
+     */
+    CompletableFuture<StatResult<LinkedHashMap<String, Integer>>> executeTopRequestAsync(StatRequest<LinkedHashMap<String, Integer>> request);
+
+    /** Gets a BatchStatRequest that can be used to look up many statistics
+     * at once, with a top-list of the specified size for each of them.
+     * All statistics in the batch are calculated in a single pass over
+     * all players, so this is much faster than executing a separate
+     * TopStatRequest for every statistic.
+     *
+     * @param topListSize how big the top-x for each statistic should be
+     * @return the BatchStatRequest
+     * @see BatchStatRequest*/
+    BatchStatRequest createBatchStatRequest(int topListSize);
+
+    /**
+     * Executes this BatchStatRequest. This calculation can take some time,
+     * so don't call this from the main Thread if you can help it!
+     *
+     * @return a BatchStatResult containing a top-list and a server-total
+     * for every statistic in the request
+     * @see BatchStatResult
+     */
+    BatchStatResult executeBatchStatRequest(BatchStatRequest request);
+
+    /**
+     * Executes this BatchStatRequest without blocking the calling Thread.
+     *
+     * @return a CompletableFuture that completes with the BatchStatResult
+     * @see #executeBatchStatRequest(BatchStatRequest)
+     */
+    CompletableFuture<BatchStatResult> executeBatchStatRequestAsync(BatchStatRequest request);
 }
\ No newline at end of file
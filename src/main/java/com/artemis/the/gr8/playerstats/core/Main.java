@@ -1,6 +1,7 @@
 package com.artemis.the.gr8.playerstats.core;
+import com.artemis.the.gr8.playerstats.api.BatchStatRequest;
+import com.artemis.the.gr8.playerstats.api.BatchStatResult;
 import com.artemis.the.gr8.playerstats.api.PlayerStats;
-import com.artemis.the.gr8.playerstats.api.RequestGenerator;
 import com.artemis.the.gr8.playerstats.api.StatNumberFormatter;
 import com.artemis.the.gr8.playerstats.api.StatTextFormatter;
 import com.artemis.the.gr8.playerstats.api.StatManager;
@@ -8,11 +9,15 @@ import com.artemis.the.gr8.playerstats.core.commands.StatCommand;
 import com.artemis.the.gr8.playerstats.core.commands.ExcludeCommand;
 import com.artemis.the.gr8.playerstats.core.commands.ReloadCommand;
 import com.artemis.the.gr8.playerstats.core.commands.ShareCommand;
+import com.artemis.the.gr8.playerstats.core.commands.DbStatusCommand;
 import com.artemis.the.gr8.playerstats.core.commands.TabCompleter;
 import com.artemis.the.gr8.playerstats.core.msg.msgutils.NumberFormatter;
 import com.artemis.the.gr8.playerstats.core.config.ConfigHandler;
 import com.artemis.the.gr8.playerstats.core.db.DatabaseManager;
+import com.artemis.the.gr8.playerstats.core.db.DbOperation;
+import com.artemis.the.gr8.playerstats.core.db.DirtyStatTracker;
 import com.artemis.the.gr8.playerstats.core.listeners.JoinListener;
+import com.artemis.the.gr8.playerstats.core.listeners.StatisticListener;
 import com.artemis.the.gr8.playerstats.core.multithreading.ThreadManager;
 import com.artemis.the.gr8.playerstats.core.utils.MyLogger;
 import com.artemis.the.gr8.playerstats.core.msg.msgutils.LanguageKeyHandler;
@@ -22,7 +27,7 @@ import com.artemis.the.gr8.playerstats.core.utils.Closable;
 import com.artemis.the.gr8.playerstats.core.utils.OfflinePlayerHandler;
 import com.artemis.the.gr8.playerstats.core.utils.Reloadable;
 import com.artemis.the.gr8.playerstats.core.utils.PlayerDataReader;
-import com.artemis.the.gr8.playerstats.core.db.StatKeyUtil;
+import com.artemis.the.gr8.playerstats.core.utils.PlayerMetadataReader;
 import com.artemis.the.gr8.playerstats.core.msg.OutputManager;
 import me.clip.placeholderapi.PlaceholderAPIPlugin;
 import me.clip.placeholderapi.expansion.PlaceholderExpansion;
@@ -36,17 +41,12 @@ import org.jetbrains.annotations.Contract;
 import org.jetbrains.annotations.NotNull;
 
 import java.util.ArrayList;
-import java.util.LinkedHashMap;
 import java.util.List;
-import org.bukkit.Statistic;
-import org.bukkit.Material;
-import org.bukkit.entity.EntityType;
-import org.bukkit.OfflinePlayer;
+import java.util.Map;
 import org.bukkit.World;
 
 import java.io.File;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ForkJoinPool;
 
 /**
  * PlayerStats' Main class
@@ -80,6 +80,7 @@ public final class Main extends JavaPlugin implements PlayerStats {
 
         //register the listener
         Bukkit.getPluginManager().registerEvents(new JoinListener(threadManager), this);
+        Bukkit.getPluginManager().registerEvents(new StatisticListener(DirtyStatTracker.getInstance()), this);
         
         //finish up
         this.getLogger().info("Enabled PlayerStats!");
@@ -88,27 +89,35 @@ public final class Main extends JavaPlugin implements PlayerStats {
     private void generateTopListsAsync(DatabaseManager dbm) {
         Bukkit.getScheduler().runTaskAsynchronously(this, () -> {
             try {
+                if (dbm.refreshTopListsInDatabase()) {
+                    return;
+                }
                 long startTime = System.currentTimeMillis();
-                List<String> keys = new ArrayList<>(dbm.trackedStatKeys());
-                
-                // Process stats in parallel using ForkJoinPool
-                List<String> validKeys = keys.stream()
-                    .filter(StatKeyUtil::isValidTrackedFormat)
-                    .toList();
-                
-                MyLogger.logMediumLevelMsg("Generating top lists for " + validKeys.size() + " stats using parallel processing...");
-                
-                // Use parallel stream to process multiple stats concurrently
-                validKeys.parallelStream().forEach(key -> {
+                BatchStatRequest batch = statManager.createBatchStatRequest(dbm.config().topListSize());
+                for (String key : dbm.trackedStatKeys()) {
+                    try {
+                        batch.addStatistic(key);
+                    } catch (IllegalArgumentException e) {
+                        MyLogger.logWarning("Invalid stat key '" + key + "': " + e.getMessage());
+                    }
+                }
+                if (!batch.isValid()) {
+                    return;
+                }
+
+                // Calculate all top lists in a single pass over all players
+                MyLogger.logMediumLevelMsg("Generating top lists for " + batch.getSettings().size() + " stats...");
+                BatchStatResult result = statManager.executeBatchStatRequest(batch);
+
+                for (String key : batch.getSettings().keySet()) {
                     try {
-                        processTopListForKey(key, dbm);
+                        dbm.upsertTopList(key, result.getTopList(key));
                     } catch (Exception e) {
                         if (!isShuttingDown()) {
-                            MyLogger.logWarning("Failed to generate top list for key '" + key + "': " + e.getMessage());
+                            MyLogger.logWarning("Failed to store top list for key '" + key + "': " + e.getMessage());
                         }
                     }
-                });
-                
+                }
                 MyLogger.logMediumLevelTask("Top list generation completed", startTime);
             } catch (Exception e) {
                 MyLogger.logWarning("Failed to generate top lists: " + e.getMessage());
@@ -116,54 +125,6 @@ public final class Main extends JavaPlugin implements PlayerStats {
         });
     }
 
-    /**
-     * Process a single stat key to generate and store its top list.
-     * This method is designed to be called concurrently from multiple threads.
-     */
-    private void processTopListForKey(String key, DatabaseManager dbm) {
-        String[] parts = key.split(":");
-        if (parts.length < 2) return;
-        
-        String type = parts[0];
-        String statName = parts[1];
-        
-        try {
-            Statistic stat = Statistic.valueOf(statName);
-            RequestGenerator<LinkedHashMap<String, Integer>> gen = statManager.createTopStatRequest(dbm.config().topListSize());
-            com.artemis.the.gr8.playerstats.api.StatRequest<LinkedHashMap<String, Integer>> req;
-            
-            switch (type) {
-                case "UNTYPED" -> req = gen.untyped(stat);
-                case "BLOCK", "ITEM" -> {
-                    if (parts.length < 3) return;
-                    try {
-                        Material material = Material.valueOf(parts[2]);
-                        req = gen.blockOrItemType(stat, material);
-                    } catch (IllegalArgumentException e) {
-                        MyLogger.logWarning("Invalid material in stat key '" + key + "': " + parts[2]);
-                        return;
-                    }
-                }
-                case "ENTITY" -> {
-                    if (parts.length < 3) return;
-                    try {
-                        EntityType entityType = EntityType.valueOf(parts[2]);
-                        req = gen.entityType(stat, entityType);
-                    } catch (IllegalArgumentException e) {
-                        MyLogger.logWarning("Invalid entity type in stat key '" + key + "': " + parts[2]);
-                        return;
-                    }
-                }
-                default -> { return; }
-            }
-            
-            LinkedHashMap<String, Integer> top = statManager.executeTopRequest(req).value();
-            dbm.upsertTopList(key, top);
-        } catch (IllegalArgumentException e) {
-            MyLogger.logWarning("Invalid enum value in stat key '" + key + "': " + e.getMessage());
-        }
-    }
-
     private void schedulePeriodicTopLists(DatabaseManager dbm) {
         if (!config.dbGenerateTopPeriodically()) return;
         int minutes = Math.max(1, config.dbGenerateTopIntervalMinutes());
@@ -184,6 +145,21 @@ public final class Main extends JavaPlugin implements PlayerStats {
         }.runTaskTimerAsynchronously(this, periodTicks, periodTicks);
     }
 
+    private void scheduleDirtyStatSync(DirtyStatTracker tracker) {
+        long periodTicks = Math.max(1, config.dbDirtySyncIntervalSeconds()) * 20L;
+        new BukkitRunnable() {
+            @Override
+            public void run() {
+                try {
+                    // Statistics are read on the main thread; the writes themselves are queued
+                    tracker.flushOnlinePlayers();
+                } catch (Exception e) {
+                    MyLogger.logWarning("Failed to sync changed player stats: " + e.getMessage());
+                }
+            }
+        }.runTaskTimer(this, periodTicks, periodTicks);
+    }
+
     /**
      * Read all player data files and populate the experience database.
      * This is done asynchronously using multi-threading.
@@ -201,30 +177,34 @@ public final class Main extends JavaPlugin implements PlayerStats {
                 // Use a ConcurrentHashMap to store results from multi-threaded reading
                 ConcurrentHashMap<java.util.UUID, PlayerDataReader.ExperienceData> expDataMap = new ConcurrentHashMap<>();
                 
-                // Use ForkJoinPool for parallel reading of player files
-                int playerCount = ForkJoinPool.commonPool().submit(() -> 
-                    PlayerDataReader.readAllPlayerExperience(worldDir, expDataMap)
-                ).join();
+                int playerCount = PlayerDataReader.readAllPlayerExperience(worldDir, expDataMap);
                 
                 MyLogger.logMediumLevelMsg("Read experience data from " + playerCount + " player files");
-                
-                // Now write the data to the database asynchronously
-                int written = 0;
+
+                // Get all player names at once, instead of looking up every OfflinePlayer
+                Map<java.util.UUID, String> playerNames = PlayerMetadataReader.readNames(Bukkit.getWorldContainer(),
+                        OfflinePlayerHandler.getInstance().getKnownPlayerNames());
+
+                // Now write all data to the database in one bulk load
+                List<DbOperation> operations = new ArrayList<>(expDataMap.size());
                 for (var entry : expDataMap.entrySet()) {
                     java.util.UUID uuid = entry.getKey();
                     PlayerDataReader.ExperienceData expData = entry.getValue();
                     
-                    // Get player name from OfflinePlayer
-                    OfflinePlayer offlinePlayer = Bukkit.getOfflinePlayer(uuid);
-                    String playerName = offlinePlayer.getName();
+                    String playerName = playerNames.get(uuid);
+                    if (playerName == null) {
+                        playerName = Bukkit.getOfflinePlayer(uuid).getName();
+                    }
                     if (playerName == null || playerName.isEmpty()) {
                         playerName = uuid.toString().substring(0, 8); // Use first 8 chars of UUID as fallback
                     }
                     
-                    dbm.updatePlayerExperience(uuid, playerName, expData.level(), expData.totalExperience(), expData.expProgress());
-                    written++;
+                    operations.add(new DbOperation.PlayerExperience(uuid, playerName,
+                            expData.level(), expData.totalExperience(), expData.expProgress()));
                 }
-                
+                dbm.bulkLoad(operations);
+                int written = operations.size();
+
                 long elapsed = System.currentTimeMillis() - startTime;
                 MyLogger.logMediumLevelMsg("Experience population complete: wrote " + written + " entries in " + elapsed + "ms");
             } catch (Exception e) {
@@ -293,8 +273,13 @@ public final class Main extends JavaPlugin implements PlayerStats {
 
         // Initialize and register DatabaseManager for reload and close hooks
         DatabaseManager dbm = DatabaseManager.getInstance();
+        // Track which stats of online players change, and write only those.
+        // The tracker is closed first, so its last changes still reach the database.
+        DirtyStatTracker tracker = DirtyStatTracker.getInstance();
+        registerClosable(tracker);
         registerClosable(dbm);
         registerReloadable(dbm::reloadFromConfig);
+        registerReloadable(tracker);
 
         // Optionally populate experience data from player files on startup
         if (dbm.config().enabled()) {
@@ -306,6 +291,7 @@ public final class Main extends JavaPlugin implements PlayerStats {
         }
         // Optionally schedule periodic generation of top lists
         schedulePeriodicTopLists(dbm);
+        scheduleDirtyStatSync(tracker);
     }
 
     /**
@@ -334,6 +320,10 @@ public final class Main extends JavaPlugin implements PlayerStats {
         if (sharecmd != null) {
             sharecmd.setExecutor(new ShareCommand());
         }
+        PluginCommand dbcmd = this.getCommand("statisticdb");
+        if (dbcmd != null) {
+            dbcmd.setExecutor(new DbStatusCommand());
+        }
     }
 
     /**
@@ -0,0 +1,31 @@
+package com.artemis.the.gr8.playerstats.core.commands;
+
+import com.artemis.the.gr8.playerstats.core.db.DatabaseManager;
+import com.artemis.the.gr8.playerstats.core.msg.OutputManager;
+import com.artemis.the.gr8.playerstats.core.statistic.StatRequestManager;
+import org.bukkit.command.Command;
+import org.bukkit.command.CommandExecutor;
+import org.bukkit.command.CommandSender;
+import org.jetbrains.annotations.NotNull;
+
+public final class DbStatusCommand implements CommandExecutor {
+
+    private static OutputManager outputManager;
+
+    public DbStatusCommand() {
+        outputManager = OutputManager.getInstance();
+    }
+
+    @Override
+    public boolean onCommand(@NotNull CommandSender sender, @NotNull Command command, @NotNull String label, String[] args) {
+        if (!sender.hasPermission("playerstats.dbstatus")) {
+            sender.sendMessage("§cYou don't have permission to use this command.");
+            return true;
+        }
+
+        outputManager.sendDbStatus(sender,
+                DatabaseManager.getInstance().stats(),
+                StatRequestManager.getResultCacheStats());
+        return true;
+    }
+}
@@ -57,10 +57,13 @@ public final class StatCommand implements CommandExecutor {
                 args[0].equalsIgnoreCase("example")) {
             outputManager.sendExamples(sender);
         }
+        else if (!offlinePlayerHandler.isReady()) {
+            outputManager.sendFeedbackMsg(sender, StandardMessage.WARMING_UP);
+        }
         else {
             ArgProcessor processor = new ArgProcessor(sender, args);
             if (processor.request != null && processor.request.isValid()) {
-                threadManager.startStatThread(processor.request);
+                threadManager.startStatTask(processor.request);
             } else {
                 sendFeedback(sender, processor);
             }
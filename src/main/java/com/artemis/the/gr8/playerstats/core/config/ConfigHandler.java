@@ -25,7 +25,7 @@ public final class ConfigHandler extends YamlFileHandler {
         super("config.yml");
         config = super.getFileConfiguration();
 
-        configVersion = 9;
+        configVersion = 10;
         checkAndUpdateConfigVersion();
         MyLogger.setDebugLevel(getDebugLevel());
     }
@@ -156,6 +156,15 @@ public final class ConfigHandler extends YamlFileHandler {
         }
     }
 
+    /**
+     * The number of minutes between checks of the included players, to catch
+     * changes that were missed while players joined (0 or lower disables this).
+     * @return the number (default: 60)
+     */
+    public int getRosterReconcileInterval() {
+        return config.getInt("included-players-check-interval-minutes", 60);
+    }
+
     /**
      * Whether to allow the /stat player command for excluded players.
      * @return the config setting (default: true)
@@ -164,6 +173,101 @@ public final class ConfigHandler extends YamlFileHandler {
         return config.getBoolean("allow-player-lookups-for-excluded-players", true);
     }
 
+    /**
+     * Whether top- and server-statistics should be calculated from an in-memory
+     * snapshot that holds the numbers of all included players.
+     * @return the config setting (default: true)
+     */
+    public boolean useStatSnapshot() {
+        return config.getBoolean("stat-snapshot.enabled", true);
+    }
+
+    /**
+     * The number of seconds a statistic in the snapshot can be used before
+     * it needs to be calculated again.
+     * @return the number (default: 30)
+     */
+    public int getStatSnapshotMaxAge() {
+        return config.getInt("stat-snapshot.max-age-seconds", 30);
+    }
+
+    /**
+     * What to do with a statistic in the snapshot that has become too old.
+     * @return "on-demand" or "background" (default: "on-demand")
+     */
+    public String getStatSnapshotRefreshPolicy() {
+        return config.getString("stat-snapshot.refresh-policy", "on-demand");
+    }
+
+    /**
+     * The maximum number of different statistics that are kept in the snapshot.
+     * @return the number (default: 128)
+     */
+    public int getStatSnapshotMaxSize() {
+        return config.getInt("stat-snapshot.max-statistics", 128);
+    }
+
+    /**
+     * Whether the results of top- and server-statistic lookups should be kept
+     * for a while, so the same lookup can be answered without calculating it again.
+     * @return the config setting (default: true)
+     */
+    public boolean useResultCache() {
+        return config.getBoolean("result-cache.enabled", true);
+    }
+
+    /**
+     * The number of seconds a cached result can be used.
+     * @return the number (default: 60)
+     */
+    public int getResultCacheTTL() {
+        return config.getInt("result-cache.ttl-seconds", 60);
+    }
+
+    /**
+     * The maximum number of results that are kept in the cache.
+     * @return the number (default: 256)
+     */
+    public int getResultCacheMaxSize() {
+        return config.getInt("result-cache.max-entries", 256);
+    }
+
+    /**
+     * The number of threads that are used to calculate statistics for commands
+     * and API requests. A value of 0 or lower means: use all available processors.
+     * @return the number (default: 0)
+     */
+    public int getInteractivePoolSize() {
+        return config.getInt("compute-pool.interactive-threads", 0);
+    }
+
+    /**
+     * The number of threads that are used for background jobs, such as loading
+     * the offline players and generating top-lists for the database. A value
+     * of 0 or lower means: use half of the available processors.
+     * @return the number (default: 0)
+     */
+    public int getBackgroundPoolSize() {
+        return config.getInt("compute-pool.background-threads", 0);
+    }
+
+    /**
+     * The maximum number of stat-commands and API requests that are calculated
+     * at the same time. Requests beyond this number wait for their turn.
+     * @return the number (default: 16)
+     */
+    public int getMaxConcurrentRequests() {
+        return config.getInt("compute-pool.max-concurrent-requests", 16);
+    }
+
+    /**
+     * Where the statistics of offline players are read from.
+     * @return "bukkit" or "stats-files" (default: "bukkit")
+     */
+    public String getStatSource() {
+        return config.getString("stat-source", "bukkit");
+    }
+
     /**
      * Whether to use TranslatableComponents wherever possible.
      *
@@ -629,10 +733,22 @@ public final class ConfigHandler extends YamlFileHandler {
         return config.getInt("database.generate-top-interval-minutes", 15);
     }
 
+    public boolean dbComputeTopInDatabase() {
+        return config.getBoolean("database.compute-top-in-database", false);
+    }
+
     public boolean dbUpdatePlayerOnJoin() {
         return config.getBoolean("database.update-player-on-join", true);
     }
 
+    public boolean dbDirtySyncEnabled() {
+        return config.getBoolean("database.dirty-sync.enabled", true);
+    }
+
+    public int dbDirtySyncIntervalSeconds() {
+        return config.getInt("database.dirty-sync.interval-seconds", 60);
+    }
+
     public int dbTopListSize() {
         return config.getInt("database.top-list-size", getTopListMaxSize());
     }
@@ -654,6 +770,49 @@ public final class ConfigHandler extends YamlFileHandler {
         return config.getLong("database.top-upsert-min-interval-ms", 60_000L);
     }
 
+    // Write-behind buffer for player stats
+    public long dbWriteBehindFlushIntervalMs() {
+        return config.getLong("database.write-behind.flush-interval-ms", 2000L);
+    }
+
+    public int dbWriteBehindMaxBatchSize() {
+        return config.getInt("database.write-behind.max-batch-size", 256);
+    }
+
+    public int dbWriteBatchSize() {
+        return config.getInt("database.write-batch-size", 500);
+    }
+
+    // Spool for writes that could not be sent to the database
+    public boolean dbSpoolEnabled() {
+        return config.getBoolean("database.spool.enabled", true);
+    }
+
+    public long dbSpoolRetryIntervalMs() {
+        return config.getLong("database.spool.retry-interval-ms", 10_000L);
+    }
+
+    // Write queue and circuit breaker
+    public int dbQueueCapacity() {
+        return config.getInt("database.queue.capacity", 5000);
+    }
+
+    public String dbQueueShedPolicy() {
+        return config.getString("database.queue.shed-policy", "spool");
+    }
+
+    public int dbCircuitBreakerFailureThreshold() {
+        return config.getInt("database.circuit-breaker.failure-threshold", 5);
+    }
+
+    public long dbCircuitBreakerBaseBackoffMs() {
+        return config.getLong("database.circuit-breaker.base-backoff-ms", 1000L);
+    }
+
+    public long dbCircuitBreakerMaxBackoffMs() {
+        return config.getLong("database.circuit-breaker.max-backoff-ms", 60_000L);
+    }
+
     public boolean dbVerboseLogging() {
         return config.getBoolean("database.verbose-logging", false);
     }
@@ -675,6 +834,14 @@ public final class ConfigHandler extends YamlFileHandler {
         return config.getString("database.mongo.collection-top", "top_stats");
     }
 
+    public int mongoBulkBatchSize() {
+        return config.getInt("database.mongo.bulk-batch-size", 1000);
+    }
+
+    public String mongoWriteConcern() {
+        return config.getString("database.mongo.write-concern", "acknowledged");
+    }
+
     // Postgres
     public String pgHost() {
         return config.getString("database.postgres.host", "localhost");
@@ -712,6 +879,10 @@ public final class ConfigHandler extends YamlFileHandler {
         return config.getString("database.postgres.table-top", "top_stats");
     }
 
+    public String pgSchemaMode() {
+        return config.getString("database.postgres.schema-mode", "jsonb");
+    }
+
     // Pool
     public int poolMaxSize() {
         return config.getInt("database.pool.max-pool-size", 5);
@@ -9,6 +9,7 @@ import java.util.Objects;
 public final class DatabaseConfig {
 
     public enum DbType { MONGO, POSTGRES }
+    public enum ShedPolicy { MERGE, DROP_OLDEST, SPOOL }
 
     private final boolean enabled;
     private final DbType type;
@@ -16,7 +17,10 @@ public final class DatabaseConfig {
     private final boolean generateTopOnLoad;
     private final boolean generateTopPeriodically;
     private final int generateTopIntervalMinutes;
+    private final boolean computeTopInDatabase;
     private final boolean updatePlayerOnJoin;
+    private final boolean dirtySyncEnabled;
+    private final int dirtySyncIntervalSeconds;
     private final int topListSize;
     private final List<String> trackedStats;
     private final boolean verboseLogging;
@@ -26,6 +30,22 @@ public final class DatabaseConfig {
     private final long playerUpdateMinIntervalMs;
     private final long topUpsertMinIntervalMs;
 
+    // Write-behind
+    private final long writeBehindFlushIntervalMs;
+    private final int writeBehindMaxBatchSize;
+    private final int writeBatchSize;
+
+    // Spool
+    private final boolean spoolEnabled;
+    private final long spoolRetryIntervalMs;
+
+    // Write queue and circuit breaker
+    private final int queueCapacity;
+    private final ShedPolicy shedPolicy;
+    private final int circuitBreakerFailureThreshold;
+    private final long circuitBreakerBaseBackoffMs;
+    private final long circuitBreakerMaxBackoffMs;
+
     // Pool
     private final int maxPoolSize;
     private final long connectionTimeoutMs;
@@ -35,6 +55,8 @@ public final class DatabaseConfig {
     private final String mongoDatabase;
     private final String mongoPlayerCollection;
     private final String mongoTopCollection;
+    private final int mongoBulkBatchSize;
+    private final String mongoWriteConcern;
 
     // Postgres
     private final String pgHost;
@@ -46,36 +68,59 @@ public final class DatabaseConfig {
     private final boolean pgSsl;
     private final String pgPlayerTable;
     private final String pgTopTable;
+    private final String pgSchemaMode;
 
     private DatabaseConfig(
             boolean enabled, DbType type,
             boolean generateTopOnLoad, boolean generateTopPeriodically, int generateTopIntervalMinutes,
-            boolean updatePlayerOnJoin, int topListSize,
+            boolean computeTopInDatabase,
+            boolean updatePlayerOnJoin, boolean dirtySyncEnabled, int dirtySyncIntervalSeconds,
+            int topListSize,
             List<String> trackedStats,
             boolean verboseLogging,
             int asyncThreads, long playerUpdateMinIntervalMs, long topUpsertMinIntervalMs,
+            long writeBehindFlushIntervalMs, int writeBehindMaxBatchSize, int writeBatchSize,
+            boolean spoolEnabled, long spoolRetryIntervalMs,
+            int queueCapacity, ShedPolicy shedPolicy,
+            int circuitBreakerFailureThreshold, long circuitBreakerBaseBackoffMs, long circuitBreakerMaxBackoffMs,
             int maxPoolSize, long connectionTimeoutMs,
             String mongoUri, String mongoDatabase, String mongoPlayerCollection, String mongoTopCollection,
+            int mongoBulkBatchSize, String mongoWriteConcern,
             String pgHost, int pgPort, String pgDatabase, String pgUser, String pgPassword, String pgSchema, boolean pgSsl,
-            String pgPlayerTable, String pgTopTable) {
+            String pgPlayerTable, String pgTopTable, String pgSchemaMode) {
         this.enabled = enabled;
         this.type = type;
         this.generateTopOnLoad = generateTopOnLoad;
         this.generateTopPeriodically = generateTopPeriodically;
         this.generateTopIntervalMinutes = generateTopIntervalMinutes;
+        this.computeTopInDatabase = computeTopInDatabase;
         this.updatePlayerOnJoin = updatePlayerOnJoin;
+        this.dirtySyncEnabled = dirtySyncEnabled;
+        this.dirtySyncIntervalSeconds = dirtySyncIntervalSeconds;
         this.topListSize = topListSize;
         this.trackedStats = List.copyOf(trackedStats);
         this.verboseLogging = verboseLogging;
         this.asyncThreads = asyncThreads;
         this.playerUpdateMinIntervalMs = playerUpdateMinIntervalMs;
         this.topUpsertMinIntervalMs = topUpsertMinIntervalMs;
+        this.writeBehindFlushIntervalMs = writeBehindFlushIntervalMs;
+        this.writeBehindMaxBatchSize = writeBehindMaxBatchSize;
+        this.writeBatchSize = writeBatchSize;
+        this.spoolEnabled = spoolEnabled;
+        this.spoolRetryIntervalMs = spoolRetryIntervalMs;
+        this.queueCapacity = queueCapacity;
+        this.shedPolicy = shedPolicy;
+        this.circuitBreakerFailureThreshold = circuitBreakerFailureThreshold;
+        this.circuitBreakerBaseBackoffMs = circuitBreakerBaseBackoffMs;
+        this.circuitBreakerMaxBackoffMs = circuitBreakerMaxBackoffMs;
         this.maxPoolSize = maxPoolSize;
         this.connectionTimeoutMs = connectionTimeoutMs;
         this.mongoUri = mongoUri;
         this.mongoDatabase = mongoDatabase;
         this.mongoPlayerCollection = mongoPlayerCollection;
         this.mongoTopCollection = mongoTopCollection;
+        this.mongoBulkBatchSize = mongoBulkBatchSize;
+        this.mongoWriteConcern = mongoWriteConcern;
         this.pgHost = pgHost;
         this.pgPort = pgPort;
         this.pgDatabase = pgDatabase;
@@ -85,6 +130,7 @@ public final class DatabaseConfig {
         this.pgSsl = pgSsl;
         this.pgPlayerTable = pgPlayerTable;
         this.pgTopTable = pgTopTable;
+        this.pgSchemaMode = pgSchemaMode;
     }
 
     public static DatabaseConfig from(ConfigHandler c) {
@@ -96,19 +142,34 @@ public final class DatabaseConfig {
                 c.dbGenerateTopOnLoad(),
                 c.dbGenerateTopPeriodically(),
                 c.dbGenerateTopIntervalMinutes(),
+                c.dbComputeTopInDatabase(),
                 c.dbUpdatePlayerOnJoin(),
+                c.dbDirtySyncEnabled(),
+                c.dbDirtySyncIntervalSeconds(),
                 c.dbTopListSize(),
                 c.dbTrackedStats(),
                 c.dbVerboseLogging(),
                 c.dbAsyncThreads(),
                 c.dbPlayerUpdateMinIntervalMs(),
                 c.dbTopUpsertMinIntervalMs(),
+                c.dbWriteBehindFlushIntervalMs(),
+                c.dbWriteBehindMaxBatchSize(),
+                c.dbWriteBatchSize(),
+                c.dbSpoolEnabled(),
+                c.dbSpoolRetryIntervalMs(),
+                c.dbQueueCapacity(),
+                parseShedPolicy(c.dbQueueShedPolicy()),
+                c.dbCircuitBreakerFailureThreshold(),
+                c.dbCircuitBreakerBaseBackoffMs(),
+                c.dbCircuitBreakerMaxBackoffMs(),
                 c.poolMaxSize(),
                 c.poolConnectionTimeoutMs(),
                 c.mongoUri(),
                 c.mongoDatabase(),
                 c.mongoPlayerCollection(),
                 c.mongoTopCollection(),
+                c.mongoBulkBatchSize(),
+                c.mongoWriteConcern(),
                 c.pgHost(),
                 c.pgPort(),
                 c.pgDatabase(),
@@ -117,7 +178,8 @@ public final class DatabaseConfig {
                 c.pgSchema(),
                 c.pgSsl(),
                 c.pgPlayerTable(),
-                c.pgTopTable()
+                c.pgTopTable(),
+                c.pgSchemaMode()
         );
     }
 
@@ -126,13 +188,25 @@ public final class DatabaseConfig {
         return Objects.equals(v.trim().toLowerCase(), "postgres") ? DbType.POSTGRES : DbType.MONGO;
     }
 
+    private static ShedPolicy parseShedPolicy(String v) {
+        if (v == null || v.isBlank()) return ShedPolicy.SPOOL;
+        return switch (v.trim().toLowerCase()) {
+            case "merge" -> ShedPolicy.MERGE;
+            case "drop-oldest" -> ShedPolicy.DROP_OLDEST;
+            default -> ShedPolicy.SPOOL;
+        };
+    }
+
     public boolean enabled() { return enabled; }
     public DbType type() { return type; }
 
     public boolean generateTopOnLoad() { return generateTopOnLoad; }
     public boolean generateTopPeriodically() { return generateTopPeriodically; }
     public int generateTopIntervalMinutes() { return generateTopIntervalMinutes; }
+    public boolean computeTopInDatabase() { return computeTopInDatabase; }
     public boolean updatePlayerOnJoin() { return updatePlayerOnJoin; }
+    public boolean dirtySyncEnabled() { return dirtySyncEnabled; }
+    public int dirtySyncIntervalSeconds() { return dirtySyncIntervalSeconds; }
     public int topListSize() { return topListSize; }
     public List<String> trackedStats() { return trackedStats; }
     public boolean verboseLogging() { return verboseLogging; }
@@ -141,6 +215,19 @@ public final class DatabaseConfig {
     public long playerUpdateMinIntervalMs() { return playerUpdateMinIntervalMs; }
     public long topUpsertMinIntervalMs() { return topUpsertMinIntervalMs; }
 
+    public long writeBehindFlushIntervalMs() { return writeBehindFlushIntervalMs; }
+    public int writeBehindMaxBatchSize() { return writeBehindMaxBatchSize; }
+    public int writeBatchSize() { return writeBatchSize; }
+
+    public boolean spoolEnabled() { return spoolEnabled; }
+    public long spoolRetryIntervalMs() { return spoolRetryIntervalMs; }
+
+    public int queueCapacity() { return queueCapacity; }
+    public ShedPolicy shedPolicy() { return shedPolicy; }
+    public int circuitBreakerFailureThreshold() { return circuitBreakerFailureThreshold; }
+    public long circuitBreakerBaseBackoffMs() { return circuitBreakerBaseBackoffMs; }
+    public long circuitBreakerMaxBackoffMs() { return circuitBreakerMaxBackoffMs; }
+
     public int maxPoolSize() { return maxPoolSize; }
     public long connectionTimeoutMs() { return connectionTimeoutMs; }
 
@@ -148,6 +235,8 @@ public final class DatabaseConfig {
     public String mongoDatabase() { return mongoDatabase; }
     public String mongoPlayerCollection() { return mongoPlayerCollection; }
     public String mongoTopCollection() { return mongoTopCollection; }
+    public int mongoBulkBatchSize() { return mongoBulkBatchSize; }
+    public String mongoWriteConcern() { return mongoWriteConcern; }
 
     public String pgHost() { return pgHost; }
     public int pgPort() { return pgPort; }
@@ -158,4 +247,5 @@ public final class DatabaseConfig {
     public boolean pgSsl() { return pgSsl; }
     public String pgPlayerTable() { return pgPlayerTable; }
     public String pgTopTable() { return pgTopTable; }
+    public String pgSchemaMode() { return pgSchemaMode; }
 }
@@ -1,22 +1,35 @@
 package com.artemis.the.gr8.playerstats.core.db;
 
+import com.artemis.the.gr8.playerstats.core.Main;
 import com.artemis.the.gr8.playerstats.core.config.ConfigHandler;
 import com.artemis.the.gr8.playerstats.core.utils.Closable;
 import com.artemis.the.gr8.playerstats.core.utils.MyLogger;
+import com.artemis.the.gr8.playerstats.core.utils.OfflinePlayerHandler;
 import java.util.Map;
 import com.artemis.the.gr8.playerstats.core.db.mongo.MongoDbProvider;
 import com.artemis.the.gr8.playerstats.core.db.postgres.PostgresProvider;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Central entry point for database operations. Selects a provider based on config and proxies calls.
@@ -40,11 +53,32 @@ public final class DatabaseManager implements Closable {
     private DbProvider provider;
 
     // Async execution and simple write-dedup caches
-    private ExecutorService executor;
-    private static final int DEFAULT_QUEUE_CAPACITY = 5000;
+    private volatile ExecutorService executor;
+    private volatile PlayerStatBuffer statBuffer;
+    private volatile BlockingQueue<DbOperation> writeQueue;
+    // Operations that did not fit in writeQueue, waiting for a drain task to spool them
+    private volatile BlockingQueue<DbOperation> spoolOverflow;
+    private volatile int drainThreads;
+    private final AtomicInteger activeDrains = new AtomicInteger();
+    private final Object mergeLock = new Object();
+    private final AtomicLong lastQueueFullWarningAt = new AtomicLong();
+    private final DbMetrics metrics = new DbMetrics();
+    private volatile DbCircuitBreaker breaker;
+    // Writes that could not be sent, kept on disk until the provider works again
+    private volatile DbSpool spool;
+    private volatile ScheduledExecutorService spoolReplayer;
+    // Held while a batch is taken from the queue and written, while writes have to stay in order, see writesInOrder()
+    private final Object spoolWriteLock = new Object();
+    private final AtomicBoolean replayScheduled = new AtomicBoolean();
+    private static final long QUEUE_FULL_WARNING_INTERVAL_MS = 60_000L;
     private static final int MAX_CACHE_SIZE = 10000;
     private static final long CACHE_TTL_MS = 300000; // 5 minutes
-    private final ConcurrentHashMap<String, PlayerStatCacheEntry> playerCache = new ConcurrentHashMap<>();
+    private final StatWriteDedupCache playerCache = new StatWriteDedupCache(MAX_CACHE_SIZE, CACHE_TTL_MS);
+    // Compact numbers for players and stat keys, which make up the keys of playerCache
+    private final ConcurrentHashMap<UUID, Integer> playerOrdinals = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Integer> statKeyIds = new ConcurrentHashMap<>();
+    private final AtomicInteger nextPlayerOrdinal = new AtomicInteger();
+    private final AtomicInteger nextStatKeyId = new AtomicInteger();
     private final ConcurrentHashMap<String, TopCacheEntry> topCache = new ConcurrentHashMap<>();
 
     private DatabaseManager() {
@@ -52,7 +86,15 @@ public final class DatabaseManager implements Closable {
     }
 
     public void reloadFromConfig() {
+        // Write what is still pending with the settings and provider it was collected for
+        closeStatBuffer();
+        shutdownExecutor();
+        stopSpoolReplayer();
+        closeProvider();
+        closeSpool();
         this.configSnapshot = DatabaseConfig.from(ConfigHandler.getInstance());
+        this.breaker = new DbCircuitBreaker(configSnapshot.circuitBreakerFailureThreshold(),
+                configSnapshot.circuitBreakerBaseBackoffMs(), configSnapshot.circuitBreakerMaxBackoffMs());
         // Determine tracked keys: use configured list when provided, else enumerate all
         List<String> configured = configSnapshot.trackedStats();
         java.util.ArrayList<String> keys = new java.util.ArrayList<>();
@@ -76,11 +118,18 @@ public final class DatabaseManager implements Closable {
             keys.addAll(StatKeyUtil.enumerateAllKeys());
         }
         this.trackedKeysCache = java.util.Collections.unmodifiableList(keys);
+        keys.forEach(this::statKeyId);
         MyLogger.logLowLevelMsg("DatabaseManager tracking " + trackedKeysCache.size() + " statistic keys (source=" + (usedConfigured ? "config" : "auto") + ")");
         dbLog("DB config: type=" + configSnapshot.type() + 
                 ", asyncThreads=" + Math.max(1, configSnapshot.asyncThreads()) +
                 ", playerUpdateMinIntervalMs=" + configSnapshot.playerUpdateMinIntervalMs() +
                 ", topUpsertMinIntervalMs=" + configSnapshot.topUpsertMinIntervalMs() +
+                ", writeBehindFlushIntervalMs=" + configSnapshot.writeBehindFlushIntervalMs() +
+                ", writeBehindMaxBatchSize=" + configSnapshot.writeBehindMaxBatchSize() +
+                ", writeBatchSize=" + configSnapshot.writeBatchSize() +
+                ", spoolEnabled=" + configSnapshot.spoolEnabled() +
+                ", queueCapacity=" + configSnapshot.queueCapacity() +
+                ", shedPolicy=" + configSnapshot.shedPolicy() +
                 ", topListSize=" + configSnapshot.topListSize() +
                 ", generateTopOnLoad=" + configSnapshot.generateTopOnLoad() +
                 ", generateTopPeriodically=" + configSnapshot.generateTopPeriodically() +
@@ -102,12 +151,17 @@ public final class DatabaseManager implements Closable {
             provider.init(configSnapshot);
             provider.start();
             // (Re)initialize async executor
-            initExecutor(Math.max(1, configSnapshot.asyncThreads()), DEFAULT_QUEUE_CAPACITY);
+            initExecutor(Math.max(1, configSnapshot.asyncThreads()), configSnapshot.queueCapacity());
+            initStatBuffer();
+            initSpool();
             dbLog("DB provider initialized: " + provider.getClass().getSimpleName());
         } catch (Exception e) {
             MyLogger.logWarning("Failed to initialize DB provider; falling back to No-Op. " + e.getMessage());
             provider = new NoopProvider();
+            closeStatBuffer();
             shutdownExecutor();
+            stopSpoolReplayer();
+            closeSpool();
         }
     }
 
@@ -120,34 +174,26 @@ public final class DatabaseManager implements Closable {
     public void updatePlayerStat(UUID playerUUID, String playerName, String statKey, int value) {
         if (!configSnapshot.enabled()) return;
         
-        cleanupExpiredCacheEntries();
-        
-        String cacheKey = playerUUID + ":" + statKey;
-        PlayerStatCacheEntry cached = playerCache.get(cacheKey);
-        long now = System.currentTimeMillis();
-        if (cached != null && cached.value == value && (now - cached.lastWriteAt) < configSnapshot.playerUpdateMinIntervalMs()) {
+        long cacheKey = StatWriteDedupCache.key(playerOrdinal(playerUUID), statKeyId(statKey));
+        if (!playerCache.shouldWrite(cacheKey, value, System.currentTimeMillis(), configSnapshot.playerUpdateMinIntervalMs())) {
             return; // Skip duplicate/recent write
         }
-        
-        // Enforce cache size limit
-        if (playerCache.size() >= MAX_CACHE_SIZE) {
-            evictOldestCacheEntries();
-        }
-        
-        playerCache.put(cacheKey, new PlayerStatCacheEntry(value, now));
-        if (executor == null) {
-            provider.updatePlayerStat(playerUUID, playerName, statKey, value);
-            dbLog("Updated player stat (sync fallback): " + playerName + " " + statKey + "=" + value);
+        PlayerStatBuffer buffer = statBuffer;
+        if (buffer != null) {
+            buffer.add(playerUUID, playerName, statKey, value);
             return;
         }
-        executor.execute(() -> {
+        if (executor == null) {
             try {
                 provider.updatePlayerStat(playerUUID, playerName, statKey, value);
-                dbLog("Updated player stat: " + playerName + " " + statKey + "=" + value);
-            } catch (Exception e) {
-                MyLogger.logWarning("Async updatePlayerStat failed: " + e.getMessage());
+            } catch (RuntimeException e) {
+                drop(List.of(new DbOperation.PlayerStats(playerUUID, playerName, Map.of(statKey, value))));
+                throw e;
             }
-        });
+            dbLog("Updated player stat (sync fallback): " + playerName + " " + statKey + "=" + value);
+            return;
+        }
+        submit(new DbOperation.PlayerStats(playerUUID, playerName, Map.of(statKey, value)));
     }
 
     public void upsertTopList(String statKey, LinkedHashMap<String, Integer> top) {
@@ -156,6 +202,7 @@ public final class DatabaseManager implements Closable {
             provider.upsertTopList(statKey, top, max);
             return;
         }
+        cleanupExpiredTopCacheEntries();
         long now = System.currentTimeMillis();
         String hash = hashTop(top, max);
         TopCacheEntry prev = topCache.get(statKey);
@@ -167,14 +214,70 @@ public final class DatabaseManager implements Closable {
         int entries = (top == null) ? 0 : top.size();
         dbLog("Queue topList upsert: key=" + statKey + " entries=" + Math.min(entries, max) + " limit=" + max);
         topCache.put(statKey, new TopCacheEntry(hash, now));
-        executor.submit(() -> {
-            try {
-                provider.upsertTopList(statKey, top, max);
-                dbLog("Upserted topList: key=" + statKey + " entries=" + Math.min(entries, max));
-            } catch (Exception e) {
-                MyLogger.logWarning("Async upsertTopList failed: " + e.getMessage());
+        submit(new DbOperation.TopList(statKey, top, max));
+    }
+
+    /**
+     * Lets the database compute and store the top lists for all tracked keys
+     * from the player stats it holds, if this is enabled in the config.
+     * Players that are not included in statistic calculations are left out,
+     * like they are in the top lists of the server; they are sent to the
+     * database once per run. Starting the run and every key go through
+     * the circuit breaker, and the refresh stops at the first step that fails,
+     * to try again on the next run. This runs on the calling thread.
+     *
+     * @return false if the top lists should be calculated on the server instead
+     */
+    public boolean refreshTopListsInDatabase() {
+        if (!configSnapshot.enabled() || !configSnapshot.computeTopInDatabase()) return false;
+        OfflinePlayerHandler playerHandler = OfflinePlayerHandler.getInstance();
+        if (!playerHandler.awaitReady()) {
+            MyLogger.logWarning("Players are still loading, skipped computing top lists in the database");
+            return true;
+        }
+        if (!provider.computesTopLists()) {
+            dbLog("DB provider can not compute top lists; calculating them on the server");
+            return false;
+        }
+        long startTime = System.currentTimeMillis();
+        int max = configSnapshot.topListSize();
+        Set<UUID> excludedPlayers = playerHandler.getNotIncludedPlayerUUIDs();
+        long ticket = breaker.allowRequest(System.currentTimeMillis());
+        if (ticket == DbCircuitBreaker.NO_PERMIT) {
+            dbLog("DB circuit open, skipped computing top lists");
+            return true;
+        }
+        TopListRefresh refresh;
+        try {
+            refresh = callProvider(ticket, () -> provider.startTopListRefresh(max, excludedPlayers));
+        } catch (Exception e) {
+            MyLogger.logWarning("Failed to start computing top lists in the database: " + e.getMessage());
+            return true;
+        }
+
+        int refreshed = 0;
+        try (refresh) {
+            for (String key : trackedKeysCache) {
+                ticket = breaker.allowRequest(System.currentTimeMillis());
+                if (ticket == DbCircuitBreaker.NO_PERMIT) {
+                    dbLog("DB circuit open, stopped computing top lists after " + refreshed + " keys");
+                    return true;
+                }
+                try {
+                    callProvider(ticket, () -> {
+                        refresh.refresh(key);
+                        return null;
+                    });
+                    refreshed++;
+                } catch (Exception e) {
+                    MyLogger.logWarning("Failed to compute top list for key '" + key + "' in the database, stopped after " +
+                            refreshed + " of " + trackedKeysCache.size() + " keys: " + e.getMessage());
+                    return true;
+                }
             }
-        });
+        }
+        MyLogger.logMediumLevelTask("Computed " + refreshed + " top lists in the database", startTime);
+        return true;
     }
 
     public void updatePlayerExperience(UUID playerUUID, String playerName, int level, int totalExperience, float expProgress) {
@@ -185,24 +288,64 @@ public final class DatabaseManager implements Closable {
             dbLog("Updated player experience (sync fallback): " + playerName + " level=" + level);
             return;
         }
-        executor.execute(() -> {
-            try {
-                provider.updatePlayerExperience(playerUUID, playerName, level, totalExperience, expProgress);
-                dbLog("Updated player experience: " + playerName + " level=" + level + " totalExp=" + totalExperience);
-            } catch (Exception e) {
-                MyLogger.logWarning("Async updatePlayerExperience failed: " + e.getMessage());
-            }
-        });
+        submit(new DbOperation.PlayerExperience(playerUUID, playerName, level, totalExperience, expProgress));
     }
 
-    @Override
-    public void close() {
+    /**
+     * Writes a large number of operations at once, such as when the database is
+     * first populated, with the provider's bulk load path. This runs on the calling
+     * thread. If the bulk load fails, the operations are queued one by one instead.
+     *
+     * @param operations the operations to write
+     */
+    public void bulkLoad(List<DbOperation> operations) {
+        if (!configSnapshot.enabled() || operations.isEmpty()) return;
+        long startTime = System.currentTimeMillis();
         try {
-            if (provider != null) provider.close();
+            provider.bulkLoad(operations);
+            MyLogger.logMediumLevelTask("Bulk loaded " + operations.size() + " database operations", startTime);
+        } catch (DbPartialWriteException e) {
+            metrics.failed.add(e.failedOperations().size());
+            MyLogger.logWarning("Database bulk load did not write " + e.failedOperations().size() + " of " +
+                    operations.size() + " operations, writing them one by one instead");
+            e.failedOperations().forEach(this::submit);
         } catch (Exception e) {
-            MyLogger.logWarning("Failed to close database provider: " + e.getMessage());
+            MyLogger.logWarning("Database bulk load failed, writing operations one by one instead: " + e.getMessage());
+            operations.forEach(this::submit);
         }
+    }
+
+    /**
+     * @return the current state of the write queue, the circuit breaker and the
+     * write counters, for operators to look at
+     */
+    public DbStats stats() {
+        BlockingQueue<DbOperation> queue = writeQueue;
+        DbSpool sp = spool;
+        return new DbStats(
+                provider.getClass().getSimpleName(),
+                breaker.state().name().toLowerCase(),
+                queue == null ? 0 : queue.size(),
+                queue == null ? 0 : queue.size() + queue.remainingCapacity(),
+                metrics.inFlight.get(),
+                metrics.written.sum(),
+                metrics.failed.sum(),
+                metrics.spooled.sum(),
+                metrics.merged.sum(),
+                metrics.shed.sum(),
+                sp != null && sp.hasPending(),
+                metrics.p99LatencyMs());
+    }
+
+    @Override
+    public void close() {
+        // Flush and drain pending writes before the provider goes away.
+        // Whatever is still spooled stays on disk, and is sent after the next start.
+        closeStatBuffer();
         shutdownExecutor();
+        stopSpoolReplayer();
+        closeProvider();
+        closeSpool();
     }
 
     private static final class NoopProvider implements DbProvider {
@@ -226,15 +369,461 @@ public final class DatabaseManager implements Closable {
         };
         int th = Math.max(1, threads);
         int qc = Math.max(100, queueCapacity);
+        // Operations wait in writeQueue; the executor only runs the tasks that drain it
+        writeQueue = new ArrayBlockingQueue<>(qc);
+        spoolOverflow = new ArrayBlockingQueue<>(qc);
+        drainThreads = th;
         executor = new ThreadPoolExecutor(
                 th,
                 th,
                 60L, TimeUnit.SECONDS,
-                new ArrayBlockingQueue<>(qc),
+                // There are never more drain tasks than threads, see scheduleDrain()
+                new ArrayBlockingQueue<>(th),
                 tf,
-                new ThreadPoolExecutor.CallerRunsPolicy()
+                new ThreadPoolExecutor.AbortPolicy()
         );
-        dbLog("Initialized DB async executor with " + th + " threads and queueCapacity=" + qc);
+        dbLog("Initialized DB async executor with " + th + " threads, queueCapacity=" + qc +
+                " and batchSize=" + Math.max(1, configSnapshot.writeBatchSize()));
+    }
+
+    /**
+     * Queues an operation for the next batch. If the queue is full, the configured
+     * shed policy decides what happens. If there is no executor, the operation
+     * is written right away on the calling thread.
+     */
+    private void submit(DbOperation operation) {
+        BlockingQueue<DbOperation> queue = writeQueue;
+        if (executor == null || queue == null) {
+            writeBatch(List.of(operation));
+            return;
+        }
+        if (!queue.offer(operation)) {
+            shed(queue, operation);
+            return;
+        }
+        scheduleDrain();
+    }
+
+    /**
+     * Makes room for an operation that did not fit in the queue, without
+     * blocking the calling thread on the database.
+     */
+    private void shed(BlockingQueue<DbOperation> queue, DbOperation operation) {
+        DatabaseConfig.ShedPolicy policy = configSnapshot.shedPolicy();
+        warnQueueFull(policy);
+        BlockingQueue<DbOperation> overflow = spoolOverflow;
+        if (policy == DatabaseConfig.ShedPolicy.SPOOL && spool != null && overflow != null) {
+            // The waiting operations are older, so they go into the overflow first.
+            // A drain task spools them, because spooling waits for the batch that is being written.
+            List<DbOperation> dropped = new ArrayList<>();
+            synchronized (mergeLock) {
+                List<DbOperation> operations = new ArrayList<>(queue.size() + 1);
+                queue.drainTo(operations);
+                operations.add(operation);
+                for (DbOperation op : operations) {
+                    if (!overflow.offer(op)) {
+                        dropped.add(op);
+                    }
+                }
+            }
+            if (!dropped.isEmpty()) {
+                drop(dropped);
+            }
+            scheduleDrain();
+            return;
+        }
+        if (policy != DatabaseConfig.ShedPolicy.DROP_OLDEST) {
+            mergeQueue(queue);
+        }
+        while (!queue.offer(operation)) {
+            DbOperation oldest = queue.poll();
+            if (oldest != null) {
+                drop(List.of(oldest));
+            }
+        }
+        scheduleDrain();
+    }
+
+    /**
+     * Replaces the waiting operations with one operation per player and per
+     * top list, that holds only the newest values.
+     */
+    private void mergeQueue(BlockingQueue<DbOperation> queue) {
+        synchronized (mergeLock) {
+            List<DbOperation> waiting = new ArrayList<>(queue.size());
+            queue.drainTo(waiting);
+            List<DbOperation> merged = DbSpool.coalesce(waiting);
+            metrics.merged.add(waiting.size() - merged.size());
+            for (DbOperation op : merged) {
+                // Other threads may have filled the queue in the meantime
+                if (!queue.offer(op)) {
+                    drop(List.of(op));
+                }
+            }
+        }
+    }
+
+    private void warnQueueFull(DatabaseConfig.ShedPolicy policy) {
+        long now = System.currentTimeMillis();
+        long last = lastQueueFullWarningAt.get();
+        if (now - last >= QUEUE_FULL_WARNING_INTERVAL_MS && lastQueueFullWarningAt.compareAndSet(last, now)) {
+            MyLogger.logWarning("Database write queue is full, shedding load with policy " +
+                    policy.name().toLowerCase() + ". Use /statdb to see the queue state");
+        }
+    }
+
+    /**
+     * Starts another drain task, unless every executor thread is already draining.
+     */
+    private void scheduleDrain() {
+        ExecutorService exec = executor;
+        if (exec == null) return;
+        while (true) {
+            int active = activeDrains.get();
+            if (active >= drainThreads) return;
+            if (activeDrains.compareAndSet(active, active + 1)) break;
+        }
+        try {
+            exec.execute(this::drainQueue);
+        } catch (RejectedExecutionException e) {
+            activeDrains.decrementAndGet();
+        }
+    }
+
+    /**
+     * Takes operations from the queue in chunks of the configured batch size
+     * and writes every chunk with a single {@link DbProvider#writeBatch} call.
+     * While writes have to stay in order (see {@link #writesInOrder(DbSpool)}),
+     * chunks are taken and written one at a time, and the operations that
+     * {@link #shed} moved to the overflow are spooled before the next chunk is taken.
+     */
+    private void drainQueue() {
+        BlockingQueue<DbOperation> queue = writeQueue;
+        try {
+            if (queue == null) return;
+            int batchSize = Math.max(1, configSnapshot.writeBatchSize());
+            List<DbOperation> chunk = new ArrayList<>(batchSize);
+            while (true) {
+                DbSpool sp = spool;
+                if (!writesInOrder(sp)) {
+                    if (queue.drainTo(chunk, batchSize) == 0) break;
+                    writeOrDrop(sp, chunk);
+                } else {
+                    synchronized (spoolWriteLock) {
+                        // The overflow is older than what is in the queue now
+                        spoolOverflow(sp);
+                        if (queue.drainTo(chunk, batchSize) == 0) break;
+                        writeOrDrop(sp, chunk);
+                    }
+                }
+                chunk.clear();
+            }
+        } finally {
+            activeDrains.decrementAndGet();
+        }
+        // An operation may have been queued after the last drainTo, while this task still counted as active
+        BlockingQueue<DbOperation> overflow = spoolOverflow;
+        if (!queue.isEmpty() || (overflow != null && !overflow.isEmpty())) {
+            scheduleDrain();
+        }
+    }
+
+    /**
+     * Writes a batch, or spools it if it fails. While the spool holds operations,
+     * new batches are added behind them instead, so an older spooled value never
+     * overwrites a newer one when the spool is replayed. For that, batches are
+     * written one at a time and in queue order while writes have to stay in order:
+     * otherwise an older batch could fail and be spooled while a newer one is written.
+     */
+    private void writeBatch(List<DbOperation> operations) {
+        DbSpool sp = spool;
+        if (!writesInOrder(sp)) {
+            writeOrDrop(sp, operations);
+            return;
+        }
+        synchronized (spoolWriteLock) {
+            writeOrDrop(sp, operations);
+        }
+    }
+
+    /**
+     * Batches are only written one at a time while the spool holds operations,
+     * while there are operations waiting in the overflow to be spooled, or while
+     * the circuit is not closed, because that is when batches get spooled.
+     * Otherwise they are written in parallel, by all executor threads.
+     * A batch that fails while others are still being written can then
+     * still be spooled after a newer one was written; this is rare, and
+     * only lasts until the key is written again.
+     */
+    private boolean writesInOrder(DbSpool sp) {
+        if (sp == null) return false;
+        BlockingQueue<DbOperation> overflow = spoolOverflow;
+        return sp.hasPending() || (overflow != null && !overflow.isEmpty()) ||
+                breaker.state() != DbCircuitBreaker.State.CLOSED;
+    }
+
+    private void writeOrDrop(DbSpool sp, List<DbOperation> operations) {
+        if (sp != null && sp.hasPending()) {
+            spoolOrDrop(sp, operations);
+            return;
+        }
+        long ticket = breaker.allowRequest(System.currentTimeMillis());
+        if (ticket == DbCircuitBreaker.NO_PERMIT) {
+            if (sp == null) {
+                dbLog("DB circuit open, dropped batch of " + operations.size() + " operations");
+            }
+            spoolOrDrop(sp, operations);
+            return;
+        }
+        try {
+            writeToProvider(sp, operations, ticket);
+        } catch (Exception e) {
+            // While the circuit is open, the breaker has already reported the outage
+            String msg = "Database batch of " + operations.size() + " operations failed" +
+                    (sp != null ? ", spooled for later: " : ": ") + e.getMessage();
+            if (breaker.state() == DbCircuitBreaker.State.CLOSED) {
+                MyLogger.logWarning(msg);
+            } else {
+                dbLog(msg);
+            }
+            spoolOrDrop(sp, operations);
+            replaySoon();
+        }
+    }
+
+    /**
+     * Moves the operations that did not fit in the queue into the spool.
+     * Call this while holding spoolWriteLock.
+     */
+    private void spoolOverflow(DbSpool sp) {
+        BlockingQueue<DbOperation> overflow = spoolOverflow;
+        if (overflow == null || overflow.isEmpty()) return;
+        List<DbOperation> operations = new ArrayList<>(overflow.size());
+        overflow.drainTo(operations);
+        if (!operations.isEmpty()) {
+            spoolOrDrop(sp, operations);
+        }
+    }
+
+    /**
+     * Adds operations to the spool, or drops them if there is no spool or it can't be written.
+     */
+    private void spoolOrDrop(DbSpool sp, List<DbOperation> operations) {
+        if (sp != null && sp.append(operations)) {
+            metrics.spooled.add(operations.size());
+        } else {
+            drop(operations);
+        }
+    }
+
+    /**
+     * Counts operations that will never reach the database, and removes their
+     * player stats from the write dedup cache, so the same values are not
+     * skipped when they are written again. Their players get a full sync on
+     * their next join.
+     */
+    private void drop(List<DbOperation> operations) {
+        metrics.shed.add(operations.size());
+        forget(operations);
+        Set<UUID> players = new HashSet<>();
+        for (DbOperation operation : operations) {
+            if (operation instanceof DbOperation.PlayerStats op) {
+                players.add(op.uuid());
+            }
+        }
+        if (!players.isEmpty()) {
+            DirtyStatTracker.forgetFullSync(players);
+        }
+    }
+
+    /**
+     * Removes the player stats of operations that were not written from the
+     * write dedup cache.
+     */
+    private void forget(List<DbOperation> operations) {
+        for (DbOperation operation : operations) {
+            if (operation instanceof DbOperation.PlayerStats op) {
+                int ordinal = playerOrdinal(op.uuid());
+                op.stats().forEach((statKey, value) -> {
+                    if (value != null) {
+                        playerCache.forget(StatWriteDedupCache.key(ordinal, statKeyId(statKey)), value);
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * Writes a batch with the provider, and reports the outcome to the circuit breaker and the metrics.
+     * Operations the database rejected are counted as failed and spooled, or dropped if there is no
+     * spool, while the rest of the batch counts as written. If the database did not confirm the batch
+     * as durably as configured, the whole batch fails, like it does when the database can't be reached.
+     *
+     * @param sp the spool for operations the database rejected, or null to drop them
+     */
+    private void writeToProvider(DbSpool sp, List<DbOperation> operations, long ticket) throws Exception {
+        DbCircuitBreaker cb = breaker;
+        int count = operations.size();
+        List<DbOperation> failed = List.of();
+        metrics.inFlight.addAndGet(count);
+        long start = System.nanoTime();
+        try {
+            provider.writeBatch(operations);
+        } catch (DbPartialWriteException e) {
+            if (e.writeConcernFailed()) {
+                metrics.failed.add(count);
+                cb.recordFailure(ticket, System.currentTimeMillis());
+                throw e;
+            }
+            // The database answered, so this does not count against the circuit
+            failed = e.failedOperations();
+        } catch (Exception e) {
+            metrics.failed.add(count);
+            cb.recordFailure(ticket, System.currentTimeMillis());
+            throw e;
+        } finally {
+            long elapsed = System.nanoTime() - start;
+            metrics.inFlight.addAndGet(-count);
+            metrics.recordLatency(elapsed);
+        }
+        cb.recordSuccess(ticket);
+        if (!failed.isEmpty()) {
+            metrics.failed.add(failed.size());
+            spoolOrDrop(sp, failed);
+        }
+        metrics.written.add(count - failed.size());
+        dbLog("Wrote batch of " + count + " operations in " +
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms");
+    }
+
+    /**
+     * Lets the provider do one step of computing top lists, and reports the
+     * outcome to the circuit breaker and the metrics in the same way as
+     * {@link #writeToProvider}.
+     */
+    private <T> T callProvider(long ticket, Callable<T> call) throws Exception {
+        DbCircuitBreaker cb = breaker;
+        T result;
+        metrics.inFlight.incrementAndGet();
+        long start = System.nanoTime();
+        try {
+            result = call.call();
+        } catch (Exception e) {
+            metrics.failed.increment();
+            cb.recordFailure(ticket, System.currentTimeMillis());
+            throw e;
+        } finally {
+            metrics.inFlight.decrementAndGet();
+            metrics.recordLatency(System.nanoTime() - start);
+        }
+        cb.recordSuccess(ticket);
+        metrics.written.increment();
+        return result;
+    }
+
+    private void initSpool() {
+        if (!configSnapshot.spoolEnabled()) return;
+        DbSpool sp = new DbSpool(new File(Main.getPluginInstance().getDataFolder(), "db-spool.bin"));
+        spool = sp;
+        spoolReplayer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "PlayerStats-DB-Spool");
+            t.setDaemon(true);
+            return t;
+        });
+        long interval = Math.max(1000L, configSnapshot.spoolRetryIntervalMs());
+        // Replay right away, in case the spool still holds writes from before a restart
+        spoolReplayer.scheduleWithFixedDelay(this::replaySpool, 0L, interval, TimeUnit.MILLISECONDS);
+        dbLog("Initialized database spool with retryIntervalMs=" + interval);
+    }
+
+    /**
+     * Replays the spool right away instead of at the next retry interval, while the
+     * circuit is closed, so a single failed batch does not send every new batch to
+     * the spool until then.
+     */
+    private void replaySoon() {
+        ScheduledExecutorService replayer = spoolReplayer;
+        if (replayer == null || breaker.state() != DbCircuitBreaker.State.CLOSED) return;
+        if (!replayScheduled.compareAndSet(false, true)) return;
+        try {
+            replayer.execute(() -> {
+                replayScheduled.set(false);
+                replaySpool();
+            });
+        } catch (RejectedExecutionException e) {
+            replayScheduled.set(false);
+        }
+    }
+
+    /**
+     * Sends spooled operations to the provider, for as long as that works
+     * and new operations keep being spooled in the meantime. While the circuit
+     * is open, this waits for the backoff, and the replay is the probe.
+     */
+    private void replaySpool() {
+        DbSpool sp = spool;
+        int batchSize = Math.max(1, configSnapshot.writeBatchSize());
+        try {
+            while (sp != null && sp.hasPending()) {
+                long[] ticket = {breaker.allowRequest(System.currentTimeMillis())};
+                if (ticket[0] == DbCircuitBreaker.NO_PERMIT) return;
+                // The first chunk uses the ticket above, which may be the probe; later chunks get their own
+                boolean replayed = sp.replay(operations -> {
+                    long current = ticket[0] != DbCircuitBreaker.NO_PERMIT ?
+                            ticket[0] : breaker.allowRequest(System.currentTimeMillis());
+                    ticket[0] = DbCircuitBreaker.NO_PERMIT;
+                    if (current == DbCircuitBreaker.NO_PERMIT) {
+                        throw new IllegalStateException("the database circuit is open");
+                    }
+                    // Operations the database rejects again are dropped, instead of being spooled forever
+                    writeToProvider(null, operations, current);
+                }, batchSize);
+                if (!replayed) return;
+                dbLog("Replayed database spool");
+            }
+        } catch (Exception e) {
+            MyLogger.logWarning("Failed to replay database spool: " + e.getMessage());
+        }
+    }
+
+    private void stopSpoolReplayer() {
+        ScheduledExecutorService replayer = spoolReplayer;
+        if (replayer != null) {
+            spoolReplayer = null;
+            replayer.shutdown();
+            try {
+                replayer.awaitTermination(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void closeSpool() {
+        DbSpool sp = spool;
+        if (sp != null) {
+            spool = null;
+            sp.close();
+        }
+    }
+
+    private void initStatBuffer() {
+        long interval = configSnapshot.writeBehindFlushIntervalMs();
+        if (interval <= 0) {
+            dbLog("Write-behind disabled; player stats are written right away");
+            return;
+        }
+        statBuffer = new PlayerStatBuffer(this::submit, interval, configSnapshot.writeBehindMaxBatchSize());
+        dbLog("Initialized write-behind buffer with flushIntervalMs=" + interval +
+                " maxBatchSize=" + configSnapshot.writeBehindMaxBatchSize());
+    }
+
+    private void closeStatBuffer() {
+        PlayerStatBuffer buffer = statBuffer;
+        if (buffer != null) {
+            statBuffer = null;
+            buffer.close();
+        }
     }
 
     private void shutdownExecutor() {
@@ -254,6 +843,25 @@ public final class DatabaseManager implements Closable {
                 executor = null;
             }
         }
+        // Write whatever the drain tasks did not get to, the overflow first because it is older
+        BlockingQueue<DbOperation> queue = writeQueue;
+        BlockingQueue<DbOperation> overflow = spoolOverflow;
+        writeQueue = null;
+        spoolOverflow = null;
+        List<DbOperation> rest = new ArrayList<>();
+        if (overflow != null) overflow.drainTo(rest);
+        if (queue != null) queue.drainTo(rest);
+        if (!rest.isEmpty()) {
+            writeBatch(rest);
+        }
+    }
+
+    private void closeProvider() {
+        try {
+            if (provider != null) provider.close();
+        } catch (Exception e) {
+            MyLogger.logWarning("Failed to close database provider: " + e.getMessage());
+        }
     }
 
     private void dbLog(String msg) {
@@ -262,23 +870,23 @@ public final class DatabaseManager implements Closable {
         }
     }
 
-    private void cleanupExpiredCacheEntries() {
-        long now = System.currentTimeMillis();
-        playerCache.entrySet().removeIf(entry -> (now - entry.getValue().lastWriteAt) > CACHE_TTL_MS);
-        topCache.entrySet().removeIf(entry -> (now - entry.getValue().lastWriteAt) > CACHE_TTL_MS);
+    private int playerOrdinal(UUID playerUUID) {
+        Integer ordinal = playerOrdinals.get(playerUUID);
+        return ordinal != null ? ordinal : playerOrdinals.computeIfAbsent(playerUUID, uuid -> nextPlayerOrdinal.getAndIncrement());
     }
 
-    private void evictOldestCacheEntries() {
-        if (playerCache.size() >= MAX_CACHE_SIZE) {
-            // Remove 25% of oldest entries
-            int toRemove = MAX_CACHE_SIZE / 4;
-            playerCache.entrySet().stream()
-                .sorted((e1, e2) -> Long.compare(e1.getValue().lastWriteAt, e2.getValue().lastWriteAt))
-                .limit(toRemove)
-                .map(Map.Entry::getKey)
-                .forEach(playerCache::remove);
-        }
-        
+    private int statKeyId(String statKey) {
+        Integer id = statKeyIds.get(statKey);
+        return id != null ? id : statKeyIds.computeIfAbsent(statKey, key -> nextStatKeyId.getAndIncrement());
+    }
+
+    /**
+     * Top lists are only written a few times per refresh, so this cache
+     * stays small, and is cleaned when a top list is written.
+     */
+    private void cleanupExpiredTopCacheEntries() {
+        long now = System.currentTimeMillis();
+        topCache.entrySet().removeIf(entry -> (now - entry.getValue().lastWriteAt) > CACHE_TTL_MS);
         if (topCache.size() >= MAX_CACHE_SIZE) {
             int toRemove = MAX_CACHE_SIZE / 4;
             topCache.entrySet().stream()
@@ -300,12 +908,6 @@ public final class DatabaseManager implements Closable {
         return Integer.toHexString(sb.toString().hashCode());
     }
 
-    private static final class PlayerStatCacheEntry {
-        final int value;
-        final long lastWriteAt;
-        PlayerStatCacheEntry(int value, long lastWriteAt) { this.value = value; this.lastWriteAt = lastWriteAt; }
-    }
-
     private static final class TopCacheEntry {
         final String hash;
         final long lastWriteAt;
@@ -0,0 +1,97 @@
+package com.artemis.the.gr8.playerstats.core.db;
+
+import com.artemis.the.gr8.playerstats.core.utils.MyLogger;
+
+/**
+ * Stops calls to a {@link DbProvider} that keeps failing. After a number of
+ * failures in a row the circuit opens, and no calls are let through until
+ * the backoff has passed. Then a single probe call is let through (half-open):
+ * if it works the circuit closes again, and if it fails the circuit opens
+ * for twice as long as before, up to the maximum backoff.
+ * <br>
+ * <br>Every call that is let through gets a ticket with the breaker's current
+ * generation, which changes whenever the circuit opens, probes or closes.
+ * Outcomes with a ticket of an older generation are ignored, so a call that
+ * started before the circuit opened can not close it again.
+ */
+final class DbCircuitBreaker {
+
+    enum State { CLOSED, OPEN, HALF_OPEN }
+
+    /** The ticket for a call that may not be made. */
+    static final long NO_PERMIT = -1L;
+
+    private final int failureThreshold;
+    private final long baseBackoffMs;
+    private final long maxBackoffMs;
+
+    private State state = State.CLOSED;
+    private long generation;
+    private int consecutiveFailures;
+    private long backoffMs;
+    private long nextProbeAt;
+
+    /**
+     * @param failureThreshold the number of failures in a row after which the circuit opens
+     * @param baseBackoffMs the time until the first probe after the circuit opens
+     * @param maxBackoffMs the longest time between two probes
+     */
+    DbCircuitBreaker(int failureThreshold, long baseBackoffMs, long maxBackoffMs) {
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.baseBackoffMs = Math.max(1L, baseBackoffMs);
+        this.maxBackoffMs = Math.max(this.baseBackoffMs, maxBackoffMs);
+    }
+
+    /**
+     * Decides whether a call may go to the provider. When the backoff of an
+     * open circuit has passed, the first caller gets to make the probe call.
+     * The outcome of the call must be reported with {@link #recordSuccess(long)}
+     * or {@link #recordFailure(long, long)}, with the returned ticket.
+     *
+     * @param now the current time in milliseconds
+     * @return the ticket for the call, or {@link #NO_PERMIT} if it may not be made
+     */
+    synchronized long allowRequest(long now) {
+        return switch (state) {
+            case CLOSED -> generation;
+            case OPEN, HALF_OPEN -> {
+                if (now < nextProbeAt) yield NO_PERMIT;
+                // A probe that never reported back does not keep the circuit half-open forever
+                state = State.HALF_OPEN;
+                nextProbeAt = now + maxBackoffMs;
+                yield ++generation;
+            }
+        };
+    }
+
+    synchronized void recordSuccess(long ticket) {
+        if (ticket != generation) return;
+        if (state == State.HALF_OPEN) {
+            MyLogger.logLowLevelMsg("Database is reachable again, resuming writes");
+            state = State.CLOSED;
+            generation++;
+            backoffMs = 0L;
+        }
+        consecutiveFailures = 0;
+    }
+
+    synchronized void recordFailure(long ticket, long now) {
+        if (ticket != generation || state == State.OPEN) return;
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN) {
+            backoffMs = Math.min(maxBackoffMs, backoffMs * 2);
+        } else if (consecutiveFailures >= failureThreshold) {
+            backoffMs = baseBackoffMs;
+        } else {
+            return;
+        }
+        state = State.OPEN;
+        generation++;
+        nextProbeAt = now + backoffMs;
+        MyLogger.logWarning("Database failed " + consecutiveFailures + " times in a row, pausing writes for " + backoffMs + "ms");
+    }
+
+    synchronized State state() {
+        return state;
+    }
+}
@@ -0,0 +1,47 @@
+package com.artemis.the.gr8.playerstats.core.db;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters for the database writes of {@link DatabaseManager}. The latency
+ * percentile is taken over the most recent batches only, which are kept in a
+ * small ring, so recording a batch costs the same no matter how long the server runs.
+ */
+final class DbMetrics {
+
+    private static final int LATENCY_SAMPLES = 1024;
+
+    final LongAdder written = new LongAdder();
+    final LongAdder failed = new LongAdder();
+    final LongAdder spooled = new LongAdder();
+    final LongAdder merged = new LongAdder();
+    final LongAdder shed = new LongAdder();
+    final AtomicInteger inFlight = new AtomicInteger();
+
+    private final long[] latencies = new long[LATENCY_SAMPLES];
+    private int latencyCount;
+    private int latencyIndex;
+
+    synchronized void recordLatency(long nanos) {
+        latencies[latencyIndex] = nanos;
+        latencyIndex = (latencyIndex + 1) % LATENCY_SAMPLES;
+        latencyCount = Math.min(LATENCY_SAMPLES, latencyCount + 1);
+    }
+
+    /**
+     * @return the 99th percentile of the recent batch latencies in milliseconds, or 0 if nothing was written yet
+     */
+    long p99LatencyMs() {
+        long[] samples;
+        synchronized (this) {
+            if (latencyCount == 0) return 0L;
+            samples = Arrays.copyOf(latencies, latencyCount);
+        }
+        Arrays.sort(samples);
+        int index = (int) Math.ceil(samples.length * 0.99) - 1;
+        return TimeUnit.NANOSECONDS.toMillis(samples[Math.max(0, index)]);
+    }
+}
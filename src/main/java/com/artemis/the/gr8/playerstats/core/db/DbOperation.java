@@ -0,0 +1,38 @@
+package com.artemis.the.gr8.playerstats.core.db;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * A pending database write, as it is queued by {@link DatabaseManager}
+ * and handed to {@link DbProvider#writeBatch(java.util.List)}.
+ */
+public sealed interface DbOperation {
+
+    /**
+     * @param uuid Player's UUID
+     * @param playerName Player's name
+     * @param stats statKey -> value for every stat to update
+     */
+    record PlayerStats(UUID uuid, String playerName, Map<String, Integer> stats) implements DbOperation {
+    }
+
+    /**
+     * @param statKey the stat key the top list is for
+     * @param top player name -> value, in ranking order
+     * @param topSize the maximum number of entries to store
+     */
+    record TopList(String statKey, LinkedHashMap<String, Integer> top, int topSize) implements DbOperation {
+    }
+
+    /**
+     * @param uuid Player's UUID
+     * @param playerName Player's name
+     * @param level Experience level
+     * @param totalExperience Total experience points
+     * @param expProgress Progress toward next level (0.0 to 1.0)
+     */
+    record PlayerExperience(UUID uuid, String playerName, int level, int totalExperience, float expProgress) implements DbOperation {
+    }
+}
@@ -0,0 +1,36 @@
+package com.artemis.the.gr8.playerstats.core.db;
+
+import java.util.List;
+
+/**
+ * Thrown by {@link DbProvider#writeBatch(List)} when the database answered,
+ * but did not write every operation of the batch. The other operations
+ * have been written.
+ */
+public final class DbPartialWriteException extends Exception {
+
+    private final List<DbOperation> failedOperations;
+    private final boolean writeConcernFailed;
+
+    /**
+     * @param failedOperations the operations that were not written, or
+     *                         not confirmed to be written
+     * @param writeConcernFailed true if some operations were not confirmed
+     *                           as durably as configured, which means the
+     *                           database is not healthy, rather than that
+     *                           it rejected these operations
+     */
+    public DbPartialWriteException(String message, List<DbOperation> failedOperations, boolean writeConcernFailed) {
+        super(message);
+        this.failedOperations = List.copyOf(failedOperations);
+        this.writeConcernFailed = writeConcernFailed;
+    }
+
+    public List<DbOperation> failedOperations() {
+        return failedOperations;
+    }
+
+    public boolean writeConcernFailed() {
+        return writeConcernFailed;
+    }
+}
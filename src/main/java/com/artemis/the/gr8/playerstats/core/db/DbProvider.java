@@ -1,6 +1,9 @@
 package com.artemis.the.gr8.playerstats.core.db;
 
 import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 
 public interface DbProvider extends AutoCloseable {
@@ -11,6 +14,20 @@ public interface DbProvider extends AutoCloseable {
 
     void updatePlayerStat(UUID uuid, String playerName, String statKey, int value);
 
+    /**
+     * Update several stats of one player at once. Providers that can merge
+     * all keys in a single write should override this.
+     *
+     * @param uuid Player's UUID
+     * @param playerName Player's name
+     * @param stats statKey -> value for every stat to update
+     */
+    default void updatePlayerStats(UUID uuid, String playerName, Map<String, Integer> stats) {
+        for (Map.Entry<String, Integer> e : stats.entrySet()) {
+            updatePlayerStat(uuid, playerName, e.getKey(), e.getValue() == null ? 0 : e.getValue());
+        }
+    }
+
     void upsertTopList(String statKey, LinkedHashMap<String, Integer> top, int topSize);
 
     /**
@@ -24,6 +41,55 @@ public interface DbProvider extends AutoCloseable {
      */
     void updatePlayerExperience(UUID uuid, String playerName, int level, int totalExperience, float expProgress);
 
+    /**
+     * Write a batch of pending operations. Providers that can send several
+     * operations in one round trip should override this. Unlike the single
+     * operation methods, failures are thrown, so the caller knows the batch
+     * was not written.
+     *
+     * @param operations the operations to write, in the order they were queued
+     */
+    default void writeBatch(List<DbOperation> operations) throws Exception {
+        for (DbOperation operation : operations) {
+            switch (operation) {
+                case DbOperation.PlayerStats op -> updatePlayerStats(op.uuid(), op.playerName(), op.stats());
+                case DbOperation.TopList op -> upsertTopList(op.statKey(), op.top(), op.topSize());
+                case DbOperation.PlayerExperience op -> updatePlayerExperience(op.uuid(), op.playerName(),
+                        op.level(), op.totalExperience(), op.expProgress());
+            }
+        }
+    }
+
+    /**
+     * @return true if this provider can compute top lists inside the database,
+     * with {@link #startTopListRefresh}
+     */
+    default boolean computesTopLists() {
+        return false;
+    }
+
+    /**
+     * Start computing top lists inside the database, from the stored player
+     * stats. The players that should not be ranked are sent once, here.
+     *
+     * @param topSize the number of players to store in every top list
+     * @param excludedPlayers the players that are stored, but should not be ranked
+     * @return the run to compute the top list of every key with
+     */
+    default TopListRefresh startTopListRefresh(int topSize, Set<UUID> excludedPlayers) throws Exception {
+        throw new UnsupportedOperationException("This database can not compute top lists");
+    }
+
+    /**
+     * Write a large number of operations at once, such as when the database
+     * is first populated. By default, this is the same as {@link #writeBatch(List)}.
+     *
+     * @param operations the operations to write
+     */
+    default void bulkLoad(List<DbOperation> operations) throws Exception {
+        writeBatch(operations);
+    }
+
     @Override
     void close();
 }
@@ -0,0 +1,404 @@
+package com.artemis.the.gr8.playerstats.core.db;
+
+import com.artemis.the.gr8.playerstats.core.utils.MyLogger;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * An append-only file in the plugin's data folder, that holds database writes
+ * which could not be written: because the queue was full, or because the
+ * provider failed. Once the provider works again, the spool is replayed in
+ * the order the operations were added, and emptied.
+ * <br>
+ * <br>Operations are coalesced before they are replayed, and when the file
+ * has grown a lot since it was last compacted: only the newest value for
+ * every (player, statKey), every player's experience and every top list is kept.
+ * A record that was only partly written when the server stopped is ignored.
+ */
+final class DbSpool {
+
+    private static final int MAGIC = 0x50535350;
+    private static final int FORMAT_VERSION = 1;
+    private static final long COMPACT_MIN_BYTES = 1024 * 1024;
+
+    private static final byte PLAYER_STATS = 1;
+    private static final byte TOP_LIST = 2;
+    private static final byte PLAYER_EXPERIENCE = 3;
+
+    /**
+     * Writes a chunk of operations, and throws if they were not written.
+     */
+    @FunctionalInterface
+    interface Writer {
+        void write(List<DbOperation> operations) throws Exception;
+    }
+
+    private final File spoolFile;
+    private DataOutputStream out;
+    private FileOutputStream fileOut;
+    private long length;
+    private long compactedLength;
+    private long validLength;
+    private boolean replaying;
+
+    /**
+     * @param spoolFile the file in the plugin's data folder the spool is stored in
+     */
+    DbSpool(File spoolFile) {
+        this.spoolFile = spoolFile;
+        this.length = spoolFile.isFile() ? spoolFile.length() : 0L;
+        this.compactedLength = length;
+        if (length > 0) {
+            truncateIncompleteRecord();
+        }
+    }
+
+    /**
+     * @return true if there are operations waiting to be replayed
+     */
+    synchronized boolean hasPending() {
+        return length > headerLength();
+    }
+
+    /**
+     * Adds operations to the end of the spool, and flushes them to the file.
+     *
+     * @return false if the operations could not be written to the file
+     */
+    synchronized boolean append(List<DbOperation> operations) {
+        if (operations.isEmpty()) return true;
+        try {
+            DataOutputStream stream = openForAppend();
+            for (DbOperation operation : operations) {
+                writeOperation(stream, operation);
+            }
+            stream.flush();
+            length = spoolFile.length();
+        } catch (IOException e) {
+            MyLogger.logWarning("Could not spool " + operations.size() + " database operations, they are lost: " + e.getMessage());
+            closeStream();
+            return false;
+        }
+        if (!replaying && length > Math.max(COMPACT_MIN_BYTES, compactedLength * 2)) {
+            compact();
+        }
+        return true;
+    }
+
+    /**
+     * Writes everything that was spooled so far, coalesced and in chunks.
+     * Operations that are added in the meantime stay in the spool for the next replay.
+     * If a chunk fails, the spool is left as it is, and replayed again later;
+     * writing the same values twice does no harm.
+     *
+     * @return false if the replay failed
+     */
+    boolean replay(Writer writer, int batchSize) {
+        long replayedLength;
+        List<DbOperation> operations;
+        synchronized (this) {
+            if (replaying || !hasPending()) return true;
+            closeStream();
+            replayedLength = length;
+            operations = coalesce(readAll(replayedLength));
+            replaying = true;
+        }
+        boolean success = false;
+        try {
+            int chunkSize = Math.max(1, batchSize);
+            for (int from = 0; from < operations.size(); from += chunkSize) {
+                writer.write(operations.subList(from, Math.min(operations.size(), from + chunkSize)));
+            }
+            success = true;
+            MyLogger.logLowLevelMsg("Replayed " + operations.size() + " spooled database operations");
+        } catch (Exception e) {
+            MyLogger.logWarning("Replaying spooled database operations failed, will retry later: " + e.getMessage());
+        } finally {
+            synchronized (this) {
+                replaying = false;
+                if (success) {
+                    removeReplayed(replayedLength);
+                }
+            }
+        }
+        return success;
+    }
+
+    /**
+     * Flushes the spool to disk and closes the file. It is opened again when something is appended.
+     */
+    synchronized void close() {
+        if (out != null) {
+            try {
+                out.flush();
+                fileOut.getFD().sync();
+            } catch (IOException e) {
+                MyLogger.logWarning("Could not flush database spool: " + e.getMessage());
+            }
+        }
+        closeStream();
+    }
+
+    // --- internals ---
+
+    private DataOutputStream openForAppend() throws IOException {
+        if (out == null) {
+            Files.createDirectories(spoolFile.getParentFile().toPath());
+            boolean isNew = !spoolFile.isFile() || spoolFile.length() == 0;
+            fileOut = new FileOutputStream(spoolFile, true);
+            out = new DataOutputStream(new BufferedOutputStream(fileOut));
+            if (isNew) {
+                writeHeader(out);
+            }
+        }
+        return out;
+    }
+
+    private void closeStream() {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException ignored) {
+            }
+            out = null;
+            fileOut = null;
+        }
+    }
+
+    private static long headerLength() {
+        return 8L;
+    }
+
+    private static void writeHeader(DataOutputStream stream) throws IOException {
+        stream.writeInt(MAGIC);
+        stream.writeInt(FORMAT_VERSION);
+    }
+
+    /**
+     * Rewrites the spool with only the newest value for every key.
+     */
+    private void compact() {
+        closeStream();
+        List<DbOperation> operations = coalesce(readAll(length));
+        try {
+            rewrite(operations, null, 0L);
+            MyLogger.logLowLevelMsg("Compacted database spool to " + operations.size() + " operations");
+        } catch (IOException e) {
+            MyLogger.logWarning("Could not compact database spool: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Removes everything up to replayedLength, and keeps what was appended after it.
+     */
+    private void removeReplayed(long replayedLength) {
+        closeStream();
+        try {
+            if (length <= replayedLength) {
+                Files.deleteIfExists(spoolFile.toPath());
+                length = 0L;
+                compactedLength = 0L;
+            } else {
+                rewrite(List.of(), spoolFile, replayedLength);
+            }
+        } catch (IOException e) {
+            MyLogger.logWarning("Could not clear replayed database operations from the spool: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Writes a new spool with these operations, followed by the bytes of
+     * <code>tail</code> from <code>tailOffset</code> on, and replaces the spool with it.
+     */
+    private void rewrite(List<DbOperation> operations, File tail, long tailOffset) throws IOException {
+        File tempFile = new File(spoolFile.getPath() + ".tmp");
+        try (DataOutputStream stream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+            writeHeader(stream);
+            for (DbOperation operation : operations) {
+                writeOperation(stream, operation);
+            }
+            if (tail != null) {
+                try (InputStream in = new BufferedInputStream(new FileInputStream(tail))) {
+                    in.skipNBytes(tailOffset);
+                    in.transferTo(stream);
+                }
+            }
+        }
+        Files.move(tempFile.toPath(), spoolFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        length = spoolFile.length();
+        compactedLength = length;
+    }
+
+    /**
+     * Cuts off a record that was only partly written when the server stopped,
+     * so new records are not appended behind it.
+     */
+    private void truncateIncompleteRecord() {
+        readAll(length);
+        if (validLength >= length) return;
+        try (RandomAccessFile file = new RandomAccessFile(spoolFile, "rw")) {
+            file.setLength(validLength);
+            MyLogger.logWarning("Removed an incomplete record from the database spool");
+        } catch (IOException e) {
+            MyLogger.logWarning("Could not repair database spool: " + e.getMessage());
+        }
+        length = spoolFile.length();
+        compactedLength = length;
+    }
+
+    private List<DbOperation> readAll(long upTo) {
+        List<DbOperation> operations = new ArrayList<>();
+        validLength = 0L;
+        if (!spoolFile.isFile()) return operations;
+        try (CountingInputStream counter = new CountingInputStream(new BufferedInputStream(new FileInputStream(spoolFile)));
+             DataInputStream in = new DataInputStream(counter)) {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+                MyLogger.logWarning("Database spool has an unknown format and is discarded");
+                return operations;
+            }
+            validLength = counter.count;
+            while (counter.count < upTo) {
+                operations.add(readOperation(in));
+                validLength = counter.count;
+            }
+        } catch (EOFException e) {
+            // The last record was only partly written
+        } catch (IOException | RuntimeException e) {
+            MyLogger.logWarning("Could not read all of the database spool: " + e.getMessage());
+        }
+        return operations;
+    }
+
+    /**
+     * Keeps the newest value for every (player, statKey), every player's
+     * experience and every top list, and merges the stats of a player into one operation.
+     */
+    static List<DbOperation> coalesce(List<DbOperation> operations) {
+        LinkedHashMap<UUID, DbOperation.PlayerStats> stats = new LinkedHashMap<>();
+        LinkedHashMap<UUID, DbOperation.PlayerExperience> experience = new LinkedHashMap<>();
+        LinkedHashMap<String, DbOperation.TopList> topLists = new LinkedHashMap<>();
+        for (DbOperation operation : operations) {
+            switch (operation) {
+                case DbOperation.PlayerStats op -> {
+                    DbOperation.PlayerStats previous = stats.get(op.uuid());
+                    LinkedHashMap<String, Integer> merged = new LinkedHashMap<>();
+                    if (previous != null) merged.putAll(previous.stats());
+                    merged.putAll(op.stats());
+                    stats.put(op.uuid(), new DbOperation.PlayerStats(op.uuid(), op.playerName(), merged));
+                }
+                case DbOperation.PlayerExperience op -> experience.put(op.uuid(), op);
+                case DbOperation.TopList op -> topLists.put(op.statKey(), op);
+            }
+        }
+        List<DbOperation> coalesced = new ArrayList<>(stats.size() + experience.size() + topLists.size());
+        coalesced.addAll(stats.values());
+        coalesced.addAll(experience.values());
+        coalesced.addAll(topLists.values());
+        return coalesced;
+    }
+
+    private static void writeOperation(DataOutputStream stream, DbOperation operation) throws IOException {
+        switch (operation) {
+            case DbOperation.PlayerStats op -> {
+                stream.writeByte(PLAYER_STATS);
+                writeUUID(stream, op.uuid());
+                stream.writeUTF(op.playerName() == null ? "" : op.playerName());
+                stream.writeInt(op.stats().size());
+                for (Map.Entry<String, Integer> e : op.stats().entrySet()) {
+                    stream.writeUTF(e.getKey());
+                    stream.writeInt(e.getValue() == null ? 0 : e.getValue());
+                }
+            }
+            case DbOperation.TopList op -> {
+                stream.writeByte(TOP_LIST);
+                stream.writeUTF(op.statKey());
+                stream.writeInt(op.topSize());
+                int size = op.top() == null ? 0 : op.top().size();
+                stream.writeInt(size);
+                if (size > 0) {
+                    for (Map.Entry<String, Integer> e : op.top().entrySet()) {
+                        stream.writeUTF(e.getKey() == null ? "" : e.getKey());
+                        stream.writeInt(e.getValue() == null ? 0 : e.getValue());
+                    }
+                }
+            }
+            case DbOperation.PlayerExperience op -> {
+                stream.writeByte(PLAYER_EXPERIENCE);
+                writeUUID(stream, op.uuid());
+                stream.writeUTF(op.playerName() == null ? "" : op.playerName());
+                stream.writeInt(op.level());
+                stream.writeInt(op.totalExperience());
+                stream.writeFloat(op.expProgress());
+            }
+        }
+    }
+
+    private static DbOperation readOperation(DataInputStream in) throws IOException {
+        byte type = in.readByte();
+        switch (type) {
+            case PLAYER_STATS -> {
+                UUID uuid = readUUID(in);
+                String name = in.readUTF();
+                int count = in.readInt();
+                LinkedHashMap<String, Integer> stats = new LinkedHashMap<>();
+                for (int i = 0; i < count; i++) {
+                    stats.put(in.readUTF(), in.readInt());
+                }
+                return new DbOperation.PlayerStats(uuid, name, stats);
+            }
+            case TOP_LIST -> {
+                String statKey = in.readUTF();
+                int topSize = in.readInt();
+                int count = in.readInt();
+                LinkedHashMap<String, Integer> top = new LinkedHashMap<>();
+                for (int i = 0; i < count; i++) {
+                    top.put(in.readUTF(), in.readInt());
+                }
+                return new DbOperation.TopList(statKey, top, topSize);
+            }
+            case PLAYER_EXPERIENCE -> {
+                UUID uuid = readUUID(in);
+                return new DbOperation.PlayerExperience(uuid, in.readUTF(), in.readInt(), in.readInt(), in.readFloat());
+            }
+            default -> throw new IOException("Unknown operation type " + type);
+        }
+    }
+
+    private static void writeUUID(DataOutputStream stream, UUID uuid) throws IOException {
+        stream.writeLong(uuid.getMostSignificantBits());
+        stream.writeLong(uuid.getLeastSignificantBits());
+    }
+
+    private static UUID readUUID(DataInputStream in) throws IOException {
+        return new UUID(in.readLong(), in.readLong());
+    }
+
+    private static final class CountingInputStream extends FilterInputStream {
+        long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) count++;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) count += n;
+            return n;
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package com.artemis.the.gr8.playerstats.core.db;
+
+/**
+ * A snapshot of the state of the database writes, as it is shown to operators
+ * by /statdb. The counters are totals since the server started.
+ *
+ * @param provider the name of the active provider
+ * @param circuitState closed, open or half_open
+ * @param queueDepth the number of operations waiting in the queue
+ * @param queueCapacity the maximum number of operations in the queue
+ * @param inFlight the number of operations that are being written right now
+ * @param written the number of operations that were written
+ * @param failed the number of operations in batches that failed
+ * @param spooled the number of operations that were added to the spool
+ * @param merged the number of queued operations that were merged into newer ones
+ * @param shed the number of operations that were dropped
+ * @param spoolPending whether the spool holds operations that still have to be written
+ * @param p99LatencyMs the 99th percentile latency of recent batches
+ */
+public record DbStats(String provider, String circuitState, int queueDepth, int queueCapacity, int inFlight,
+                      long written, long failed, long spooled, long merged, long shed,
+                      boolean spoolPending, long p99LatencyMs) {
+}
@@ -0,0 +1,403 @@
+package com.artemis.the.gr8.playerstats.core.db;
+
+import com.artemis.the.gr8.playerstats.core.Main;
+import com.artemis.the.gr8.playerstats.core.utils.Closable;
+import com.artemis.the.gr8.playerstats.core.utils.MyLogger;
+import com.artemis.the.gr8.playerstats.core.utils.Reloadable;
+import org.bukkit.Bukkit;
+import org.bukkit.Material;
+import org.bukkit.Statistic;
+import org.bukkit.entity.EntityType;
+import org.bukkit.entity.Player;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Remembers which tracked statistics of online players have changed since
+ * they were last written to the database, so only those are read and written.
+ * Every tracked key gets a bit, by its position in
+ * {@link DatabaseManager#trackedStatKeys()}, and every player with changes
+ * gets a bitset of those positions.
+ * <br>
+ * <br>The server does not fire increment events for playtime, distances and
+ * the other statistics it updates every tick or every move, so tracked keys
+ * of those statistics are written with every flush.
+ * <br>
+ * <br>Stats from before the plugin tracked them are not seen here, so every
+ * player gets one full sync as well, see {@link #needsFullSync(UUID)}. The
+ * players that had it are stored in dirty-sync-players.bin, so this is only
+ * done again when the tracked keys or the database change, or when writes of
+ * a player were dropped before they reached the database.
+ */
+public final class DirtyStatTracker implements Reloadable, Closable {
+
+    private static final int MAGIC = 0x50534453;
+    private static final int FORMAT_VERSION = 1;
+
+    private static volatile DirtyStatTracker instance;
+
+    public static DirtyStatTracker getInstance() {
+        DirtyStatTracker local = instance;
+        if (local != null) return local;
+        synchronized (DirtyStatTracker.class) {
+            if (instance == null) instance = new DirtyStatTracker();
+            return instance;
+        }
+    }
+
+    private final File syncedPlayersFile;
+    private final Set<UUID> fullySynced;
+    private volatile ConcurrentHashMap<UUID, AtomicLongArray> dirty;
+    private volatile KeyIndex index;
+    private boolean closed;
+    // Identifies the tracked keys and the database the players in fullySynced were synced with
+    private int syncTarget;
+
+    private DirtyStatTracker() {
+        syncedPlayersFile = new File(Main.getPluginInstance().getDataFolder(), "dirty-sync-players.bin");
+        fullySynced = ConcurrentHashMap.newKeySet();
+        dirty = new ConcurrentHashMap<>();
+        syncTarget = readSyncedPlayers();
+        reload();
+    }
+
+    /**
+     * Rebuilds the bit positions from the tracked keys. Changes that were not
+     * written yet are written first on the main thread, with the positions they
+     * were marked with. If the tracked keys or the database changed, players
+     * get a full sync again.
+     */
+    @Override
+    public synchronized void reload() {
+        DatabaseManager dbm = DatabaseManager.getInstance();
+        KeyIndex previous = index;
+        ConcurrentHashMap<UUID, AtomicLongArray> changes = dirty;
+        index = null;
+        dirty = new ConcurrentHashMap<>();
+        if (previous != null && (!changes.isEmpty() || previous.hasAlwaysDirty)) {
+            Bukkit.getScheduler().runTask(Main.getPluginInstance(), () -> flushOnlinePlayers(previous, changes));
+        }
+
+        int target = syncTarget(dbm);
+        if (target != syncTarget) {
+            fullySynced.clear();
+            syncTarget = target;
+        }
+        saveSyncedPlayers();
+        if (!dbm.config().enabled() || !dbm.config().dirtySyncEnabled()) {
+            return;
+        }
+        index = new KeyIndex(dbm.trackedStatKeys());
+        MyLogger.logLowLevelMsg("Tracking changes of " + index.size + " statistic keys for online players");
+    }
+
+    /**
+     * Writes the changes of the players that are still online, because the
+     * server disables plugins before it kicks them, so they never quit.
+     * This has to run before the {@link DatabaseManager} is closed.
+     */
+    @Override
+    public synchronized void close() {
+        flushOnlinePlayers();
+        saveSyncedPlayers();
+        closed = true;
+    }
+
+    /**
+     * Tells whether all tracked statistics of this player should be written,
+     * because that has never been done for the current tracked keys and database.
+     * Only the first call for a player returns true.
+     */
+    public boolean needsFullSync(UUID playerUUID) {
+        return fullySynced.add(playerUUID);
+    }
+
+    /**
+     * Gives these players a full sync again on their next join, because some
+     * of their writes never reached the database. Writes that are dropped while
+     * the database closes come after {@link #close()}, so then the players are
+     * saved again.
+     */
+    static void forgetFullSync(Collection<UUID> playerUUIDs) {
+        DirtyStatTracker tracker = instance;
+        if (tracker == null || !tracker.fullySynced.removeAll(playerUUIDs)) return;
+        synchronized (tracker) {
+            if (tracker.closed) {
+                tracker.saveSyncedPlayers();
+            }
+        }
+    }
+
+    /**
+     * Marks a statistic of a player as changed, if it is tracked. This is
+     * called for every statistic increment, so it does not allocate anything
+     * once the player has a bitset.
+     *
+     * @param material the block or item, for block and item statistics
+     * @param entityType the entity, for entity statistics
+     */
+    public void markDirty(UUID playerUUID, Statistic statistic, Material material, EntityType entityType) {
+        KeyIndex idx = index;
+        if (idx == null) return;
+        int bit = idx.bitOf(statistic, material, entityType);
+        if (bit < 0) return;
+
+        ConcurrentHashMap<UUID, AtomicLongArray> changes = dirty;
+        AtomicLongArray bits = changes.get(playerUUID);
+        if (bits == null) {
+            bits = changes.computeIfAbsent(playerUUID, uuid -> new AtomicLongArray(idx.words));
+        }
+        int word = bit >>> 6;
+        long mask = 1L << bit;
+        if (word >= bits.length() || (bits.get(word) & mask) != 0) return;
+        long current;
+        do {
+            current = bits.get(word);
+        } while ((current & mask) == 0 && !bits.compareAndSet(word, current, current | mask));
+    }
+
+    /**
+     * Writes the changed statistics of all online players, and forgets the
+     * changes of players that are no longer online. Call this on the main thread.
+     */
+    public void flushOnlinePlayers() {
+        flushOnlinePlayers(index, dirty);
+    }
+
+    private void flushOnlinePlayers(KeyIndex idx, ConcurrentHashMap<UUID, AtomicLongArray> changes) {
+        if (idx == null || (changes.isEmpty() && !idx.hasAlwaysDirty)) return;
+        int written = 0;
+        for (Player player : Bukkit.getOnlinePlayers()) {
+            written += flush(player, idx, changes);
+        }
+        changes.keySet().removeIf(uuid -> Bukkit.getPlayer(uuid) == null);
+        if (written > 0 && DatabaseManager.getInstance().config().verboseLogging()) {
+            MyLogger.logLowLevelMsg("Synced " + written + " changed statistics of online players");
+        }
+    }
+
+    /**
+     * Writes the changed statistics of one player, and the statistics that
+     * have no increment event. Call this on the main thread.
+     *
+     * @return the number of statistics that were written
+     */
+    public int flush(Player player) {
+        return flush(player, index, dirty);
+    }
+
+    private int flush(Player player, KeyIndex idx, ConcurrentHashMap<UUID, AtomicLongArray> changes) {
+        if (idx == null) return 0;
+        AtomicLongArray bits = changes.get(player.getUniqueId());
+        if (bits == null && !idx.hasAlwaysDirty) return 0;
+
+        DatabaseManager dbm = DatabaseManager.getInstance();
+        int written = 0;
+        for (int word = 0; word < idx.words; word++) {
+            long set = idx.alwaysDirty[word];
+            if (bits != null && word < bits.length() && bits.get(word) != 0) {
+                set |= bits.getAndSet(word, 0L);
+            }
+            while (set != 0) {
+                int bit = (word << 6) + Long.numberOfTrailingZeros(set);
+                set &= set - 1;
+                if (bit >= idx.size) continue;
+                try {
+                    dbm.updatePlayerStat(player.getUniqueId(), player.getName(), idx.keys.get(bit), idx.read(player, bit));
+                    written++;
+                } catch (Exception e) {
+                    MyLogger.logWarning("Failed to sync stat '" + idx.keys.get(bit) + "' for player " + player.getName() + ": " + e.getMessage());
+                }
+            }
+        }
+        return written;
+    }
+
+    /**
+     * @return a number that changes when the tracked keys change, or when
+     * the stats are written to a different database
+     */
+    private static int syncTarget(DatabaseManager dbm) {
+        DatabaseConfig config = dbm.config();
+        return switch (config.type()) {
+            case POSTGRES -> Objects.hash("postgres", dbm.trackedStatKeys(), config.pgHost(), config.pgPort(),
+                    config.pgDatabase(), config.pgSchema(), config.pgPlayerTable());
+            case MONGO -> Objects.hash("mongo", dbm.trackedStatKeys(), config.mongoUri(), config.mongoDatabase(),
+                    config.mongoPlayerCollection());
+        };
+    }
+
+    /**
+     * Reads the players that had their full sync from the file.
+     *
+     * @return the sync target the players were synced with, or 0 if there is no usable file
+     */
+    private int readSyncedPlayers() {
+        if (!syncedPlayersFile.isFile()) return 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(syncedPlayersFile)))) {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) return 0;
+            int target = in.readInt();
+            int count = in.readInt();
+            List<UUID> players = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                players.add(new UUID(in.readLong(), in.readLong()));
+            }
+            fullySynced.addAll(players);
+            return target;
+        } catch (IOException | RuntimeException e) {
+            MyLogger.logWarning("Could not read fully synced players: " + e.getMessage());
+            return 0;
+        }
+    }
+
+    /**
+     * Writes the players that had their full sync to a temporary file first,
+     * and then replaces the file with it, so it is never half-written.
+     */
+    private void saveSyncedPlayers() {
+        List<UUID> players = new ArrayList<>(fullySynced);
+        File tempFile = new File(syncedPlayersFile.getPath() + ".tmp");
+        try {
+            Files.createDirectories(syncedPlayersFile.getParentFile().toPath());
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                out.writeInt(syncTarget);
+                out.writeInt(players.size());
+                for (UUID uuid : players) {
+                    out.writeLong(uuid.getMostSignificantBits());
+                    out.writeLong(uuid.getLeastSignificantBits());
+                }
+            }
+            Files.move(tempFile.toPath(), syncedPlayersFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            MyLogger.logWarning("Could not save fully synced players: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Maps statistics to the bit position of their tracked key, with arrays
+     * indexed by enum ordinal, so a lookup does not build a key string.
+     */
+    private static final class KeyIndex {
+
+        final List<String> keys;
+        final int size;
+        final int words;
+        final long[] alwaysDirty;
+        final boolean hasAlwaysDirty;
+        private final Statistic[] statistics;
+        private final Material[] materials;
+        private final EntityType[] entityTypes;
+        private final int[] untyped;
+        private final int[][] typed;
+
+        KeyIndex(List<String> trackedKeys) {
+            keys = trackedKeys;
+            size = trackedKeys.size();
+            words = Math.max(1, (size + 63) >>> 6);
+            statistics = new Statistic[size];
+            materials = new Material[size];
+            entityTypes = new EntityType[size];
+            untyped = new int[Statistic.values().length];
+            typed = new int[Statistic.values().length][];
+            Arrays.fill(untyped, -1);
+            alwaysDirty = new long[words];
+
+            for (int bit = 0; bit < size; bit++) {
+                String key = trackedKeys.get(bit);
+                if (!StatKeyUtil.isValidTrackedFormat(key)) continue;
+                String[] parts = key.toUpperCase(Locale.ROOT).split(":");
+                try {
+                    Statistic stat = Statistic.valueOf(parts[1]);
+                    switch (parts[0]) {
+                        case "UNTYPED" -> {
+                            untyped[stat.ordinal()] = bit;
+                            if (hasNoIncrementEvent(stat)) {
+                                alwaysDirty[bit >>> 6] |= 1L << bit;
+                            }
+                        }
+                        case "BLOCK", "ITEM" -> {
+                            Material material = Material.valueOf(parts[2]);
+                            typedIds(stat, Material.values().length)[material.ordinal()] = bit;
+                            materials[bit] = material;
+                        }
+                        case "ENTITY" -> {
+                            EntityType entityType = EntityType.valueOf(parts[2]);
+                            typedIds(stat, EntityType.values().length)[entityType.ordinal()] = bit;
+                            entityTypes[bit] = entityType;
+                        }
+                        default -> {
+                            continue;
+                        }
+                    }
+                    statistics[bit] = stat;
+                } catch (IllegalArgumentException e) {
+                    MyLogger.logWarning("Invalid enum in stat key '" + key + "': " + e.getMessage());
+                }
+            }
+            hasAlwaysDirty = Arrays.stream(alwaysDirty).anyMatch(word -> word != 0);
+        }
+
+        /**
+         * @return true for the statistics the server updates without a
+         * {@link org.bukkit.event.player.PlayerStatisticIncrementEvent}
+         */
+        private static boolean hasNoIncrementEvent(Statistic stat) {
+            String name = stat.name();
+            return name.endsWith("_ONE_CM") || switch (name) {
+                case "PLAY_ONE_MINUTE", "TOTAL_WORLD_TIME", "TIME_SINCE_DEATH", "TIME_SINCE_REST", "SNEAK_TIME" -> true;
+                default -> false;
+            };
+        }
+
+        private int[] typedIds(Statistic stat, int length) {
+            int[] ids = typed[stat.ordinal()];
+            if (ids == null) {
+                ids = new int[length];
+                Arrays.fill(ids, -1);
+                typed[stat.ordinal()] = ids;
+            }
+            return ids;
+        }
+
+        int bitOf(Statistic stat, Material material, EntityType entityType) {
+            return switch (stat.getType()) {
+                case UNTYPED -> untyped[stat.ordinal()];
+                case BLOCK, ITEM -> lookup(stat, material == null ? -1 : material.ordinal());
+                case ENTITY -> lookup(stat, entityType == null ? -1 : entityType.ordinal());
+            };
+        }
+
+        private int lookup(Statistic stat, int ordinal) {
+            int[] ids = typed[stat.ordinal()];
+            return (ids == null || ordinal < 0) ? -1 : ids[ordinal];
+        }
+
+        int read(Player player, int bit) {
+            Statistic stat = statistics[bit];
+            if (materials[bit] != null) return player.getStatistic(stat, materials[bit]);
+            if (entityTypes[bit] != null) return player.getStatistic(stat, entityTypes[bit]);
+            return player.getStatistic(stat);
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.artemis.the.gr8.playerstats.core.db;
+
+import com.artemis.the.gr8.playerstats.core.utils.MyLogger;
+
+import java.util.LinkedHashMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Write-behind buffer for per-player stat writes. Instead of writing every
+ * (player, statKey) pair on its own, the newest value for every key is kept
+ * per player, and all keys of a player are handed to the database as one
+ * batch: when the flush interval has passed, or as soon as a player has
+ * reached the maximum number of pending keys.
+ */
+final class PlayerStatBuffer {
+
+    private static final class PendingStats {
+        String playerName;
+        final LinkedHashMap<String, Integer> stats = new LinkedHashMap<>();
+    }
+
+    private final ConcurrentHashMap<UUID, PendingStats> pending;
+    private final Consumer<DbOperation.PlayerStats> writer;
+    private final int maxBatchSize;
+    private final ScheduledExecutorService flusher;
+
+    /**
+     * @param writer writes all pending stats of one player to the database
+     * @param flushIntervalMs the time between flushes of all pending stats
+     * @param maxBatchSize the number of pending keys after which a player is flushed right away
+     */
+    PlayerStatBuffer(Consumer<DbOperation.PlayerStats> writer, long flushIntervalMs, int maxBatchSize) {
+        this.pending = new ConcurrentHashMap<>();
+        this.writer = writer;
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+        this.flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "PlayerStats-DB-Flush");
+            t.setDaemon(true);
+            return t;
+        });
+        long interval = Math.max(50L, flushIntervalMs);
+        flusher.scheduleWithFixedDelay(this::flushAll, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stores the value for this key, replacing a value for the same key
+     * that was not written yet.
+     */
+    void add(UUID uuid, String playerName, String statKey, int value) {
+        boolean[] full = new boolean[1];
+        pending.compute(uuid, (id, stats) -> {
+            if (stats == null) {
+                stats = new PendingStats();
+            }
+            stats.playerName = playerName;
+            stats.stats.put(statKey, value);
+            full[0] = stats.stats.size() >= maxBatchSize;
+            return stats;
+        });
+        if (full[0]) {
+            flush(uuid);
+        }
+    }
+
+    /**
+     * Hands the pending stats of all players to the writer.
+     */
+    void flushAll() {
+        try {
+            for (UUID uuid : pending.keySet()) {
+                flush(uuid);
+            }
+        } catch (Exception e) {
+            MyLogger.logWarning("Failed to flush pending player stats: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Stops the periodic flush, and hands everything that is still pending to the writer.
+     */
+    void close() {
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(2, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flushAll();
+    }
+
+    /**
+     * Hands the pending stats of one player to the writer while their entry
+     * is still locked, so newer values that are added in the meantime can
+     * only be handed over after these, and never get overwritten by them.
+     * The writer only queues the batch, and does not touch this buffer.
+     */
+    private void flush(UUID uuid) {
+        pending.computeIfPresent(uuid, (id, stats) -> {
+            if (!stats.stats.isEmpty()) {
+                writer.accept(new DbOperation.PlayerStats(id, stats.playerName, stats.stats));
+            }
+            return null;
+        });
+    }
+}
@@ -1,5 +1,6 @@
 package com.artemis.the.gr8.playerstats.core.db;
 
+import com.artemis.the.gr8.playerstats.api.RequestGenerator;
 import com.artemis.the.gr8.playerstats.api.StatRequest;
 import org.bukkit.Material;
 import org.bukkit.Statistic;
@@ -52,6 +53,25 @@ public final class StatKeyUtil {
         };
     }
 
+    /**
+     * Turn a tracked key back into a StatRequest, using the given generator.
+     *
+     * @throws IllegalArgumentException if the key is not in the tracked format,
+     * or names a Material or EntityType that doesn't exist
+     */
+    public static <T> StatRequest<T> toRequest(RequestGenerator<T> generator, String key) throws IllegalArgumentException {
+        if (!isValidTrackedFormat(key)) {
+            throw new IllegalArgumentException("Invalid stat key: " + key);
+        }
+        String[] parts = key.toUpperCase(Locale.ROOT).split(":");
+        Statistic stat = Statistic.valueOf(parts[1]);
+        return switch (parts[0]) {
+            case "BLOCK", "ITEM" -> generator.blockOrItemType(stat, Material.valueOf(parts[2]));
+            case "ENTITY" -> generator.entityType(stat, EntityType.valueOf(parts[2]));
+            default -> generator.untyped(stat);
+        };
+    }
+
     /**
      * Enumerate all possible tracked keys across Bukkit enums.
      * This is intentionally exhaustive; downstream callers should handle
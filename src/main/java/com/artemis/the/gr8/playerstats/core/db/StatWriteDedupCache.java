@@ -0,0 +1,194 @@
+package com.artemis.the.gr8.playerstats.core.db;
+
+import java.util.Arrays;
+
+/**
+ * Remembers the last value that was written for every (player, statKey) pair,
+ * so the same value is not written again within a short interval. Pairs are
+ * packed into a long key, and kept in an open-addressing table of primitive
+ * arrays with linear probing, so a lookup costs O(1) and allocates nothing.
+ * <br>
+ * <br>When the table is full, an entry is evicted with the CLOCK algorithm:
+ * entries that were used since the clock hand last passed get a second chance.
+ * Entries older than the time-to-live are removed a few slots at a time,
+ * as part of every call, instead of with a scan over the whole table.
+ */
+final class StatWriteDedupCache {
+
+    private static final long EMPTY = -1L;
+    private static final int EXPIRY_STEPS = 2;
+
+    private final long[] keys;
+    private final int[] values;
+    private final long[] writtenAt;
+    private final boolean[] referenced;
+    private final int mask;
+    private final int maxEntries;
+    private final long ttlMs;
+
+    private int size;
+    private int clockHand;
+    private int expiryCursor;
+
+    /**
+     * @param maxEntries the maximum number of entries to keep
+     * @param ttlMs the time after which an entry is removed
+     */
+    StatWriteDedupCache(int maxEntries, long ttlMs) {
+        this.maxEntries = Math.max(1, maxEntries);
+        // At most half of the slots are used, which keeps probe sequences short
+        int capacity = Integer.highestOneBit(this.maxEntries * 2 - 1) << 1;
+        this.keys = new long[capacity];
+        this.values = new int[capacity];
+        this.writtenAt = new long[capacity];
+        this.referenced = new boolean[capacity];
+        this.mask = capacity - 1;
+        this.ttlMs = ttlMs;
+        Arrays.fill(keys, EMPTY);
+    }
+
+    /**
+     * @param playerOrdinal a non-negative number for the player
+     * @param statKeyId a non-negative number for the statKey
+     * @return the key for this pair
+     */
+    static long key(int playerOrdinal, int statKeyId) {
+        return ((long) playerOrdinal << 32) | (statKeyId & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Decides whether a value should be written, and if so, remembers it.
+     *
+     * @param key the key from {@link #key(int, int)}
+     * @param value the value to write
+     * @param now the current time in milliseconds
+     * @param minIntervalMs the time within which the same value is not written again
+     * @return false if the same value for this key was written less than minIntervalMs ago
+     */
+    synchronized boolean shouldWrite(long key, int value, long now, long minIntervalMs) {
+        expireSome(now);
+        int slot = find(key);
+        if (slot >= 0) {
+            referenced[slot] = true;
+            if (values[slot] == value && (now - writtenAt[slot]) < minIntervalMs) {
+                return false;
+            }
+            values[slot] = value;
+            writtenAt[slot] = now;
+            return true;
+        }
+        if (size >= maxEntries) {
+            evictOne(now);
+        }
+        insert(key, value, now);
+        return true;
+    }
+
+    /**
+     * Forgets a value that was let through by {@link #shouldWrite}, but never
+     * reached the database, so the same value is written again next time.
+     * Nothing happens if a different value was let through for this key since.
+     */
+    synchronized void forget(long key, int value) {
+        int slot = find(key);
+        if (slot >= 0 && values[slot] == value) {
+            removeAt(slot);
+        }
+    }
+
+    synchronized int size() {
+        return size;
+    }
+
+    private int index(long key) {
+        // Finalizer of MurmurHash3, to spread the packed ordinals over the table
+        long h = key;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return (int) h & mask;
+    }
+
+    private int find(long key) {
+        int slot = index(key);
+        while (keys[slot] != EMPTY) {
+            if (keys[slot] == key) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    private void insert(long key, int value, long now) {
+        int slot = index(key);
+        while (keys[slot] != EMPTY) {
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        writtenAt[slot] = now;
+        referenced[slot] = false;
+        size++;
+    }
+
+    /**
+     * Moves the clock hand until it finds an entry that has expired,
+     * or that was not used since the hand last passed it, and removes that entry.
+     */
+    private void evictOne(long now) {
+        while (size > 0) {
+            int slot = clockHand;
+            clockHand = (clockHand + 1) & mask;
+            if (keys[slot] == EMPTY) {
+                continue;
+            }
+            if (referenced[slot] && (now - writtenAt[slot]) <= ttlMs) {
+                referenced[slot] = false;
+                continue;
+            }
+            removeAt(slot);
+            return;
+        }
+    }
+
+    private void expireSome(long now) {
+        for (int i = 0; i < EXPIRY_STEPS && size > 0; i++) {
+            int slot = expiryCursor;
+            expiryCursor = (expiryCursor + 1) & mask;
+            if (keys[slot] != EMPTY && (now - writtenAt[slot]) > ttlMs) {
+                removeAt(slot);
+            }
+        }
+    }
+
+    /**
+     * Removes the entry in this slot, and shifts later entries of the same
+     * probe sequence back, so lookups never need tombstones.
+     */
+    private void removeAt(int slot) {
+        int hole = slot;
+        int i = slot;
+        while (true) {
+            i = (i + 1) & mask;
+            long key = keys[i];
+            if (key == EMPTY) {
+                break;
+            }
+            int home = index(key);
+            // The entry at i may move into the hole if the hole lies between its home slot and i
+            if (((i - home) & mask) >= ((i - hole) & mask)) {
+                keys[hole] = key;
+                values[hole] = values[i];
+                writtenAt[hole] = writtenAt[i];
+                referenced[hole] = referenced[i];
+                hole = i;
+            }
+        }
+        keys[hole] = EMPTY;
+        referenced[hole] = false;
+        size--;
+    }
+}
@@ -0,0 +1,24 @@
+package com.artemis.the.gr8.playerstats.core.db;
+
+/**
+ * Computes top lists inside the database, for one run over all tracked keys,
+ * as it is started by {@link DbProvider#startTopListRefresh}. The players
+ * that should not be ranked are sent to the database once, when the run
+ * starts, and every key only refers to them.
+ */
+public interface TopListRefresh extends AutoCloseable {
+
+    /**
+     * Compute the top list for a stat key from the stored player stats,
+     * and store it the same way as {@link DbProvider#upsertTopList}.
+     *
+     * @param statKey the stat key to rank players by
+     */
+    void refresh(String statKey) throws Exception;
+
+    /**
+     * Releases what the database holds for this run.
+     */
+    @Override
+    void close();
+}
@@ -1,33 +1,59 @@
 package com.artemis.the.gr8.playerstats.core.db.mongo;
 
 import com.artemis.the.gr8.playerstats.core.db.DatabaseConfig;
+import com.artemis.the.gr8.playerstats.core.db.DbOperation;
+import com.artemis.the.gr8.playerstats.core.db.DbPartialWriteException;
 import com.artemis.the.gr8.playerstats.core.db.DbProvider;
 import com.artemis.the.gr8.playerstats.core.db.StatKeyUtil;
+import com.artemis.the.gr8.playerstats.core.db.TopListRefresh;
 import com.artemis.the.gr8.playerstats.core.utils.MyLogger;
 import com.mongodb.ConnectionString;
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoBulkWriteException;
 import com.mongodb.MongoClientSettings;
+import com.mongodb.MongoWriteException;
+import com.mongodb.WriteConcern;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteResult;
 import com.mongodb.client.MongoClient;
 import com.mongodb.client.MongoClients;
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoDatabase;
 import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.BulkWriteOptions;
 import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.ReplaceOneModel;
 import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.model.UpdateOneModel;
 import com.mongodb.client.model.UpdateOptions;
-import java.util.List;
+import com.mongodb.client.model.WriteModel;
 import org.bson.Document;
 
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 
 public final class MongoDbProvider implements DbProvider {
 
+    private static final UpdateOptions UPSERT = new UpdateOptions().upsert(true);
+    private static final ReplaceOptions REPLACE_UPSERT = new ReplaceOptions().upsert(true);
+    private static final BulkWriteOptions UNORDERED = new BulkWriteOptions().ordered(false);
+
     private MongoClient client;
     private MongoDatabase database;
     private MongoCollection<Document> playerCol;
     private MongoCollection<Document> topCol;
+    // The same collections, with the write concern for batched writes
+    private MongoCollection<Document> bulkPlayerCol;
+    private MongoCollection<Document> bulkTopCol;
+    private int bulkBatchSize;
+    private boolean verboseLogging;
 
     @Override
     public void init(DatabaseConfig config) {
@@ -59,6 +85,11 @@ public final class MongoDbProvider implements DbProvider {
         database = client.getDatabase(config.mongoDatabase());
         playerCol = database.getCollection(config.mongoPlayerCollection());
         topCol = database.getCollection(config.mongoTopCollection());
+        WriteConcern writeConcern = parseWriteConcern(config.mongoWriteConcern());
+        bulkPlayerCol = playerCol.withWriteConcern(writeConcern);
+        bulkTopCol = topCol.withWriteConcern(writeConcern);
+        bulkBatchSize = Math.max(1, config.mongoBulkBatchSize());
+        verboseLogging = config.verboseLogging();
         if (config.verboseLogging()) {
             MyLogger.logLowLevelMsg("MongoDbProvider initialized for db='" + config.mongoDatabase() + "'");
         }
@@ -85,59 +116,306 @@ public final class MongoDbProvider implements DbProvider {
 
     @Override
     public void updatePlayerStat(UUID uuid, String playerName, String statKey, int value) {
+        updatePlayerStats(uuid, playerName, Map.of(statKey, value));
+    }
+
+    @Override
+    public void updatePlayerStats(UUID uuid, String playerName, Map<String, Integer> stats) {
         if (client == null) return;
-        if (uuid == null) return;
-        if (!StatKeyUtil.isValidTrackedFormat(statKey) || statKey.length() > 128) return;
-        String safeName = sanitizePlayerName(playerName);
-        int safeValue = Math.max(0, value);
-        Document filter = new Document("uuid", uuid.toString());
-        long now = Instant.now().toEpochMilli();
-        Document update = new Document("$set", new Document()
-                .append("name", safeName)
-                .append("updatedAt", now)
-                .append("stats." + statKey, safeValue)
-        );
-        playerCol.updateOne(filter, update, new UpdateOptions().upsert(true));
+        UpdateOneModel<Document> model = toModel(new DbOperation.PlayerStats(uuid, playerName, stats));
+        if (model == null) return;
+        playerCol.updateOne(model.getFilter(), model.getUpdate(), UPSERT);
     }
 
     @Override
     public void upsertTopList(String statKey, LinkedHashMap<String, Integer> top, int topSize) {
         if (client == null) return;
-        if (!StatKeyUtil.isValidTrackedFormat(statKey) || statKey.length() > 128) return;
-        int safeTopSize = Math.max(1, Math.min(1000, topSize));
+        ReplaceOneModel<Document> model = toModel(new DbOperation.TopList(statKey, top, topSize));
+        if (model == null) return;
+        topCol.replaceOne(model.getFilter(), model.getReplacement(), REPLACE_UPSERT);
+    }
+
+    @Override
+    public void updatePlayerExperience(UUID uuid, String playerName, int level, int totalExperience, float expProgress) {
+        if (client == null) return;
+        UpdateOneModel<Document> model = toModel(new DbOperation.PlayerExperience(uuid, playerName, level, totalExperience, expProgress));
+        if (model == null) return;
+        playerCol.updateOne(model.getFilter(), model.getUpdate(), UPSERT);
+    }
+
+    /**
+     * Ranks the players with an aggregation pipeline, and writes the result
+     * straight into the top collection with $merge, so no player documents
+     * leave the database. The players that should not be ranked are written
+     * to a collection of their own for this run, that the pipeline looks up.
+     */
+    @Override
+    public boolean computesTopLists() {
+        return client != null;
+    }
+
+    @Override
+    public TopListRefresh startTopListRefresh(int topSize, Set<UUID> excludedPlayers) {
+        MongoCollection<Document> notIncluded = null;
+        if (!excludedPlayers.isEmpty()) {
+            notIncluded = database.getCollection(playerCol.getNamespace().getCollectionName() +
+                    "_not_included_" + UUID.randomUUID().toString().replace("-", ""));
+            List<Document> documents = new ArrayList<>(Math.min(bulkBatchSize, excludedPlayers.size()));
+            try {
+                for (UUID uuid : excludedPlayers) {
+                    documents.add(new Document("_id", uuid.toString()));
+                    if (documents.size() >= bulkBatchSize) {
+                        notIncluded.insertMany(documents);
+                        documents.clear();
+                    }
+                }
+                if (!documents.isEmpty()) {
+                    notIncluded.insertMany(documents);
+                }
+            } catch (RuntimeException e) {
+                notIncluded.drop();
+                throw e;
+            }
+        }
+        return new MongoTopListRefresh(Math.max(1, Math.min(1000, topSize)), notIncluded, excludedPlayers.size());
+    }
+
+    private final class MongoTopListRefresh implements TopListRefresh {
+
+        private final int topSize;
+        private final MongoCollection<Document> notIncluded;
+        private final int notIncludedCount;
+
+        /**
+         * @param notIncluded the players that should not be ranked, or null if there are none
+         */
+        MongoTopListRefresh(int topSize, MongoCollection<Document> notIncluded, int notIncludedCount) {
+            this.topSize = topSize;
+            this.notIncluded = notIncluded;
+            this.notIncludedCount = notIncludedCount;
+        }
+
+        @Override
+        public void refresh(String statKey) {
+            if (!StatKeyUtil.isValidTrackedFormat(statKey) || statKey.length() > 128) return;
+            long now = Instant.now().toEpochMilli();
+            String field = "stats." + statKey;
+            List<Document> pipeline = new ArrayList<>();
+            pipeline.add(new Document("$match", new Document(field, new Document("$gt", 0))));
+            // Only the fields that are ranked on are sorted, instead of whole player documents
+            pipeline.add(new Document("$project", new Document("_id", 0)
+                    .append("uuid", 1)
+                    .append("name", 1)
+                    .append("value", "$" + field)));
+            pipeline.add(new Document("$sort", new Document("value", -1).append("name", 1)));
+            if (notIncluded != null) {
+                // Every player that is left out can take one place, so this many are enough,
+                // and the sort only has to keep the best ones
+                pipeline.add(new Document("$limit", topSize + notIncludedCount));
+                pipeline.add(new Document("$lookup", new Document("from", notIncluded.getNamespace().getCollectionName())
+                        .append("localField", "uuid")
+                        .append("foreignField", "_id")
+                        .append("as", "notIncluded")));
+                pipeline.add(new Document("$match", new Document("notIncluded", new Document("$size", 0))));
+            }
+            pipeline.add(new Document("$limit", topSize));
+            pipeline.add(new Document("$group", new Document("_id", null)
+                    .append("entries", new Document("$push", new Document("name", "$name").append("value", "$value")))));
+            pipeline.add(new Document("$project", new Document("_id", 0)
+                    .append("statKey", new Document("$literal", statKey))
+                    .append("topSize", new Document("$literal", topSize))
+                    .append("updatedAt", new Document("$literal", now))
+                    .append("entries", 1)));
+            pipeline.add(new Document("$merge", new Document("into", topCol.getNamespace().getCollectionName())
+                    .append("on", "statKey")
+                    .append("whenMatched", "replace")
+                    .append("whenNotMatched", "insert")));
+            // $merge only runs when the result is iterated
+            playerCol.aggregate(pipeline).allowDiskUse(true).toCollection();
+
+            // $group outputs nothing when no player has the stat, so the list is emptied here,
+            // unless $merge has just written it
+            try {
+                topCol.updateOne(Filters.and(Filters.eq("statKey", statKey), Filters.ne("updatedAt", now)),
+                        new Document("$set", new Document("topSize", topSize)
+                                .append("updatedAt", now)
+                                .append("entries", List.of())), UPSERT);
+            } catch (MongoWriteException e) {
+                // The upsert ran into the list $merge wrote
+                if (e.getError().getCategory() != ErrorCategory.DUPLICATE_KEY) throw e;
+            }
+        }
+
+        @Override
+        public void close() {
+            if (notIncluded == null) return;
+            try {
+                notIncluded.drop();
+            } catch (Exception e) {
+                MyLogger.logWarning("Mongo could not drop " + notIncluded.getNamespace().getCollectionName() + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Combines all stats and experience updates of a player into one
+     * UpdateOneModel with a single $set document, and sends the models
+     * in chunks of the configured size with an unordered bulkWrite,
+     * so the server can apply them in parallel.
+     * <br>
+     * <br>Models that could not be written, or whose write concern was not met,
+     * are reported with a {@link DbPartialWriteException} that holds the
+     * operations they were built from, after all chunks have been sent.
+     */
+    @Override
+    public void writeBatch(List<DbOperation> operations) throws DbPartialWriteException {
+        if (client == null || operations.isEmpty()) return;
+        LinkedHashMap<UUID, Document> playerSets = new LinkedHashMap<>();
+        LinkedHashMap<UUID, List<DbOperation>> playerOps = new LinkedHashMap<>();
+        List<WriteModel<Document>> topModels = new ArrayList<>();
+        List<List<DbOperation>> topOps = new ArrayList<>();
+        for (DbOperation operation : operations) {
+            switch (operation) {
+                case DbOperation.TopList op -> {
+                    ReplaceOneModel<Document> model = toModel(op);
+                    if (model != null) {
+                        topModels.add(model);
+                        topOps.add(List.of(op));
+                    }
+                }
+                case DbOperation.PlayerStats op -> {
+                    Document set = toSetDocument(op);
+                    if (set != null) {
+                        playerSets.computeIfAbsent(op.uuid(), uuid -> new Document()).putAll(set);
+                        playerOps.computeIfAbsent(op.uuid(), uuid -> new ArrayList<>()).add(op);
+                    }
+                }
+                case DbOperation.PlayerExperience op -> {
+                    Document set = toSetDocument(op);
+                    if (set != null) {
+                        playerSets.computeIfAbsent(op.uuid(), uuid -> new Document()).putAll(set);
+                        playerOps.computeIfAbsent(op.uuid(), uuid -> new ArrayList<>()).add(op);
+                    }
+                }
+            }
+        }
+        List<WriteModel<Document>> playerModels = new ArrayList<>(playerSets.size());
+        playerSets.forEach((uuid, set) -> playerModels.add(
+                new UpdateOneModel<>(Filters.eq("uuid", uuid.toString()), new Document("$set", set), UPSERT)));
+
+        List<DbOperation> failed = new ArrayList<>();
+        boolean writeConcernFailed = bulkWrite(bulkPlayerCol, playerModels, new ArrayList<>(playerOps.values()), failed);
+        writeConcernFailed |= bulkWrite(bulkTopCol, topModels, topOps, failed);
+        if (!failed.isEmpty()) {
+            throw new DbPartialWriteException("Mongo bulkWrite did not write " + failed.size() + " of " +
+                    operations.size() + " operations", failed, writeConcernFailed);
+        }
+    }
+
+    /**
+     * @param modelOps the operations each model was built from, by model index
+     * @param failed collects the operations of the models that were not written
+     * @return true if a chunk did not meet the write concern
+     */
+    private boolean bulkWrite(MongoCollection<Document> collection, List<WriteModel<Document>> models,
+                              List<List<DbOperation>> modelOps, List<DbOperation> failed) {
+        boolean writeConcernFailed = false;
+        for (int from = 0; from < models.size(); from += bulkBatchSize) {
+            int to = Math.min(models.size(), from + bulkBatchSize);
+            List<WriteModel<Document>> chunk = models.subList(from, to);
+            long start = System.nanoTime();
+            try {
+                BulkWriteResult result = collection.bulkWrite(chunk, UNORDERED);
+                if (verboseLogging) {
+                    long ms = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                    MyLogger.logLowLevelMsg(result.wasAcknowledged() ?
+                            "Mongo bulkWrite on " + collection.getNamespace().getCollectionName() + ": " + chunk.size() +
+                                    " models, upserted=" + result.getUpserts().size() +
+                                    " matched=" + result.getMatchedCount() +
+                                    " modified=" + result.getModifiedCount() + " in " + ms + "ms" :
+                            "Mongo bulkWrite on " + collection.getNamespace().getCollectionName() + ": " + chunk.size() +
+                                    " models (unacknowledged) in " + ms + "ms");
+                }
+            } catch (MongoBulkWriteException e) {
+                if (e.getWriteConcernError() != null) {
+                    // The models may have been applied, but not as durably as configured, so none of them count as written
+                    modelOps.subList(from, to).forEach(failed::addAll);
+                    writeConcernFailed = true;
+                    MyLogger.logWarning("Mongo bulkWrite of " + chunk.size() + " models did not meet the write concern: " +
+                            e.getWriteConcernError().getMessage());
+                } else {
+                    // Unordered: everything except the failed models has been written
+                    for (BulkWriteError error : e.getWriteErrors()) {
+                        failed.addAll(modelOps.get(from + error.getIndex()));
+                    }
+                    MyLogger.logWarning("Mongo bulkWrite wrote " + (chunk.size() - e.getWriteErrors().size()) + " of " +
+                            chunk.size() + " models" + (e.getWriteErrors().isEmpty() ? "" :
+                            "; first error: " + e.getWriteErrors().get(0).getMessage()));
+                }
+            }
+        }
+        return writeConcernFailed;
+    }
+
+    // Models, shared by the single and batched write paths
+
+    private static UpdateOneModel<Document> toModel(DbOperation.PlayerStats op) {
+        Document set = toSetDocument(op);
+        return set == null ? null : new UpdateOneModel<>(Filters.eq("uuid", op.uuid().toString()), new Document("$set", set), UPSERT);
+    }
+
+    private static UpdateOneModel<Document> toModel(DbOperation.PlayerExperience op) {
+        Document set = toSetDocument(op);
+        return set == null ? null : new UpdateOneModel<>(Filters.eq("uuid", op.uuid().toString()), new Document("$set", set), UPSERT);
+    }
+
+    private static ReplaceOneModel<Document> toModel(DbOperation.TopList op) {
+        String statKey = op.statKey();
+        if (!StatKeyUtil.isValidTrackedFormat(statKey) || statKey.length() > 128) return null;
+        int safeTopSize = Math.max(1, Math.min(1000, op.topSize()));
         Document doc = new Document("statKey", statKey)
                 .append("topSize", safeTopSize)
                 .append("updatedAt", Instant.now().toEpochMilli());
         // build entries as an array preserving order
         var arr = new org.bson.types.BasicBSONList();
-        for (Map.Entry<String, Integer> e : top.entrySet()) {
-            String safe = sanitizePlayerName(e.getKey());
-            int val = Math.max(0, e.getValue() == null ? 0 : e.getValue());
-            arr.add(new Document("name", safe).append("value", val));
-            if (arr.size() >= safeTopSize) break;
+        if (op.top() != null) {
+            for (Map.Entry<String, Integer> e : op.top().entrySet()) {
+                String safe = sanitizePlayerName(e.getKey());
+                int val = Math.max(0, e.getValue() == null ? 0 : e.getValue());
+                arr.add(new Document("name", safe).append("value", val));
+                if (arr.size() >= safeTopSize) break;
+            }
         }
         doc.append("entries", arr);
-        topCol.replaceOne(Filters.eq("statKey", statKey), doc, new ReplaceOptions().upsert(true));
+        return new ReplaceOneModel<>(Filters.eq("statKey", statKey), doc, REPLACE_UPSERT);
     }
 
-    @Override
-    public void updatePlayerExperience(UUID uuid, String playerName, int level, int totalExperience, float expProgress) {
-        if (client == null) return;
-        if (uuid == null) return;
-        String safeName = sanitizePlayerName(playerName);
-        int safeLevel = Math.max(0, level);
-        int safeTotalExp = Math.max(0, totalExperience);
-        float safeProgress = Math.max(0.0f, Math.min(1.0f, expProgress));
-        Document filter = new Document("uuid", uuid.toString());
-        long now = Instant.now().toEpochMilli();
-        Document update = new Document("$set", new Document()
-                .append("name", safeName)
-                .append("updatedAt", now)
-                .append("experience.level", safeLevel)
-                .append("experience.totalExperience", safeTotalExp)
-                .append("experience.expProgress", safeProgress)
-        );
-        playerCol.updateOne(filter, update, new UpdateOptions().upsert(true));
+    /**
+     * @return the fields to $set, or null if there is nothing to write
+     */
+    private static Document toSetDocument(DbOperation.PlayerStats op) {
+        if (op.uuid() == null || op.stats() == null) return null;
+        Document set = new Document()
+                .append("name", sanitizePlayerName(op.playerName()))
+                .append("updatedAt", Instant.now().toEpochMilli());
+        int keys = 0;
+        for (Map.Entry<String, Integer> e : op.stats().entrySet()) {
+            String statKey = e.getKey();
+            if (!StatKeyUtil.isValidTrackedFormat(statKey) || statKey.length() > 128) continue;
+            set.append("stats." + statKey, Math.max(0, e.getValue() == null ? 0 : e.getValue()));
+            keys++;
+        }
+        return keys == 0 ? null : set;
+    }
+
+    private static Document toSetDocument(DbOperation.PlayerExperience op) {
+        if (op.uuid() == null) return null;
+        return new Document()
+                .append("name", sanitizePlayerName(op.playerName()))
+                .append("updatedAt", Instant.now().toEpochMilli())
+                .append("experience.level", Math.max(0, op.level()))
+                .append("experience.totalExperience", Math.max(0, op.totalExperience()))
+                .append("experience.expProgress", Math.max(0.0f, Math.min(1.0f, op.expProgress())));
     }
 
     @Override
@@ -153,6 +431,17 @@ public final class MongoDbProvider implements DbProvider {
     }
 
     // Helpers
+    private static WriteConcern parseWriteConcern(String value) {
+        String v = value == null ? "" : value.trim().toLowerCase(Locale.ROOT);
+        return switch (v) {
+            case "w1", "1" -> WriteConcern.W1;
+            case "majority" -> WriteConcern.MAJORITY;
+            case "journaled" -> WriteConcern.JOURNALED;
+            case "unacknowledged", "0" -> WriteConcern.UNACKNOWLEDGED;
+            default -> WriteConcern.ACKNOWLEDGED;
+        };
+    }
+
     private static String sanitizePlayerName(String s) {
         if (s == null) return "";
         String cleaned = s.replaceAll("[\\p{Cntrl}]", "").trim();
@@ -0,0 +1,231 @@
+package com.artemis.the.gr8.playerstats.core.db.postgres;
+
+import com.artemis.the.gr8.playerstats.core.db.StatKeyUtil;
+import com.artemis.the.gr8.playerstats.core.utils.MyLogger;
+
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The normalized schema mode of {@link PostgresProvider}: instead of one JSONB
+ * map per player, every stat key gets an id in a small dictionary table,
+ * and every value is one narrow row of (uuid, key_id, value). A single-key
+ * update then only touches one small row, and the (key_id, value DESC) index
+ * turns "top N for a key" into an index range scan.
+ */
+final class NormalizedStatStore {
+
+    private final String keysTable;
+    private final String valuesTable;
+    private final String valuesTableName;
+    private final String playerTable;
+    private final String playerTableName;
+    private final String valueSql;
+    private final ConcurrentHashMap<String, Integer> keyIds;
+
+    /**
+     * @param keysTable the qualified name of the dictionary table
+     * @param valuesTable the qualified name of the value table
+     * @param valuesTableName the unqualified name of the value table
+     * @param playerTable the qualified name of the player table
+     * @param playerTableName the unqualified name of the player table
+     */
+    NormalizedStatStore(String keysTable, String valuesTable, String valuesTableName, String playerTable, String playerTableName) {
+        this.keysTable = keysTable;
+        this.valuesTable = valuesTable;
+        this.valuesTableName = valuesTableName;
+        this.playerTable = playerTable;
+        this.playerTableName = playerTableName;
+        this.keyIds = new ConcurrentHashMap<>();
+        // Unchanged values are not rewritten, which keeps dead tuples down
+        this.valueSql = "INSERT INTO " + valuesTable + " (uuid, key_id, value) VALUES (?, ?, ?) " +
+                "ON CONFLICT (uuid, key_id) DO UPDATE SET value = EXCLUDED.value " +
+                "WHERE " + valuesTableName + ".value IS DISTINCT FROM EXCLUDED.value";
+    }
+
+    String valueSql() {
+        return valueSql;
+    }
+
+    /**
+     * @param excludedTable a table with the uuid of every player that should not be ranked
+     * @return a query for the (name, value) of the players with the highest
+     * value for a key, with the key and the limit as parameters. This is a
+     * range scan over the (key_id, value DESC) index.
+     */
+    String rankingSql(String excludedTable) {
+        return "SELECT p.name, v.value FROM " + valuesTable + " v " +
+                "JOIN " + playerTable + " p ON p.uuid = v.uuid " +
+                "WHERE v.key_id = (SELECT id FROM " + keysTable + " WHERE key = ?) AND v.value > 0 " +
+                "AND NOT EXISTS (SELECT 1 FROM " + excludedTable + " x WHERE x.uuid = v.uuid) " +
+                "ORDER BY v.value DESC, p.name LIMIT ?";
+    }
+
+    void createTables(Statement st) throws SQLException {
+        st.execute("CREATE TABLE IF NOT EXISTS " + keysTable + " (" +
+                "id SERIAL PRIMARY KEY," +
+                "key TEXT NOT NULL UNIQUE" +
+                ")");
+        st.execute("CREATE TABLE IF NOT EXISTS " + valuesTable + " (" +
+                "uuid UUID NOT NULL," +
+                "key_id INT NOT NULL REFERENCES " + keysTable + " (id)," +
+                "value INT NOT NULL," +
+                "PRIMARY KEY (uuid, key_id)" +
+                ")");
+        st.execute("CREATE INDEX IF NOT EXISTS idx_" + valuesTableName + "_key_value ON " + valuesTable + " (key_id, value DESC)");
+    }
+
+    /**
+     * Moves the stats that are still in the JSONB column into the value table,
+     * and empties the JSONB maps it moved, so every value lives in one place.
+     * Only players with a non-empty map are touched, so this does nothing
+     * once the migration is done.
+     */
+    void migrateFromJsonb(Connection c) throws SQLException {
+        String jsonbRows = "SELECT uuid, stats FROM " + playerTable + " WHERE stats <> '{}'::jsonb";
+        c.setAutoCommit(false);
+        try (Statement st = c.createStatement()) {
+            st.executeUpdate("INSERT INTO " + keysTable + " (key) " +
+                    "SELECT DISTINCT jsonb_object_keys(stats) FROM " + playerTable + " WHERE stats <> '{}'::jsonb " +
+                    "ON CONFLICT (key) DO NOTHING");
+            int moved = st.executeUpdate("INSERT INTO " + valuesTable + " (uuid, key_id, value) " +
+                    "SELECT p.uuid, k.id, (e.value)::int FROM (" + jsonbRows + ") p " +
+                    "CROSS JOIN LATERAL jsonb_each_text(p.stats) e " +
+                    "JOIN " + keysTable + " k ON k.key = e.key " +
+                    "ON CONFLICT (uuid, key_id) DO NOTHING");
+            st.executeUpdate("UPDATE " + playerTable + " SET stats = '{}'::jsonb WHERE stats <> '{}'::jsonb");
+            c.commit();
+            if (moved > 0) {
+                MyLogger.logLowLevelMsg("Migrated " + moved + " stat values from JSONB to " + valuesTableName);
+            }
+        } catch (SQLException e) {
+            c.rollback();
+            throw e;
+        } finally {
+            c.setAutoCommit(true);
+        }
+    }
+
+    /**
+     * Moves the values back into the JSONB column, when the normalized mode
+     * is turned off again after it was used. Only the values of players in
+     * the player table are moved, and only those are deleted from the value
+     * table, in the same statement. Once the value table is empty, or does
+     * not exist, this does nothing.
+     */
+    void migrateToJsonb(Connection c) throws SQLException {
+        try (Statement st = c.createStatement();
+             ResultSet rs = st.executeQuery("SELECT to_regclass('" + valuesTable.replace("'", "") + "') IS NOT NULL")) {
+            if (!rs.next() || !rs.getBoolean(1)) return;
+        }
+        try (Statement st = c.createStatement();
+             ResultSet rs = st.executeQuery("SELECT EXISTS (SELECT 1 FROM " + valuesTable + ")")) {
+            if (!rs.next() || !rs.getBoolean(1)) return;
+        }
+        try (Statement st = c.createStatement()) {
+            int moved = st.executeUpdate("WITH folded AS (" +
+                    "DELETE FROM " + valuesTable + " v USING " + playerTable + " p WHERE v.uuid = p.uuid " +
+                    "RETURNING v.uuid, v.key_id, v.value) " +
+                    "UPDATE " + playerTable + " SET stats = COALESCE(" + playerTableName + ".stats, '{}'::jsonb) || agg.stats " +
+                    "FROM (SELECT f.uuid, jsonb_object_agg(k.key, f.value) AS stats FROM folded f " +
+                    "JOIN " + keysTable + " k ON k.id = f.key_id GROUP BY f.uuid) agg " +
+                    "WHERE " + playerTableName + ".uuid = agg.uuid");
+            if (moved > 0) {
+                MyLogger.logLowLevelMsg("Migrated stats of " + moved + " players from " + valuesTableName + " back to JSONB");
+            }
+        }
+    }
+
+    /**
+     * @return the ids of all valid keys, which are added to the
+     * dictionary first if they are not in it yet. Keys that were added
+     * are only part of the transaction of the connection, so their ids
+     * are not remembered until {@link #rememberKeyIds(Map)} is called
+     * after the commit.
+     */
+    Map<String, Integer> resolveKeyIds(Connection c, Collection<String> keys) throws SQLException {
+        HashMap<String, Integer> ids = new HashMap<>();
+        HashSet<String> missing = new HashSet<>();
+        for (String key : keys) {
+            if (!StatKeyUtil.isValidTrackedFormat(key) || key.length() > 128) continue;
+            Integer id = keyIds.get(key);
+            if (id != null) {
+                ids.put(key, id);
+            } else {
+                missing.add(key);
+            }
+        }
+        if (missing.isEmpty()) return ids;
+
+        Array keyArray = c.createArrayOf("text", missing.toArray());
+        try (PreparedStatement insert = c.prepareStatement("INSERT INTO " + keysTable + " (key) " +
+                "SELECT unnest(?::text[]) ON CONFLICT (key) DO NOTHING");
+             PreparedStatement select = c.prepareStatement("SELECT id, key FROM " + keysTable + " WHERE key = ANY(?)")) {
+            insert.setArray(1, keyArray);
+            insert.executeUpdate();
+            select.setArray(1, keyArray);
+            try (ResultSet rs = select.executeQuery()) {
+                while (rs.next()) {
+                    ids.put(rs.getString(2), rs.getInt(1));
+                }
+            }
+        } finally {
+            keyArray.free();
+        }
+        return ids;
+    }
+
+    /**
+     * Remembers the ids from {@link #resolveKeyIds(Connection, Collection)},
+     * once the transaction that may have added them is committed. An id of a
+     * rolled back insert would point at a row that does not exist, and fail
+     * every later write with that key on the foreign key.
+     */
+    void rememberKeyIds(Map<String, Integer> ids) {
+        keyIds.putAll(ids);
+    }
+
+    /**
+     * Adds one row per valid key to a batch of {@link #valueSql()}.
+     *
+     * @return the number of rows that were added
+     */
+    int addValues(PreparedStatement ps, UUID uuid, Map<String, Integer> stats, Map<String, Integer> ids) throws SQLException {
+        int rows = 0;
+        for (Map.Entry<String, Integer> e : stats.entrySet()) {
+            Integer id = ids.get(e.getKey());
+            if (id == null) continue;
+            ps.setObject(1, uuid);
+            ps.setInt(2, id);
+            ps.setInt(3, Math.max(0, e.getValue() == null ? 0 : e.getValue()));
+            ps.addBatch();
+            rows++;
+        }
+        return rows;
+    }
+
+    /**
+     * Merges the stats in a bulk load staging table into the value table.
+     */
+    void mergeStaging(Statement st, String stagingTable) throws SQLException {
+        st.executeUpdate("INSERT INTO " + keysTable + " (key) " +
+                "SELECT DISTINCT jsonb_object_keys(stats) FROM " + stagingTable + " WHERE stats IS NOT NULL " +
+                "ON CONFLICT (key) DO NOTHING");
+        st.executeUpdate("INSERT INTO " + valuesTable + " (uuid, key_id, value) " +
+                "SELECT s.uuid, k.id, (e.value)::int FROM " + stagingTable + " s " +
+                "CROSS JOIN LATERAL jsonb_each_text(s.stats) e " +
+                "JOIN " + keysTable + " k ON k.key = e.key " +
+                "WHERE s.stats IS NOT NULL " +
+                "ON CONFLICT (uuid, key_id) DO UPDATE SET value = EXCLUDED.value");
+    }
+}
@@ -1,27 +1,40 @@
 package com.artemis.the.gr8.playerstats.core.db.postgres;
 
 import com.artemis.the.gr8.playerstats.core.db.DatabaseConfig;
+import com.artemis.the.gr8.playerstats.core.db.DbOperation;
 import com.artemis.the.gr8.playerstats.core.db.DbProvider;
 import com.artemis.the.gr8.playerstats.core.db.StatKeyUtil;
+import com.artemis.the.gr8.playerstats.core.db.TopListRefresh;
 import com.artemis.the.gr8.playerstats.core.utils.MyLogger;
 import com.zaxxer.hikari.HikariConfig;
 import com.zaxxer.hikari.HikariDataSource;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+import org.postgresql.copy.CopyManager;
 import org.postgresql.util.PGobject;
 
 import java.lang.Class;
 
+import java.nio.charset.StandardCharsets;
+import java.sql.Array;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 
 /**
  * PostgreSQL implementation using JDBC + HikariCP.
  * Stores per-player stats as a JSONB map (statKey -> value), and top lists as JSONB arrays.
+ * In the normalized schema mode, stats are stored in narrow rows instead (see {@link NormalizedStatStore}).
  */
 public final class PostgresProvider implements DbProvider {
 
@@ -29,6 +42,19 @@ public final class PostgresProvider implements DbProvider {
     private String schema;
     private String playerTable;
     private String topTable;
+    private String stagingTable;
+    private boolean normalized;
+    private NormalizedStatStore statStore;
+
+    private static final int COPY_CHUNK_SIZE = 64 * 1024;
+    // Only lives on the connection that computes top lists
+    private static final String NOT_INCLUDED_TABLE = "pg_temp.playerstats_not_included";
+
+    // Built once in init, so every write reuses the same statement text
+    private String playerStatsSql;
+    private String topListSql;
+    private String experienceSql;
+    private String refreshTopListSql;
 
     @Override
     public void init(DatabaseConfig config) {
@@ -36,6 +62,18 @@ public final class PostgresProvider implements DbProvider {
         this.schema = sanitizeIdent(config.pgSchema(), "public");
         this.playerTable = sanitizeIdent(config.pgPlayerTable(), "player_stats");
         this.topTable = sanitizeIdent(config.pgTopTable(), "top_stats");
+        this.stagingTable = playerTable + "_staging";
+        this.normalized = "normalized".equalsIgnoreCase(nullToEmpty(config.pgSchemaMode()).trim());
+        // Named after the player table, so servers that share a schema with different player tables don't share values
+        String keysTable = playerTable + "_keys";
+        String valuesTable = playerTable + "_values";
+        this.statStore = new NormalizedStatStore(qualified(keysTable), qualified(valuesTable), tableOnly(valuesTable),
+                qualified(playerTable), tableOnly(playerTable));
+        buildStatements();
+        if (config.computeTopInDatabase() && !normalized) {
+            MyLogger.logWarning("compute-top-in-database needs the normalized Postgres schema-mode, " +
+                    "top lists are calculated on the server instead");
+        }
 
         String jdbcUrl = buildJdbcUrl(config);
         HikariConfig hc = new HikariConfig();
@@ -92,6 +130,16 @@ public final class PostgresProvider implements DbProvider {
                     "updated_at BIGINT NOT NULL," +
                     "entries JSONB NOT NULL" +
                     ")");
+            // Unlogged staging table for bulk loads; its contents only live within one bulk load transaction
+            st.execute("CREATE UNLOGGED TABLE IF NOT EXISTS " + qualified(stagingTable) + " (" +
+                    "uuid UUID NOT NULL," +
+                    "name TEXT NOT NULL," +
+                    "updated_at BIGINT NOT NULL," +
+                    "stats JSONB," +
+                    "exp_level INT," +
+                    "exp_total INT," +
+                    "exp_progress REAL" +
+                    ")");
             
             // Migrate existing tables - add experience columns if they don't exist
             try {
@@ -111,59 +159,55 @@ public final class PostgresProvider implements DbProvider {
         } catch (SQLException e) {
             MyLogger.logWarning("Postgres schema/table initialization failed: " + e.getMessage());
         }
+
+        // Move existing stats into the layout of the configured schema mode
+        try (Connection c = dataSource.getConnection()) {
+            if (normalized) {
+                try (Statement st = c.createStatement()) {
+                    statStore.createTables(st);
+                }
+                statStore.migrateFromJsonb(c);
+            } else {
+                statStore.migrateToJsonb(c);
+            }
+        } catch (SQLException e) {
+            MyLogger.logWarning("Postgres schema-mode migration failed: " + e.getMessage());
+        }
     }
 
     @Override
     public void updatePlayerStat(UUID uuid, String playerName, String statKey, int value) {
-        if (dataSource == null) return;
-        if (uuid == null) return;
-        if (!StatKeyUtil.isValidTrackedFormat(statKey) || statKey.length() > 128) return;
-        String safeName = sanitizePlayerName(playerName);
-        long now = Instant.now().toEpochMilli();
-
-        String sql = "INSERT INTO " + qualified(playerTable) +
-                " (uuid, name, updated_at, stats) VALUES (?, ?, ?, jsonb_build_object(?, ?)) " +
-                "ON CONFLICT (uuid) DO UPDATE SET " +
-                "name = EXCLUDED.name, " +
-                "updated_at = EXCLUDED.updated_at, " +
-                "stats = COALESCE(" + tableOnly(playerTable) + ".stats, '{}'::jsonb) || EXCLUDED.stats";
+        updatePlayerStats(uuid, playerName, Map.of(statKey, value));
+    }
 
-        try (Connection c = dataSource.getConnection(); PreparedStatement ps = c.prepareStatement(sql)) {
-            ps.setObject(1, uuid);
-            ps.setString(2, safeName);
-            ps.setLong(3, now);
-            ps.setString(4, statKey);
-            ps.setInt(5, Math.max(0, value));
-            ps.executeUpdate();
+    @Override
+    public void updatePlayerStats(UUID uuid, String playerName, Map<String, Integer> stats) {
+        if (dataSource == null) return;
+        if (normalized) {
+            // The player row and the values are written together
+            try {
+                writeBatch(List.of(new DbOperation.PlayerStats(uuid, playerName, stats)));
+            } catch (SQLException e) {
+                MyLogger.logWarning("Postgres updatePlayerStats failed: " + e.getMessage());
+            }
+            return;
+        }
+        try (Connection c = dataSource.getConnection(); PreparedStatement ps = c.prepareStatement(playerStatsSql)) {
+            if (bindPlayerStats(ps, new DbOperation.PlayerStats(uuid, playerName, stats))) {
+                ps.executeUpdate();
+            }
         } catch (SQLException e) {
-            MyLogger.logWarning("Postgres updatePlayerStat failed: " + e.getMessage());
+            MyLogger.logWarning("Postgres updatePlayerStats failed: " + e.getMessage());
         }
     }
 
     @Override
     public void upsertTopList(String statKey, LinkedHashMap<String, Integer> top, int topSize) {
         if (dataSource == null) return;
-        if (!StatKeyUtil.isValidTrackedFormat(statKey) || statKey.length() > 128) return;
-        int safeTopSize = Math.max(1, Math.min(1000, topSize));
-        long now = Instant.now().toEpochMilli();
-
-        String json = toTopEntriesJson(top, safeTopSize);
-        String sql = "INSERT INTO " + qualified(topTable) +
-                " (stat_key, top_size, updated_at, entries) VALUES (?, ?, ?, ?) " +
-                "ON CONFLICT (stat_key) DO UPDATE SET " +
-                "top_size = EXCLUDED.top_size, " +
-                "updated_at = EXCLUDED.updated_at, " +
-                "entries = EXCLUDED.entries";
-
-        try (Connection c = dataSource.getConnection(); PreparedStatement ps = c.prepareStatement(sql)) {
-            ps.setString(1, statKey);
-            ps.setInt(2, safeTopSize);
-            ps.setLong(3, now);
-            PGobject jsonb = new PGobject();
-            jsonb.setType("jsonb");
-            jsonb.setValue(json);
-            ps.setObject(4, jsonb);
-            ps.executeUpdate();
+        try (Connection c = dataSource.getConnection(); PreparedStatement ps = c.prepareStatement(topListSql)) {
+            if (bindTopList(ps, new DbOperation.TopList(statKey, top, topSize))) {
+                ps.executeUpdate();
+            }
         } catch (SQLException e) {
             MyLogger.logWarning("Postgres upsertTopList failed: " + e.getMessage());
         }
@@ -172,35 +216,345 @@ public final class PostgresProvider implements DbProvider {
     @Override
     public void updatePlayerExperience(UUID uuid, String playerName, int level, int totalExperience, float expProgress) {
         if (dataSource == null) return;
-        if (uuid == null) return;
-        String safeName = sanitizePlayerName(playerName);
-        int safeLevel = Math.max(0, level);
-        int safeTotalExp = Math.max(0, totalExperience);
-        float safeProgress = Math.max(0.0f, Math.min(1.0f, expProgress));
-        long now = Instant.now().toEpochMilli();
-
-        String sql = "INSERT INTO " + qualified(playerTable) +
-                " (uuid, name, updated_at, stats, exp_level, exp_total, exp_progress) VALUES (?, ?, ?, '{}'::jsonb, ?, ?, ?) " +
-                "ON CONFLICT (uuid) DO UPDATE SET " +
-                "name = EXCLUDED.name, " +
-                "updated_at = EXCLUDED.updated_at, " +
-                "exp_level = EXCLUDED.exp_level, " +
-                "exp_total = EXCLUDED.exp_total, " +
-                "exp_progress = EXCLUDED.exp_progress";
-
-        try (Connection c = dataSource.getConnection(); PreparedStatement ps = c.prepareStatement(sql)) {
-            ps.setObject(1, uuid);
-            ps.setString(2, safeName);
-            ps.setLong(3, now);
-            ps.setInt(4, safeLevel);
-            ps.setInt(5, safeTotalExp);
-            ps.setFloat(6, safeProgress);
-            ps.executeUpdate();
+        try (Connection c = dataSource.getConnection(); PreparedStatement ps = c.prepareStatement(experienceSql)) {
+            if (bindExperience(ps, new DbOperation.PlayerExperience(uuid, playerName, level, totalExperience, expProgress))) {
+                ps.executeUpdate();
+            }
         } catch (SQLException e) {
             MyLogger.logWarning("Postgres updatePlayerExperience failed: " + e.getMessage());
         }
     }
 
+    /**
+     * Only the normalized schema mode can compute top lists, because its
+     * value table has an index to rank every key with. The players that should
+     * not be ranked go into a temporary table on one connection, that every
+     * key of the run uses.
+     */
+    @Override
+    public boolean computesTopLists() {
+        return dataSource != null && normalized;
+    }
+
+    @Override
+    public TopListRefresh startTopListRefresh(int topSize, Set<UUID> excludedPlayers) throws SQLException {
+        int safeTopSize = Math.max(1, Math.min(1000, topSize));
+        Connection c = dataSource.getConnection();
+        try {
+            try (Statement st = c.createStatement()) {
+                st.execute("CREATE TEMP TABLE IF NOT EXISTS " + NOT_INCLUDED_TABLE + " (uuid UUID PRIMARY KEY)");
+                st.execute("TRUNCATE " + NOT_INCLUDED_TABLE);
+            }
+            try (PreparedStatement ps = c.prepareStatement("INSERT INTO " + NOT_INCLUDED_TABLE +
+                    " SELECT DISTINCT unnest(?::uuid[])")) {
+                Array excluded = c.createArrayOf("uuid", excludedPlayers.toArray());
+                try {
+                    ps.setArray(1, excluded);
+                    ps.executeUpdate();
+                } finally {
+                    excluded.free();
+                }
+            }
+            try (Statement st = c.createStatement()) {
+                st.execute("ANALYZE " + NOT_INCLUDED_TABLE);
+            }
+            return new PostgresTopListRefresh(c, c.prepareStatement(refreshTopListSql), safeTopSize);
+        } catch (SQLException e) {
+            c.close();
+            throw e;
+        }
+    }
+
+    private static final class PostgresTopListRefresh implements TopListRefresh {
+
+        private final Connection connection;
+        private final PreparedStatement statement;
+        private final int topSize;
+
+        PostgresTopListRefresh(Connection connection, PreparedStatement statement, int topSize) {
+            this.connection = connection;
+            this.statement = statement;
+            this.topSize = topSize;
+        }
+
+        @Override
+        public void refresh(String statKey) throws SQLException {
+            if (!StatKeyUtil.isValidTrackedFormat(statKey) || statKey.length() > 128) return;
+            statement.setString(1, statKey);
+            statement.setInt(2, topSize);
+            statement.setLong(3, Instant.now().toEpochMilli());
+            statement.setString(4, statKey);
+            statement.setInt(5, topSize);
+            statement.executeUpdate();
+        }
+
+        @Override
+        public void close() {
+            try {
+                statement.close();
+                try (Statement st = connection.createStatement()) {
+                    st.execute("DROP TABLE IF EXISTS " + NOT_INCLUDED_TABLE);
+                }
+            } catch (SQLException e) {
+                MyLogger.logWarning("Postgres could not clean up after computing top lists: " + e.getMessage());
+            } finally {
+                try { connection.close(); } catch (SQLException ignored) {}
+            }
+        }
+    }
+
+    /**
+     * Writes all operations over one connection and in one transaction,
+     * with one prepared statement per kind of operation that collects
+     * its rows with addBatch, so every kind costs a single round trip.
+     */
+    @Override
+    public void writeBatch(List<DbOperation> operations) throws SQLException {
+        if (dataSource == null || operations.isEmpty()) return;
+        try (Connection c = dataSource.getConnection()) {
+            c.setAutoCommit(false);
+            try (PreparedStatement statsPs = c.prepareStatement(playerStatsSql);
+                 PreparedStatement topPs = c.prepareStatement(topListSql);
+                 PreparedStatement expPs = c.prepareStatement(experienceSql);
+                 PreparedStatement valuesPs = normalized ? c.prepareStatement(statStore.valueSql()) : null) {
+                Map<String, Integer> keyIds = normalized ? statStore.resolveKeyIds(c, collectStatKeys(operations)) : Map.of();
+                int stats = 0;
+                int tops = 0;
+                int exps = 0;
+                int values = 0;
+                for (DbOperation operation : operations) {
+                    switch (operation) {
+                        case DbOperation.PlayerStats op -> {
+                            if (bindPlayerStats(statsPs, op)) {
+                                statsPs.addBatch();
+                                stats++;
+                                if (valuesPs != null) values += statStore.addValues(valuesPs, op.uuid(), op.stats(), keyIds);
+                            }
+                        }
+                        case DbOperation.TopList op -> {
+                            if (bindTopList(topPs, op)) { topPs.addBatch(); tops++; }
+                        }
+                        case DbOperation.PlayerExperience op -> {
+                            if (bindExperience(expPs, op)) { expPs.addBatch(); exps++; }
+                        }
+                    }
+                }
+                if (stats > 0) statsPs.executeBatch();
+                if (values > 0) valuesPs.executeBatch();
+                if (tops > 0) topPs.executeBatch();
+                if (exps > 0) expPs.executeBatch();
+                c.commit();
+                if (normalized) statStore.rememberKeyIds(keyIds);
+            } catch (SQLException e) {
+                c.rollback();
+                throw e;
+            } finally {
+                c.setAutoCommit(true);
+            }
+        }
+    }
+
+    /**
+     * Streams all player rows into the unlogged staging table with COPY, and
+     * merges them into the player table with one INSERT ... SELECT ... ON CONFLICT
+     * for stats and one for experience, all in a single transaction.
+     * Operations for the same player are combined into one row first,
+     * because one INSERT can not update the same row twice.
+     * Top lists are written with {@link #writeBatch(List)}.
+     */
+    @Override
+    public void bulkLoad(List<DbOperation> operations) throws SQLException {
+        if (dataSource == null || operations.isEmpty()) return;
+        LinkedHashMap<UUID, StagingRow> rows = new LinkedHashMap<>();
+        List<DbOperation> other = new ArrayList<>();
+        for (DbOperation operation : operations) {
+            switch (operation) {
+                case DbOperation.PlayerStats op -> {
+                    if (op.uuid() == null || op.stats() == null) continue;
+                    StagingRow row = rows.computeIfAbsent(op.uuid(), uuid -> new StagingRow());
+                    row.name = op.playerName();
+                    row.stats.putAll(op.stats());
+                }
+                case DbOperation.PlayerExperience op -> {
+                    if (op.uuid() == null) continue;
+                    StagingRow row = rows.computeIfAbsent(op.uuid(), uuid -> new StagingRow());
+                    row.name = op.playerName();
+                    row.experience = op;
+                }
+                case DbOperation.TopList op -> other.add(op);
+            }
+        }
+
+        if (!rows.isEmpty()) {
+            long now = Instant.now().toEpochMilli();
+            try (Connection c = dataSource.getConnection()) {
+                c.setAutoCommit(false);
+                try {
+                    try (Statement st = c.createStatement()) {
+                        // Also locks the staging table, so concurrent bulk loads run one after the other
+                        st.execute("TRUNCATE " + qualified(stagingTable));
+                    }
+                    copyToStaging(c, rows, now);
+                    try (Statement st = c.createStatement()) {
+                        if (normalized) {
+                            st.executeUpdate("INSERT INTO " + qualified(playerTable) + " (uuid, name, updated_at) " +
+                                    "SELECT uuid, name, updated_at FROM " + qualified(stagingTable) + " WHERE stats IS NOT NULL " +
+                                    "ON CONFLICT (uuid) DO UPDATE SET " +
+                                    "name = EXCLUDED.name, " +
+                                    "updated_at = EXCLUDED.updated_at");
+                            statStore.mergeStaging(st, qualified(stagingTable));
+                        } else {
+                            st.executeUpdate("INSERT INTO " + qualified(playerTable) + " (uuid, name, updated_at, stats) " +
+                                    "SELECT uuid, name, updated_at, stats FROM " + qualified(stagingTable) + " WHERE stats IS NOT NULL " +
+                                    "ON CONFLICT (uuid) DO UPDATE SET " +
+                                    "name = EXCLUDED.name, " +
+                                    "updated_at = EXCLUDED.updated_at, " +
+                                    "stats = COALESCE(" + tableOnly(playerTable) + ".stats, '{}'::jsonb) || EXCLUDED.stats");
+                        }
+                        st.executeUpdate("INSERT INTO " + qualified(playerTable) +
+                                " (uuid, name, updated_at, stats, exp_level, exp_total, exp_progress) " +
+                                "SELECT uuid, name, updated_at, '{}'::jsonb, exp_level, exp_total, exp_progress FROM " +
+                                qualified(stagingTable) + " WHERE exp_level IS NOT NULL " +
+                                "ON CONFLICT (uuid) DO UPDATE SET " +
+                                "name = EXCLUDED.name, " +
+                                "updated_at = EXCLUDED.updated_at, " +
+                                "exp_level = EXCLUDED.exp_level, " +
+                                "exp_total = EXCLUDED.exp_total, " +
+                                "exp_progress = EXCLUDED.exp_progress");
+                        st.execute("TRUNCATE " + qualified(stagingTable));
+                    }
+                    c.commit();
+                } catch (SQLException e) {
+                    c.rollback();
+                    throw e;
+                } finally {
+                    c.setAutoCommit(true);
+                }
+            }
+        }
+        writeBatch(other);
+    }
+
+    private static final class StagingRow {
+        String name;
+        final LinkedHashMap<String, Integer> stats = new LinkedHashMap<>();
+        DbOperation.PlayerExperience experience;
+    }
+
+    /**
+     * Sends the rows as CSV through the COPY protocol, in chunks,
+     * so the whole load never has to be in memory as one string.
+     */
+    private void copyToStaging(Connection c, Map<UUID, StagingRow> rows, long now) throws SQLException {
+        CopyManager copyManager = c.unwrap(PGConnection.class).getCopyAPI();
+        String sql = "COPY " + qualified(stagingTable) +
+                " (uuid, name, updated_at, stats, exp_level, exp_total, exp_progress) FROM STDIN WITH (FORMAT csv)";
+        CopyIn copyIn = copyManager.copyIn(sql);
+        try {
+            StringBuilder sb = new StringBuilder(COPY_CHUNK_SIZE + 1024);
+            for (Map.Entry<UUID, StagingRow> e : rows.entrySet()) {
+                StagingRow row = e.getValue();
+                String statsJson = row.stats.isEmpty() ? null : toStatsJson(row.stats);
+                DbOperation.PlayerExperience exp = row.experience;
+                sb.append(e.getKey()).append(',');
+                appendCsvText(sb, sanitizePlayerName(row.name));
+                sb.append(',').append(now).append(',');
+                if (statsJson != null) appendCsvText(sb, statsJson);
+                sb.append(',');
+                if (exp != null) {
+                    sb.append(Math.max(0, exp.level())).append(',')
+                            .append(Math.max(0, exp.totalExperience())).append(',')
+                            .append(Math.max(0.0f, Math.min(1.0f, exp.expProgress())));
+                } else {
+                    // Empty exp_level, exp_total and exp_progress, so stats-only rows still have every column
+                    sb.append(",,");
+                }
+                sb.append('\n');
+                if (sb.length() >= COPY_CHUNK_SIZE) {
+                    writeToCopy(copyIn, sb);
+                }
+            }
+            writeToCopy(copyIn, sb);
+            copyIn.endCopy();
+        } finally {
+            if (copyIn.isActive()) {
+                copyIn.cancelCopy();
+            }
+        }
+    }
+
+    private static void writeToCopy(CopyIn copyIn, StringBuilder sb) throws SQLException {
+        if (sb.isEmpty()) return;
+        byte[] bytes = sb.toString().getBytes(StandardCharsets.UTF_8);
+        copyIn.writeToCopy(bytes, 0, bytes.length);
+        sb.setLength(0);
+    }
+
+    /**
+     * Appends a quoted CSV value. An unquoted empty value would be read as NULL.
+     */
+    private static void appendCsvText(StringBuilder sb, String value) {
+        sb.append('"').append(value.replace("\"", "\"\"")).append('"');
+    }
+
+    // Statement binding, shared by the single and batched write paths
+
+    /**
+     * @return false if there is nothing to write
+     */
+    private boolean bindPlayerStats(PreparedStatement ps, DbOperation.PlayerStats op) throws SQLException {
+        if (op.uuid() == null || op.stats() == null) return false;
+        String json = toStatsJson(op.stats());
+        if (json == null) return false;
+        ps.setObject(1, op.uuid());
+        ps.setString(2, sanitizePlayerName(op.playerName()));
+        ps.setLong(3, Instant.now().toEpochMilli());
+        // In normalized mode, this only writes the player row, and the values go to the value table
+        if (!normalized) {
+            ps.setObject(4, jsonb(json));
+        }
+        return true;
+    }
+
+    private static Collection<String> collectStatKeys(List<DbOperation> operations) {
+        HashSet<String> keys = new HashSet<>();
+        for (DbOperation operation : operations) {
+            if (operation instanceof DbOperation.PlayerStats op && op.stats() != null) {
+                keys.addAll(op.stats().keySet());
+            }
+        }
+        return keys;
+    }
+
+    private static boolean bindTopList(PreparedStatement ps, DbOperation.TopList op) throws SQLException {
+        String statKey = op.statKey();
+        if (!StatKeyUtil.isValidTrackedFormat(statKey) || statKey.length() > 128) return false;
+        int safeTopSize = Math.max(1, Math.min(1000, op.topSize()));
+        ps.setString(1, statKey);
+        ps.setInt(2, safeTopSize);
+        ps.setLong(3, Instant.now().toEpochMilli());
+        ps.setObject(4, jsonb(toTopEntriesJson(op.top(), safeTopSize)));
+        return true;
+    }
+
+    private static boolean bindExperience(PreparedStatement ps, DbOperation.PlayerExperience op) throws SQLException {
+        if (op.uuid() == null) return false;
+        ps.setObject(1, op.uuid());
+        ps.setString(2, sanitizePlayerName(op.playerName()));
+        ps.setLong(3, Instant.now().toEpochMilli());
+        ps.setInt(4, Math.max(0, op.level()));
+        ps.setInt(5, Math.max(0, op.totalExperience()));
+        ps.setFloat(6, Math.max(0.0f, Math.min(1.0f, op.expProgress())));
+        return true;
+    }
+
+    private static PGobject jsonb(String json) throws SQLException {
+        PGobject jsonb = new PGobject();
+        jsonb.setType("jsonb");
+        jsonb.setValue(json);
+        return jsonb;
+    }
+
     @Override
     public void close() {
         if (dataSource != null) {
@@ -209,6 +563,42 @@ public final class PostgresProvider implements DbProvider {
         }
     }
 
+    private void buildStatements() {
+        // All keys are merged into the stored map with a single jsonb ||
+        playerStatsSql = normalized ? "INSERT INTO " + qualified(playerTable) +
+                " (uuid, name, updated_at) VALUES (?, ?, ?) " +
+                "ON CONFLICT (uuid) DO UPDATE SET " +
+                "name = EXCLUDED.name, " +
+                "updated_at = EXCLUDED.updated_at" : "INSERT INTO " + qualified(playerTable) +
+                " (uuid, name, updated_at, stats) VALUES (?, ?, ?, ?) " +
+                "ON CONFLICT (uuid) DO UPDATE SET " +
+                "name = EXCLUDED.name, " +
+                "updated_at = EXCLUDED.updated_at, " +
+                "stats = COALESCE(" + tableOnly(playerTable) + ".stats, '{}'::jsonb) || EXCLUDED.stats";
+        topListSql = "INSERT INTO " + qualified(topTable) +
+                " (stat_key, top_size, updated_at, entries) VALUES (?, ?, ?, ?) " +
+                "ON CONFLICT (stat_key) DO UPDATE SET " +
+                "top_size = EXCLUDED.top_size, " +
+                "updated_at = EXCLUDED.updated_at, " +
+                "entries = EXCLUDED.entries";
+        // Ranks the players and stores the result in one statement, so no rows leave the database
+        refreshTopListSql = "INSERT INTO " + qualified(topTable) + " (stat_key, top_size, updated_at, entries) " +
+                "SELECT ?, ?, ?, COALESCE(jsonb_agg(jsonb_build_object('name', r.name, 'value', r.value) ORDER BY r.value DESC, r.name), '[]'::jsonb) " +
+                "FROM (" + statStore.rankingSql(NOT_INCLUDED_TABLE) + ") r " +
+                "ON CONFLICT (stat_key) DO UPDATE SET " +
+                "top_size = EXCLUDED.top_size, " +
+                "updated_at = EXCLUDED.updated_at, " +
+                "entries = EXCLUDED.entries";
+        experienceSql = "INSERT INTO " + qualified(playerTable) +
+                " (uuid, name, updated_at, stats, exp_level, exp_total, exp_progress) VALUES (?, ?, ?, '{}'::jsonb, ?, ?, ?) " +
+                "ON CONFLICT (uuid) DO UPDATE SET " +
+                "name = EXCLUDED.name, " +
+                "updated_at = EXCLUDED.updated_at, " +
+                "exp_level = EXCLUDED.exp_level, " +
+                "exp_total = EXCLUDED.exp_total, " +
+                "exp_progress = EXCLUDED.exp_progress";
+    }
+
     // Helpers
     private static String sanitizeIdent(String s, String def) {
         if (s == null) return def;
@@ -274,6 +664,24 @@ public final class PostgresProvider implements DbProvider {
         return sb.toString();
     }
 
+    /**
+     * @return a JSON object with all valid keys, or null if none of the keys are valid
+     */
+    private static String toStatsJson(Map<String, Integer> stats) {
+        StringBuilder sb = new StringBuilder();
+        sb.append('{');
+        int i = 0;
+        for (Map.Entry<String, Integer> e : stats.entrySet()) {
+            String statKey = e.getKey();
+            if (!StatKeyUtil.isValidTrackedFormat(statKey) || statKey.length() > 128) continue;
+            if (i++ > 0) sb.append(',');
+            sb.append('"').append(jsonEscape(statKey)).append("\":")
+                    .append(Math.max(0, e.getValue() == null ? 0 : e.getValue()));
+        }
+        sb.append('}');
+        return i == 0 ? null : sb.toString();
+    }
+
     private static String jsonEscape(String s) {
         if (s == null) return "";
         StringBuilder sb = new StringBuilder();
@@ -8,6 +8,7 @@ package com.artemis.the.gr8.playerstats.core.enums;
 public enum StandardMessage {
     RELOADED_CONFIG,
     STILL_RELOADING,
+    WARMING_UP,
     EXCLUDE_FAILED,
     INCLUDE_FAILED,
     MISSING_STAT_NAME,
@@ -2,9 +2,11 @@ package com.artemis.the.gr8.playerstats.core.listeners;
 
 import com.artemis.the.gr8.playerstats.core.Main;
 import com.artemis.the.gr8.playerstats.core.db.DatabaseManager;
+import com.artemis.the.gr8.playerstats.core.db.DirtyStatTracker;
 import com.artemis.the.gr8.playerstats.core.db.StatKeyUtil;
 import com.artemis.the.gr8.playerstats.core.multithreading.ThreadManager;
 import com.artemis.the.gr8.playerstats.core.utils.MyLogger;
+import com.artemis.the.gr8.playerstats.core.utils.OfflinePlayerHandler;
 import org.bukkit.Bukkit;
 import org.bukkit.Material;
 import org.bukkit.Statistic;
@@ -29,15 +31,27 @@ public class JoinListener implements Listener {
     @EventHandler
     public void onPlayerJoin(PlayerJoinEvent joinEvent) {
         Player player = joinEvent.getPlayer();
-        // Only update database stats, no need to reload entire plugin for new players
-        // The plugin should handle new players gracefully without full reload
+        // Only update this player, no need to reload entire plugin for new players
+        updateIncludedPlayersAsync(player);
         updateTrackedStatsAsync(player);
         updatePlayerExperienceAsync(player);
     }
 
+    private void updateIncludedPlayersAsync(Player player) {
+        Bukkit.getScheduler().runTaskAsynchronously(Main.getPluginInstance(), () -> {
+            try {
+                OfflinePlayerHandler.getInstance().updatePlayer(player);
+            } catch (Exception e) {
+                MyLogger.logWarning("Failed to update included players for " + player.getName() + ": " + e.getMessage());
+            }
+        });
+    }
+
     private void updateTrackedStatsAsync(Player player) {
         DatabaseManager dbm = DatabaseManager.getInstance();
         if (!dbm.config().enabled() || !dbm.config().updatePlayerOnJoin()) return;
+        // With dirty-sync, the first join is enough; changes are written while the player is online and when they quit
+        if (dbm.config().dirtySyncEnabled() && !DirtyStatTracker.getInstance().needsFullSync(player.getUniqueId())) return;
 
         Bukkit.getScheduler().runTaskAsynchronously(Main.getPluginInstance(), () -> {
             for (String key : dbm.trackedStatKeys()) {
@@ -0,0 +1,33 @@
+package com.artemis.the.gr8.playerstats.core.listeners;
+
+import com.artemis.the.gr8.playerstats.core.db.DirtyStatTracker;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerQuitEvent;
+import org.bukkit.event.player.PlayerStatisticIncrementEvent;
+import org.jetbrains.annotations.ApiStatus;
+
+/**
+ * Listens for statistics that change while players are online, so only
+ * those are written to the database, and writes them when a player leaves.
+ */
+@ApiStatus.Internal
+public class StatisticListener implements Listener {
+
+    private final DirtyStatTracker tracker;
+
+    public StatisticListener(DirtyStatTracker tracker) {
+        this.tracker = tracker;
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onStatisticIncrement(PlayerStatisticIncrementEvent event) {
+        tracker.markDirty(event.getPlayer().getUniqueId(), event.getStatistic(), event.getMaterial(), event.getEntityType());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerQuit(PlayerQuitEvent quitEvent) {
+        tracker.flush(quitEvent.getPlayer());
+    }
+}
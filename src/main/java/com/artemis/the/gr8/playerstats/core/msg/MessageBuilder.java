@@ -4,6 +4,8 @@ import com.artemis.the.gr8.playerstats.api.StatTextFormatter;
 import com.artemis.the.gr8.playerstats.core.msg.components.*;
 import com.artemis.the.gr8.playerstats.core.msg.msgutils.*;
 import com.artemis.the.gr8.playerstats.api.StatRequest;
+import com.artemis.the.gr8.playerstats.core.db.DbStats;
+import com.artemis.the.gr8.playerstats.core.statistic.StatResultCache;
 import com.artemis.the.gr8.playerstats.core.utils.EnumHandler;
 import com.artemis.the.gr8.playerstats.core.utils.MyLogger;
 import com.artemis.the.gr8.playerstats.api.enums.Target;
@@ -103,6 +105,10 @@ public final class MessageBuilder implements StatTextFormatter {
         return composePluginMessage("The plugin is (re)loading, your request will be processed when it is done!");
     }
 
+    public @NotNull TextComponent warmingUp() {
+        return composePluginMessage("PlayerStats is still loading all players, please try again in a moment!");
+    }
+
     public @NotNull TextComponent excludeSuccess(String playerName) {
         return componentFactory.pluginPrefix()
                 .append(space())
@@ -232,6 +238,51 @@ public final class MessageBuilder implements StatTextFormatter {
         return excludedList.build();
     }
 
+    public @NotNull TextComponent dbStatus(@NotNull DbStats stats, @NotNull StatResultCache.Stats cache) {
+        return text()
+                .append(newline())
+                .append(getPluginPrefixAsTitle()
+                .append(newline())
+                .append(componentFactory.subTitle("Database writes (" + stats.provider() + ")")))
+                .append(newline())
+                .append(statusLine(
+                        "Circuit", stats.circuitState(),
+                        "Queue", stats.queueDepth() + "/" + stats.queueCapacity(),
+                        "In flight", String.valueOf(stats.inFlight())))
+                .append(newline())
+                .append(statusLine(
+                        "Written", String.valueOf(stats.written()),
+                        "Failed", String.valueOf(stats.failed()),
+                        "p99", stats.p99LatencyMs() + "ms"))
+                .append(newline())
+                .append(statusLine(
+                        "Spooled", stats.spooled() + (stats.spoolPending() ? " (pending)" : ""),
+                        "Merged", String.valueOf(stats.merged()),
+                        "Dropped", String.valueOf(stats.shed())))
+                .append(newline())
+                .append(componentFactory.subTitle("Result cache"))
+                .append(newline())
+                .append(statusLine(
+                        "Hits", String.valueOf(cache.hits()),
+                        "Misses", String.valueOf(cache.misses()),
+                        "Evicted", String.valueOf(cache.evictions()),
+                        "Size", String.valueOf(cache.size())))
+                .build();
+    }
+
+    /**
+     * @param labelsAndValues a label followed by its value, for every number on this line
+     */
+    private @NotNull TextComponent statusLine(String @NotNull ... labelsAndValues) {
+        TextComponent.Builder line = text().append(componentFactory.arrow());
+        for (int i = 0; i + 1 < labelsAndValues.length; i += 2) {
+            line.append(space())
+                    .append(componentFactory.message().content(labelsAndValues[i] + ": "))
+                    .append(componentFactory.messageAccent().content(labelsAndValues[i + 1]));
+        }
+        return line.build();
+    }
+
     @Override
     public @NotNull TextComponent getStatTitle(Statistic statistic, @Nullable String subStatName) {
         return getTopStatTitleComponent(0, statistic, subStatName, null);
@@ -3,10 +3,12 @@ package com.artemis.the.gr8.playerstats.core.msg;
 import com.artemis.the.gr8.playerstats.api.StatTextFormatter;
 import com.artemis.the.gr8.playerstats.core.Main;
 import com.artemis.the.gr8.playerstats.core.config.ConfigHandler;
+import com.artemis.the.gr8.playerstats.core.db.DbStats;
 import com.artemis.the.gr8.playerstats.core.enums.StandardMessage;
 import com.artemis.the.gr8.playerstats.core.msg.components.*;
 import com.artemis.the.gr8.playerstats.core.msg.msgutils.FormattingFunction;
 import com.artemis.the.gr8.playerstats.api.StatRequest;
+import com.artemis.the.gr8.playerstats.core.statistic.StatResultCache;
 import com.artemis.the.gr8.playerstats.core.utils.Closable;
 import com.artemis.the.gr8.playerstats.core.utils.Reloadable;
 import net.kyori.adventure.platform.bukkit.BukkitAudiences;
@@ -169,6 +171,11 @@ public final class OutputManager implements Reloadable, Closable {
                 .excludedList(excludedPlayerNames));
     }
 
+    public void sendDbStatus(@NotNull CommandSender sender, @NotNull DbStats stats, @NotNull StatResultCache.Stats cache) {
+        adventure.sender(sender).sendMessage(getMessageBuilder(sender)
+                .dbStatus(stats, cache));
+    }
+
     public void sendToAllPlayers(@NotNull TextComponent component) {
         adventure.players().sendMessage(component);
     }
@@ -234,6 +241,7 @@ public final class OutputManager implements Reloadable, Closable {
 
         standardMessages.put(RELOADED_CONFIG, MessageBuilder::reloadedConfig);
         standardMessages.put(STILL_RELOADING, MessageBuilder::stillReloading);
+        standardMessages.put(WARMING_UP, MessageBuilder::warmingUp);
         standardMessages.put(EXCLUDE_FAILED, MessageBuilder::excludeFailed);
         standardMessages.put(INCLUDE_FAILED, MessageBuilder::includeFailed);
         standardMessages.put(MISSING_STAT_NAME, MessageBuilder::missingStatName);
@@ -0,0 +1,97 @@
+package com.artemis.the.gr8.playerstats.core.multithreading;
+
+import com.artemis.the.gr8.playerstats.api.StatRequest;
+import com.artemis.the.gr8.playerstats.core.Main;
+import com.artemis.the.gr8.playerstats.core.statistic.BatchTopLists;
+import com.artemis.the.gr8.playerstats.core.statistic.StatSource;
+import com.artemis.the.gr8.playerstats.core.utils.MyLogger;
+import com.artemis.the.gr8.playerstats.core.utils.PlayerRoster;
+import org.bukkit.OfflinePlayer;
+
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * The action that is executed when many statistics are requested
+ * at once, for example to fill the database with top-lists.
+ */
+final class BatchStatAction extends RecursiveTask<BatchTopLists> {
+
+    private final PlayerRoster roster;
+    private final int start;
+    private final int end;
+    private final int threshold;
+    private final StatRequest.Settings[] statSettings;
+    private final StatSource statSource;
+    private final int topListSize;
+
+    /**
+     * Gets the numbers for all statistics in the batch for all players
+     * in the roster, in a single pass: every player is looked up once,
+     * and all statistics are read for that player before moving on.
+     * Every subtask keeps its own {@link BatchTopLists}, and these are
+     * merged when the subtasks are joined.
+     *
+     * @param roster the players that should be included in stat calculations
+     * @param statSettings validated requestSettings objects, one for every statistic in the batch
+     * @param statSource where to read the numbers from
+     * @param topListSize the maximum number of players in each top-list
+     * @param threshold the number of players below which a subtask is not split up further
+     */
+    public BatchStatAction(PlayerRoster roster, StatRequest.Settings[] statSettings, StatSource statSource, int topListSize, int threshold) {
+        this(roster, 0, roster.size(), threshold, statSettings, statSource, topListSize);
+    }
+
+    private BatchStatAction(PlayerRoster roster, int start, int end, int threshold, StatRequest.Settings[] statSettings, StatSource statSource, int topListSize) {
+        this.roster = roster;
+        this.start = start;
+        this.end = end;
+        this.threshold = threshold;
+        this.statSettings = statSettings;
+        this.statSource = statSource;
+        this.topListSize = topListSize;
+
+        MyLogger.subActionCreated(Thread.currentThread().getName());
+    }
+
+    @Override
+    protected BatchTopLists compute() {
+        if (Main.isShuttingDown()) {
+            return new BatchTopLists(statSettings.length, 0);
+        }
+        final int length = end - start;
+        if (length < threshold) {
+            return getStatsDirectly();
+        }
+        else {
+            final int split = start + (length / 2);
+            final BatchStatAction subTask1 = new BatchStatAction(roster, start, split, threshold, statSettings, statSource, topListSize);
+            final BatchStatAction subTask2 = new BatchStatAction(roster, split, end, threshold, statSettings, statSource, topListSize);
+
+            //queue and compute all subtasks in the right order
+            subTask1.fork();
+            BatchTopLists topLists = new BatchTopLists(statSettings.length, Math.min(topListSize, length));
+            topLists.addAll(subTask2.compute());
+            topLists.addAll(subTask1.join());
+            return topLists;
+        }
+    }
+
+    private BatchTopLists getStatsDirectly() {
+        BatchTopLists topLists = new BatchTopLists(statSettings.length, Math.min(topListSize, end - start));
+        int[] row = new int[statSettings.length];
+        for (int ordinal = start; ordinal < end; ordinal++) {
+            MyLogger.actionRunning(Thread.currentThread().getName());
+            OfflinePlayer player = roster.getOfflinePlayer(ordinal);
+            try {
+                statSource.getStatistics(player, statSettings, row);
+            } catch (Exception e) {
+                MyLogger.logException(e, "BatchStatAction", "Error getting statistics for player: " + roster.getName(ordinal));
+                continue;
+            }
+            for (int i = 0; i < statSettings.length; i++) {
+                topLists.offer(i, ordinal, row[i]);
+            }
+        }
+        return topLists;
+    }
+}
@@ -2,8 +2,11 @@ package com.artemis.the.gr8.playerstats.core.multithreading;
 
 import com.artemis.the.gr8.playerstats.core.utils.MyLogger;
 import com.artemis.the.gr8.playerstats.core.utils.OfflinePlayerHandler;
+import com.artemis.the.gr8.playerstats.core.utils.PlayerMetadataReader.PlayerMetadata;
+import com.artemis.the.gr8.playerstats.core.utils.PlayerRoster;
 import org.bukkit.OfflinePlayer;
 
+import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.RecursiveAction;
@@ -19,6 +22,9 @@ public final class PlayerLoadAction extends RecursiveAction {
     private final int end;
 
     private final ConcurrentHashMap<String, UUID> offlinePlayerUUIDs;
+    private final ConcurrentHashMap<UUID, Long> lastPlayedTimes;
+    private final PlayerRoster excludedPlayers;
+    private final Map<UUID, PlayerMetadata> metadata;
     private final long minLastPlayed;
 
     /**
@@ -27,19 +33,28 @@ public final class PlayerLoadAction extends RecursiveAction {
      *
      * @param players array of all OfflinePlayers to filter and load
      * @param offlinePlayerUUIDs the ConcurrentHashMap to put playerNames and UUIDs in
+     * @param lastPlayedTimes the ConcurrentHashMap to put the last-played time of included players in
+     * @param excludedPlayers the players on the exclude-list, who should be skipped
+     * @param metadata names and last-played times that were read in bulk, which are
+     *                 used instead of asking each OfflinePlayer (this can be incomplete)
      * @see OfflinePlayerHandler
      */
-    public PlayerLoadAction(OfflinePlayer[] players, ConcurrentHashMap<String, UUID> offlinePlayerUUIDs, long minLastPlayed) {
-       this(players, 0, players.length, offlinePlayerUUIDs, minLastPlayed);
+    public PlayerLoadAction(OfflinePlayer[] players, ConcurrentHashMap<String, UUID> offlinePlayerUUIDs, ConcurrentHashMap<UUID, Long> lastPlayedTimes,
+                            PlayerRoster excludedPlayers, Map<UUID, PlayerMetadata> metadata, long minLastPlayed) {
+       this(players, 0, players.length, offlinePlayerUUIDs, lastPlayedTimes, excludedPlayers, metadata, minLastPlayed);
     }
 
-    private PlayerLoadAction(OfflinePlayer[] players, int start, int end, ConcurrentHashMap<String, UUID> offlinePlayerUUIDs, long minLastPlayed) {
+    private PlayerLoadAction(OfflinePlayer[] players, int start, int end, ConcurrentHashMap<String, UUID> offlinePlayerUUIDs, ConcurrentHashMap<UUID, Long> lastPlayedTimes,
+                             PlayerRoster excludedPlayers, Map<UUID, PlayerMetadata> metadata, long minLastPlayed) {
         threshold = ThreadManager.getTaskThreshold();
 
         this.players = players;
         this.start = start;
         this.end = end;
         this.offlinePlayerUUIDs = offlinePlayerUUIDs;
+        this.lastPlayedTimes = lastPlayedTimes;
+        this.excludedPlayers = excludedPlayers;
+        this.metadata = metadata;
         this.minLastPlayed = minLastPlayed;
 
         MyLogger.subActionCreated(Thread.currentThread().getName());
@@ -54,9 +69,9 @@ public final class PlayerLoadAction extends RecursiveAction {
         else {
             final int split = length / 2;
             final PlayerLoadAction subTask1 = new PlayerLoadAction(players, start, (start + split),
-                    offlinePlayerUUIDs, minLastPlayed);
+                    offlinePlayerUUIDs, lastPlayedTimes, excludedPlayers, metadata, minLastPlayed);
             final PlayerLoadAction subTask2 = new PlayerLoadAction(players, (start + split), end,
-                    offlinePlayerUUIDs, minLastPlayed);
+                    offlinePlayerUUIDs, lastPlayedTimes, excludedPlayers, metadata, minLastPlayed);
 
             //queue and compute all subtasks in the right order
             invokeAll(subTask1, subTask2);
@@ -64,16 +79,24 @@ public final class PlayerLoadAction extends RecursiveAction {
     }
 
     private void process() {
-        OfflinePlayerHandler offlinePlayerHandler = OfflinePlayerHandler.getInstance();
-
         for (int i = start; i < end; i++) {
             OfflinePlayer player = players[i];
-            String playerName = player.getName();
+            UUID uuid = player.getUniqueId();
             MyLogger.actionRunning(Thread.currentThread().getName());
-            if (playerName != null &&
-                    !offlinePlayerHandler.isExcludedPlayer(player.getUniqueId()) &&
-                    player.getLastPlayed() >= minLastPlayed) {
-                offlinePlayerUUIDs.put(playerName, player.getUniqueId());
+            if (excludedPlayers.contains(uuid)) {
+                continue;
+            }
+            PlayerMetadata playerMetadata = metadata.get(uuid);
+            String playerName = playerMetadata != null && playerMetadata.name() != null ?
+                    playerMetadata.name() : player.getName();
+            if (playerName == null) {
+                continue;
+            }
+            long lastPlayed = playerMetadata != null && playerMetadata.lastPlayed() > 0 ?
+                    playerMetadata.lastPlayed() : player.getLastPlayed();
+            if (lastPlayed >= minLastPlayed) {
+                offlinePlayerUUIDs.put(playerName, uuid);
+                lastPlayedTimes.put(uuid, lastPlayed);
             }
         }
     }
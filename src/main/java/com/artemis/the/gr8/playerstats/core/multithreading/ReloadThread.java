@@ -5,22 +5,26 @@ import com.artemis.the.gr8.playerstats.core.enums.StandardMessage;
 import com.artemis.the.gr8.playerstats.core.msg.OutputManager;
 import com.artemis.the.gr8.playerstats.core.utils.MyLogger;
 import org.bukkit.command.CommandSender;
+import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
 /** The Thread that is in charge of reloading PlayerStats. */
 final class ReloadThread extends Thread {
 
     private final Main main;
     private static OutputManager outputManager;
 
-    private final StatThread statThread;
+    private final List<CompletableFuture<Void>> statTasks;
     private final CommandSender sender;
 
-    public ReloadThread(Main main, OutputManager m, int ID, @Nullable StatThread s, @Nullable CommandSender se) {
+    public ReloadThread(Main main, OutputManager m, int ID, @NotNull List<CompletableFuture<Void>> s, @Nullable CommandSender se) {
         this.main = main;
         outputManager = m;
 
-        statThread = s;
+        statTasks = s;
         sender = se;
 
         this.setName("ReloadThread-" + ID);
@@ -28,21 +32,21 @@ final class ReloadThread extends Thread {
     }
 
     /**
-     * This method will call reload() from Main. If a {@link StatThread}
-     * is still running, it will join the statThread and wait for it to finish.
+     * This method will call reload() from Main. If any {@link StatTask}s
+     * are still running, it will wait for them to finish first.
      */
     @Override
     public void run() {
         MyLogger.logHighLevelMsg(this.getName() + " started!");
 
-        if (statThread != null && statThread.isAlive()) {
-            try {
-                MyLogger.logLowLevelMsg(this.getName() + ": Waiting for " + statThread.getName() + " to finish up...");
-                statThread.join();
-            } catch (InterruptedException e) {
-                MyLogger.logException(e, "ReloadThread", "run(), trying to join " + statThread.getName());
-                throw new RuntimeException(e);
-            }
+        List<CompletableFuture<Void>> runningTasks = statTasks.stream()
+                .filter(task -> !task.isDone())
+                .toList();
+        if (!runningTasks.isEmpty()) {
+            MyLogger.logLowLevelMsg(this.getName() + ": Waiting for " + runningTasks.size() + " stat-task(s) to finish up...");
+            CompletableFuture.allOf(runningTasks.toArray(new CompletableFuture<?>[0]))
+                    .exceptionally(e -> null)
+                    .join();
         }
 
         MyLogger.logLowLevelMsg("Reloading!");
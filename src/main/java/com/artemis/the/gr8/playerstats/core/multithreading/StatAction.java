@@ -3,99 +3,99 @@ package com.artemis.the.gr8.playerstats.core.multithreading;
 import com.artemis.the.gr8.playerstats.core.Main;
 
 import com.artemis.the.gr8.playerstats.api.StatRequest;
-import com.artemis.the.gr8.playerstats.core.utils.OfflinePlayerHandler;
+import com.artemis.the.gr8.playerstats.core.statistic.StatSource;
 import com.artemis.the.gr8.playerstats.core.utils.MyLogger;
-import com.google.common.collect.ImmutableList;
-import org.bukkit.OfflinePlayer;
+import com.artemis.the.gr8.playerstats.core.utils.PlayerRoster;
 
-import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.RecursiveTask;
 
 /**
  * The action that is executed when a stat-command is triggered.
  */
-final class StatAction extends RecursiveTask<ConcurrentHashMap<String, Integer>> {
+final class StatAction extends RecursiveTask<Long> {
 
     private static int threshold;
-    private final ImmutableList<String> playerNames;
+
+    private final PlayerRoster roster;
+    private final int start;
+    private final int end;
     private final StatRequest.Settings requestSettings;
-    private final ConcurrentHashMap<String, Integer> allStats;
+    private final StatSource statSource;
+    private final int[] values;
 
     /**
-     * Gets the statistic numbers for all players whose name is on
-     * the list, puts them in a ConcurrentHashMap using the default
-     * ForkJoinPool, and returns the ConcurrentHashMap when
-     * everything is done.
+     * Gets the statistic numbers for all players in the roster, and puts
+     * them in the values-array at each player's ordinal. The roster is split
+     * into ranges of ordinals, and every subtask only writes to its own range,
+     * so nothing is shared between the worker threads. Each subtask returns
+     * the sum of its range, and these are added up when the subtasks are joined.
      *
-     * @param playerNames ImmutableList of playerNames for players that should be included in stat calculations
+     * @param roster the players that should be included in stat calculations
      * @param requestSettings a validated requestSettings object
-     * @param allStats the ConcurrentHashMap to put the results on
+     * @param statSource where to read the numbers from
+     * @param values the array to put the results in, with the same size as the roster
+     */
+    public StatAction(PlayerRoster roster, StatRequest.Settings requestSettings, StatSource statSource, int[] values) {
+        this(roster, 0, roster.size(), requestSettings, statSource, values);
+    }
+
+    /**
+     * Gets the statistic numbers only for the players from this ordinal
+     * onwards, for a values-array of which the start is already filled in.
+     *
+     * @param fromOrdinal the ordinal of the first player to get the number for
      */
-    public StatAction(ImmutableList<String> playerNames, StatRequest.Settings requestSettings, ConcurrentHashMap<String, Integer> allStats) {
+    public StatAction(PlayerRoster roster, StatRequest.Settings requestSettings, StatSource statSource, int[] values, int fromOrdinal) {
+        this(roster, fromOrdinal, roster.size(), requestSettings, statSource, values);
+    }
+
+    private StatAction(PlayerRoster roster, int start, int end, StatRequest.Settings requestSettings, StatSource statSource, int[] values) {
         threshold = ThreadManager.getTaskThreshold();
 
-        this.playerNames = playerNames;
+        this.roster = roster;
+        this.start = start;
+        this.end = end;
         this.requestSettings = requestSettings;
-        this.allStats = allStats;
+        this.statSource = statSource;
+        this.values = values;
 
         MyLogger.subActionCreated(Thread.currentThread().getName());
     }
 
     @Override
-    protected ConcurrentHashMap<String, Integer> compute() {
+    protected Long compute() {
         if (Main.isShuttingDown()) {
-            return new ConcurrentHashMap<>();
+            return 0L;
         }
-        if (playerNames.size() < threshold) {
+        final int length = end - start;
+        if (length < threshold) {
             return getStatsDirectly();
         }
         else {
-            final StatAction subTask1 = new StatAction(playerNames.subList(0, playerNames.size()/2), requestSettings, allStats);
-            final StatAction subTask2 = new StatAction(playerNames.subList(playerNames.size()/2, playerNames.size()), requestSettings, allStats);
+            final int split = start + (length / 2);
+            final StatAction subTask1 = new StatAction(roster, start, split, requestSettings, statSource, values);
+            final StatAction subTask2 = new StatAction(roster, split, end, requestSettings, statSource, values);
 
             //queue and compute all subtasks in the right order
             subTask1.fork();
-            subTask2.compute();
-            return subTask1.join();
+            long total = subTask2.compute();
+            return total + subTask1.join();
         }
     }
 
-    private ConcurrentHashMap<String, Integer> getStatsDirectly() {
-        if (Main.isShuttingDown()) {
-            return allStats;
-        }
-        OfflinePlayerHandler offlinePlayerHandler = OfflinePlayerHandler.getInstance();
-
-        Iterator<String> iterator = playerNames.iterator();
-        if (iterator.hasNext()) {
-            do {
-                String playerName = iterator.next();
-                MyLogger.actionRunning(Thread.currentThread().getName());
-                
-                try {
-                    OfflinePlayer player = offlinePlayerHandler.getIncludedOfflinePlayer(playerName);
-                    if (player == null) {
-                        MyLogger.logWarning("Player not found: " + playerName);
-                        continue;
-                    }
-                    
-                    int statistic = 0;
-                    switch (requestSettings.getStatistic().getType()) {
-                        case UNTYPED -> statistic = player.getStatistic(requestSettings.getStatistic());
-                        case ENTITY -> statistic = player.getStatistic(requestSettings.getStatistic(), requestSettings.getEntity());
-                        case BLOCK -> statistic = player.getStatistic(requestSettings.getStatistic(), requestSettings.getBlock());
-                        case ITEM -> statistic = player.getStatistic(requestSettings.getStatistic(), requestSettings.getItem());
-                    }
-                    if (statistic > 0) {
-                        allStats.put(playerName, statistic);
-                    }
-                } catch (Exception e) {
-                    MyLogger.logException(e, "StatAction", "Error getting statistic for player: " + playerName);
-                    // Continue processing other players instead of failing completely
-                }
-            } while (iterator.hasNext());
+    private long getStatsDirectly() {
+        long total = 0;
+        for (int ordinal = start; ordinal < end; ordinal++) {
+            MyLogger.actionRunning(Thread.currentThread().getName());
+            try {
+                int statistic = statSource.getStatistic(roster.getOfflinePlayer(ordinal), requestSettings);
+                values[ordinal] = statistic;
+                total += statistic;
+            } catch (Exception e) {
+                MyLogger.logException(e, "StatAction", "Error getting statistic for player: " + roster.getName(ordinal));
+                // Continue processing other players instead of failing completely
+            }
         }
-        return allStats;
+        return total;
     }
-}
\ No newline at end of file
+}
@@ -5,49 +5,60 @@ import com.artemis.the.gr8.playerstats.core.statistic.StatRequestManager;
 import com.artemis.the.gr8.playerstats.api.StatRequest;
 import com.artemis.the.gr8.playerstats.api.StatResult;
 import com.artemis.the.gr8.playerstats.core.utils.MyLogger;
+import com.artemis.the.gr8.playerstats.core.utils.OfflinePlayerHandler;
 import com.artemis.the.gr8.playerstats.core.enums.StandardMessage;
 import org.bukkit.command.CommandSender;
 import org.jetbrains.annotations.Nullable;
 
-import java.util.*;
-
 /**
- * The Thread that is in charge of getting and calculating statistics.
+ * The task that is in charge of getting and calculating statistics
+ * for a stat-command. It runs on a virtual thread from the
+ * {@link ThreadManager}, so no platform thread is created for it.
  */
-final class StatThread extends Thread {
+final class StatTask implements Runnable {
 
     private static OutputManager outputManager;
 
+    private final String name;
     private final ReloadThread reloadThread;
     private final StatRequest<?> statRequest;
 
-    public StatThread(OutputManager m, int ID, StatRequest<?> s, @Nullable ReloadThread r) {
+    public StatTask(OutputManager m, int ID, StatRequest<?> s, @Nullable ReloadThread r) {
         outputManager = m;
         reloadThread = r;
         statRequest = s;
 
-        this.setName("StatThread-" + statRequest.getSettings().getCommandSender().getName() + "-" + ID);
-        MyLogger.logHighLevelMsg(this.getName() + " created!");
+        name = "StatTask-" + statRequest.getSettings().getCommandSender().getName() + "-" + ID;
+        MyLogger.logHighLevelMsg(name + " created!");
+    }
+
+    public String getName() {
+        return name;
     }
 
     @Override
     public void run() throws IllegalStateException {
-        MyLogger.logHighLevelMsg(this.getName() + " started!");
+        MyLogger.logHighLevelMsg(name + " started!");
         CommandSender statRequester = statRequest.getSettings().getCommandSender();
 
         if (reloadThread != null && reloadThread.isAlive()) {
             try {
-                MyLogger.logLowLevelMsg(this.getName() + ": Waiting for " + reloadThread.getName() + " to finish up...");
+                MyLogger.logLowLevelMsg(name + ": Waiting for " + reloadThread.getName() + " to finish up...");
                 outputManager.sendFeedbackMsg(statRequester, StandardMessage.STILL_RELOADING);
                 reloadThread.join();
 
             } catch (InterruptedException e) {
-                MyLogger.logException(e, "StatThread", "Trying to join " + reloadThread.getName());
+                MyLogger.logException(e, "StatTask", "Trying to join " + reloadThread.getName());
                 throw new RuntimeException(e);
             }
         }
 
-        long lastCalc = ThreadManager.getLastRecordedCalcTime();
+        if (!OfflinePlayerHandler.getInstance().awaitReady()) {
+            outputManager.sendFeedbackMsg(statRequester, StandardMessage.WARMING_UP);
+            return;
+        }
+
+        long lastCalc = StatRequestManager.hasCachedResult(statRequest) ? 0 : ThreadManager.getLastRecordedCalcTime();
         if (lastCalc > 6000) {
             outputManager.sendFeedbackMsg(statRequester, StandardMessage.WAIT_A_MINUTE);
         } else if (lastCalc > 2000) {
@@ -55,10 +66,11 @@ final class StatThread extends Thread {
         }
 
         try {
-            StatResult<?> result = StatRequestManager.execute(statRequest);
+            StatResult<?> result = ThreadManager.callWithPermit(() -> StatRequestManager.execute(statRequest));
             outputManager.sendToCommandSender(statRequester, result.formattedComponent());
         }
-        catch (ConcurrentModificationException e) {
+        catch (RuntimeException e) {
+            MyLogger.logException(e, "StatTask", name);
             if (!statRequest.getSettings().isConsoleSender()) {
                 outputManager.sendFeedbackMsg(statRequester, StandardMessage.UNKNOWN_ERROR);
             }
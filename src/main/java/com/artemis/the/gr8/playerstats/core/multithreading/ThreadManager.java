@@ -5,30 +5,80 @@ import com.artemis.the.gr8.playerstats.core.msg.OutputManager;
 import com.artemis.the.gr8.playerstats.core.config.ConfigHandler;
 import com.artemis.the.gr8.playerstats.core.enums.StandardMessage;
 import com.artemis.the.gr8.playerstats.api.StatRequest;
+import com.artemis.the.gr8.playerstats.core.statistic.StatSource;
+import com.artemis.the.gr8.playerstats.core.utils.Closable;
 import com.artemis.the.gr8.playerstats.core.utils.MyLogger;
-import com.artemis.the.gr8.playerstats.core.utils.OfflinePlayerHandler;
-import com.google.common.collect.ImmutableList;
+import com.artemis.the.gr8.playerstats.core.utils.PlayerMetadataReader;
+import com.artemis.the.gr8.playerstats.core.utils.PlayerRoster;
+import com.artemis.the.gr8.playerstats.core.utils.Reloadable;
 import org.bukkit.OfflinePlayer;
 import org.bukkit.command.CommandSender;
 import org.jetbrains.annotations.NotNull;
 
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
 
 /**
  * The ThreadManager is in charge of the Threads that PlayerStats
  * can utilize. It keeps track of past and currently active Threads,
  * to ensure a Player cannot start multiple Threads at the same time
  * (thereby limiting them to one stat-lookup at a time). It also
- * passes appropriate references along to the {@link StatThread}
+ * passes appropriate references along to the {@link StatTask}
  * or {@link ReloadThread}, to ensure those will never run at the
  * same time.
+ * <br>
+ * <br>Statistic calculations run on ForkJoinPools owned by PlayerStats
+ * instead of on the common pool, so they don't compete with the server
+ * or other plugins. There is one pool for each {@link Lane}, so a command
+ * never has to wait behind a background job.
  */
-public final class ThreadManager {
+public final class ThreadManager implements Reloadable, Closable {
+
+    public enum Lane {
+        /** For commands and API requests, where someone is waiting for the result. */
+        INTERACTIVE,
+        /** For jobs that nobody is waiting for, like loading players or filling the database. */
+        BACKGROUND
+    }
+
+    /**
+     * A snapshot of the activity of one of the pools,
+     * to help decide how many threads it should get.
+     *
+     * @param lane the lane this pool is used for
+     * @param parallelism the target number of threads
+     * @param poolSize the number of threads that currently exist
+     * @param activeThreads the number of threads that are running or stealing tasks
+     * @param queuedTasks the number of tasks that are waiting in the queues of the worker threads
+     * @param queuedSubmissions the number of tasks submitted from outside the pool that have not started yet
+     * @param stealCount the total number of tasks that were stolen from another thread's queue
+     */
+    public record PoolStats(Lane lane, int parallelism, int poolSize, int activeThreads,
+                            long queuedTasks, int queuedSubmissions, long stealCount) {
+    }
+
+    private static ForkJoinPool interactivePool;
+    private static ForkJoinPool backgroundPool;
+    private static ExecutorService requestExecutor;
+    private static Semaphore requestPermits;
+    private static int maxConcurrentRequests;
 
     private final static int threshold = 10;
-    private int statThreadID;
+    private int statTaskID;
     private int reloadThreadID;
 
     private final Main main;
@@ -36,8 +86,8 @@ public final class ThreadManager {
     private static OutputManager outputManager;
 
     private ReloadThread activatedReloadThread;
-    private StatThread activatedStatThread;
-    private final HashMap<String, Thread> statThreads;
+    private final ConcurrentHashMap<String, CompletableFuture<Void>> statTasks;
+    private final Set<CompletableFuture<Void>> runningStatTasks;
     private static long lastRecordedCalcTime;
 
     public ThreadManager(Main main) {
@@ -45,30 +95,177 @@ public final class ThreadManager {
         this.config = ConfigHandler.getInstance();
         outputManager = OutputManager.getInstance();
 
-        statThreads = new HashMap<>();
-        statThreadID = 0;
+        statTasks = new ConcurrentHashMap<>();
+        runningStatTasks = ConcurrentHashMap.newKeySet();
+        statTaskID = 0;
         reloadThreadID = 0;
         lastRecordedCalcTime = 0;
+
+        Main.registerReloadable(this);
+        Main.registerClosable(this);
+    }
+
+    /**
+     * Replaces the pools whose configured size has changed.
+     * Tasks that are already running on an old pool are allowed to finish.
+     */
+    @Override
+    public void reload() {
+        synchronized (ThreadManager.class) {
+            if (requestPermits != null && maxConcurrentRequests != getMaxConcurrentRequests()) {
+                requestPermits = null;
+            }
+            if (interactivePool != null && interactivePool.getParallelism() != getParallelism(Lane.INTERACTIVE)) {
+                interactivePool.shutdown();
+                interactivePool = null;
+            }
+            if (backgroundPool != null && backgroundPool.getParallelism() != getParallelism(Lane.BACKGROUND)) {
+                backgroundPool.shutdown();
+                backgroundPool = null;
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        synchronized (ThreadManager.class) {
+            if (requestExecutor != null) {
+                requestExecutor.shutdownNow();
+                requestExecutor = null;
+            }
+            shutdownPool(interactivePool);
+            shutdownPool(backgroundPool);
+            interactivePool = null;
+            backgroundPool = null;
+        }
+    }
+
+    /**
+     * Runs this request on a virtual thread, and returns a future that completes
+     * with its result. At most the configured number of requests are calculated
+     * at the same time, and the others wait for their turn without
+     * holding on to a platform thread.
+     *
+     * @param request the calculation to run
+     * @return a CompletableFuture with the result of the calculation
+     */
+    public static <T> @NotNull CompletableFuture<T> supplyAsync(@NotNull Supplier<T> request) {
+        return CompletableFuture.supplyAsync(() -> callWithPermit(request), getRequestExecutor());
+    }
+
+    /**
+     * Runs this request on the calling thread, once one of the configured
+     * number of permits is free. Anything that waits for something else,
+     * like a reload, should do so before calling this.
+     */
+    static <T> T callWithPermit(@NotNull Supplier<T> request) {
+        Semaphore permits;
+        synchronized (ThreadManager.class) {
+            if (requestPermits == null) {
+                maxConcurrentRequests = getMaxConcurrentRequests();
+                requestPermits = new Semaphore(maxConcurrentRequests, true);
+            }
+            permits = requestPermits;
+        }
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Interrupted while waiting to be executed");
+        }
+        try {
+            return request.get();
+        } finally {
+            permits.release();
+        }
+    }
+
+    private static synchronized @NotNull ExecutorService getRequestExecutor() {
+        if (requestExecutor == null) {
+            requestExecutor = Executors.newThreadPerTaskExecutor(
+                    Thread.ofVirtual().name("PlayerStats-request-", 1).factory());
+        }
+        return requestExecutor;
+    }
+
+    /**
+     * Gets the pool that statistic calculations for this lane
+     * should be executed on, and creates it if needed.
+     */
+    public static synchronized @NotNull ForkJoinPool getPool(Lane lane) {
+        if (lane == Lane.INTERACTIVE) {
+            if (interactivePool == null) {
+                interactivePool = createPool(lane);
+            }
+            return interactivePool;
+        }
+        if (backgroundPool == null) {
+            backgroundPool = createPool(lane);
+        }
+        return backgroundPool;
+    }
+
+    /**
+     * @return the current activity of all pools that have been created
+     */
+    public static synchronized @NotNull List<PoolStats> getPoolStats() {
+        List<PoolStats> stats = new ArrayList<>(2);
+        if (interactivePool != null) {
+            stats.add(getPoolStats(Lane.INTERACTIVE, interactivePool));
+        }
+        if (backgroundPool != null) {
+            stats.add(getPoolStats(Lane.BACKGROUND, backgroundPool));
+        }
+        return stats;
     }
 
     static int getTaskThreshold() {
         return threshold;
     }
 
-    public static @NotNull StatAction getStatAction(StatRequest.Settings requestSettings) {
-        OfflinePlayerHandler offlinePlayerHandler = OfflinePlayerHandler.getInstance();
+    public static @NotNull StatAction getStatAction(StatRequest.Settings requestSettings, StatSource statSource, PlayerRoster roster, int[] values) {
+        StatAction task = new StatAction(roster, requestSettings, statSource, values);
+
+        MyLogger.actionCreated(roster.size());
+        return task;
+    }
+
+    /**
+     * Gets a StatAction for the players that were added to the roster
+     * from this ordinal onwards.
+     */
+    public static @NotNull StatAction getStatAction(StatRequest.Settings requestSettings, StatSource statSource, PlayerRoster roster, int[] values, int fromOrdinal) {
+        StatAction task = new StatAction(roster, requestSettings, statSource, values, fromOrdinal);
+
+        MyLogger.actionCreated(roster.size() - fromOrdinal);
+        return task;
+    }
+
+    public static @NotNull TopStatAction getTopStatAction(StatRequest.Settings requestSettings, StatSource statSource, PlayerRoster roster) {
+        TopStatAction task = new TopStatAction(roster, requestSettings, statSource, requestSettings.getTopListSize());
+
+        MyLogger.actionCreated(roster.size());
+        return task;
+    }
 
-        ImmutableList<String> relevantPlayerNames = ImmutableList.copyOf(offlinePlayerHandler.getIncludedOfflinePlayerNames());
-        ConcurrentHashMap<String, Integer> resultingStatNumbers = new ConcurrentHashMap<>(relevantPlayerNames.size());
-        StatAction task = new StatAction(relevantPlayerNames, requestSettings, resultingStatNumbers);
+    /**
+     * Every subtask of a BatchStatAction keeps a top-list for each statistic,
+     * so the roster is split into a few parts per worker thread instead of
+     * into parts of {@link #getTaskThreshold()} players.
+     */
+    public static @NotNull BatchStatAction getBatchStatAction(StatRequest.Settings[] statSettings, StatSource statSource, int topListSize, PlayerRoster roster) {
+        int parts = Math.max(1, getPool(Lane.BACKGROUND).getParallelism() * 4);
+        int batchThreshold = Math.max(threshold, roster.size() / parts + 1);
+        BatchStatAction task = new BatchStatAction(roster, statSettings, statSource, topListSize, batchThreshold);
 
-        MyLogger.actionCreated(relevantPlayerNames.size());
+        MyLogger.actionCreated(roster.size());
         return task;
     }
 
-    public static @NotNull PlayerLoadAction getPlayerLoadAction(OfflinePlayer[] playersToLoad, ConcurrentHashMap<String, UUID> mapToFill) {
+    public static @NotNull PlayerLoadAction getPlayerLoadAction(OfflinePlayer[] playersToLoad, ConcurrentHashMap<String, UUID> mapToFill, ConcurrentHashMap<UUID, Long> lastPlayedTimes,
+                                                                PlayerRoster excludedPlayers, Map<UUID, PlayerMetadataReader.PlayerMetadata> metadata) {
         long minLastPlayed = ConfigHandler.getInstance().getSinceAbsoluteTimestamp();
-        PlayerLoadAction task = new PlayerLoadAction(playersToLoad, mapToFill, minLastPlayed);
+        PlayerLoadAction task = new PlayerLoadAction(playersToLoad, mapToFill, lastPlayedTimes, excludedPlayers, metadata, minLastPlayed);
         MyLogger.actionCreated(playersToLoad != null ? playersToLoad.length : 0);
         return task;
     }
@@ -77,7 +274,7 @@ public final class ThreadManager {
         if (activatedReloadThread == null || !activatedReloadThread.isAlive()) {
             reloadThreadID += 1;
 
-            activatedReloadThread = new ReloadThread(main, outputManager, reloadThreadID, activatedStatThread, sender);
+            activatedReloadThread = new ReloadThread(main, outputManager, reloadThreadID, List.copyOf(runningStatTasks), sender);
             activatedReloadThread.start();
         }
         else {
@@ -85,20 +282,16 @@ public final class ThreadManager {
         }
     }
 
-    public void startStatThread(@NotNull StatRequest<?> request) {
-        statThreadID += 1;
+    public void startStatTask(@NotNull StatRequest<?> request) {
+        statTaskID += 1;
         CommandSender sender = request.getSettings().getCommandSender();
 
-        if (config.limitStatRequests() && statThreads.containsKey(sender.getName())) {
-            Thread runningThread = statThreads.get(sender.getName());
-
-            if (runningThread.isAlive()) {
-                outputManager.sendFeedbackMsg(sender, StandardMessage.REQUEST_ALREADY_RUNNING);
-            } else {
-                startNewStatThread(request);
-            }
+        // Finished tasks remove themselves from the map
+        CompletableFuture<Void> runningTask = statTasks.get(sender.getName());
+        if (config.limitStatRequests() && runningTask != null && !runningTask.isDone()) {
+            outputManager.sendFeedbackMsg(sender, StandardMessage.REQUEST_ALREADY_RUNNING);
         } else {
-            startNewStatThread(request);
+            startNewStatTask(request);
         }
     }
 
@@ -118,9 +311,65 @@ public final class ThreadManager {
         return lastRecordedCalcTime;
     }
 
-    private void startNewStatThread(StatRequest<?> request) {
-        activatedStatThread = new StatThread(outputManager, statThreadID, request, activatedReloadThread);
-        statThreads.put(request.getSettings().getCommandSender().getName(), activatedStatThread);
-        activatedStatThread.start();
+    private void startNewStatTask(StatRequest<?> request) {
+        StatTask statTask = new StatTask(outputManager, statTaskID, request, activatedReloadThread);
+        String senderName = request.getSettings().getCommandSender().getName();
+        // The task only takes a request permit once it is done waiting for a reload or the first player load
+        CompletableFuture<Void> future = CompletableFuture.runAsync(statTask, getRequestExecutor());
+        statTasks.put(senderName, future);
+        runningStatTasks.add(future);
+        future.whenComplete((ignored, throwable) -> {
+            statTasks.remove(senderName, future);
+            runningStatTasks.remove(future);
+            if (throwable != null && !Main.isShuttingDown()) {
+                MyLogger.logWarning(statTask.getName() + " failed: " + throwable);
+            }
+        });
+    }
+
+    private static int getMaxConcurrentRequests() {
+        return Math.max(1, ConfigHandler.getInstance().getMaxConcurrentRequests());
+    }
+
+    private static @NotNull PoolStats getPoolStats(Lane lane, @NotNull ForkJoinPool pool) {
+        return new PoolStats(lane, pool.getParallelism(), pool.getPoolSize(), pool.getActiveThreadCount(),
+                pool.getQueuedTaskCount(), pool.getQueuedSubmissionCount(), pool.getStealCount());
+    }
+
+    private static int getParallelism(Lane lane) {
+        ConfigHandler config = ConfigHandler.getInstance();
+        int processors = Runtime.getRuntime().availableProcessors();
+        int configured = lane == Lane.INTERACTIVE ? config.getInteractivePoolSize() : config.getBackgroundPoolSize();
+        if (configured > 0) {
+            return configured;
+        }
+        return lane == Lane.INTERACTIVE ? processors : Math.max(1, processors / 2);
+    }
+
+    private static @NotNull ForkJoinPool createPool(Lane lane) {
+        int parallelism = getParallelism(lane);
+        String prefix = "PlayerStats-" + lane.name().toLowerCase() + "-";
+        AtomicInteger threadID = new AtomicInteger(1);
+
+        ForkJoinPool.ForkJoinWorkerThreadFactory factory = pool -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName(prefix + threadID.getAndIncrement());
+            thread.setContextClassLoader(ThreadManager.class.getClassLoader());
+            return thread;
+        };
+        MyLogger.logLowLevelMsg("Created " + lane.name().toLowerCase() + " pool with " + parallelism + " threads");
+        return new ForkJoinPool(parallelism, factory, null, false);
+    }
+
+    private static void shutdownPool(ForkJoinPool pool) {
+        if (pool == null) {
+            return;
+        }
+        pool.shutdownNow();
+        try {
+            pool.awaitTermination(2, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,92 @@
+package com.artemis.the.gr8.playerstats.core.multithreading;
+
+import com.artemis.the.gr8.playerstats.api.StatRequest;
+import com.artemis.the.gr8.playerstats.core.Main;
+import com.artemis.the.gr8.playerstats.core.statistic.BoundedTopList;
+import com.artemis.the.gr8.playerstats.core.statistic.StatSource;
+import com.artemis.the.gr8.playerstats.core.utils.MyLogger;
+import com.artemis.the.gr8.playerstats.core.utils.PlayerRoster;
+import org.bukkit.OfflinePlayer;
+
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * The action that is executed when a top-stat-command is triggered
+ * and the numbers of all players are not needed.
+ */
+final class TopStatAction extends RecursiveTask<BoundedTopList> {
+
+    private static int threshold;
+
+    private final PlayerRoster roster;
+    private final int start;
+    private final int end;
+    private final StatRequest.Settings requestSettings;
+    private final StatSource statSource;
+    private final int topListSize;
+
+    /**
+     * Gets the statistic numbers for all players in the roster, and
+     * keeps only the highest ones. Every subtask keeps its own
+     * {@link BoundedTopList}, and these are merged when the subtasks
+     * are joined, so the full list of numbers is never stored or sorted.
+     *
+     * @param roster the players that should be included in stat calculations
+     * @param requestSettings a validated requestSettings object
+     * @param statSource where to read the numbers from
+     * @param topListSize the maximum number of players in the result
+     */
+    public TopStatAction(PlayerRoster roster, StatRequest.Settings requestSettings, StatSource statSource, int topListSize) {
+        this(roster, 0, roster.size(), requestSettings, statSource, topListSize);
+    }
+
+    private TopStatAction(PlayerRoster roster, int start, int end, StatRequest.Settings requestSettings, StatSource statSource, int topListSize) {
+        threshold = ThreadManager.getTaskThreshold();
+
+        this.roster = roster;
+        this.start = start;
+        this.end = end;
+        this.requestSettings = requestSettings;
+        this.statSource = statSource;
+        this.topListSize = topListSize;
+
+        MyLogger.subActionCreated(Thread.currentThread().getName());
+    }
+
+    @Override
+    protected BoundedTopList compute() {
+        if (Main.isShuttingDown()) {
+            return new BoundedTopList(0);
+        }
+        final int length = end - start;
+        if (length < threshold) {
+            return getTopStatsDirectly();
+        }
+        else {
+            final int split = start + (length / 2);
+            final TopStatAction subTask1 = new TopStatAction(roster, start, split, requestSettings, statSource, topListSize);
+            final TopStatAction subTask2 = new TopStatAction(roster, split, end, requestSettings, statSource, topListSize);
+
+            //queue and compute all subtasks in the right order
+            subTask1.fork();
+            BoundedTopList topList = new BoundedTopList(Math.min(topListSize, length));
+            topList.addAll(subTask2.compute());
+            topList.addAll(subTask1.join());
+            return topList;
+        }
+    }
+
+    private BoundedTopList getTopStatsDirectly() {
+        BoundedTopList topList = new BoundedTopList(Math.min(topListSize, end - start));
+        for (int ordinal = start; ordinal < end; ordinal++) {
+            MyLogger.actionRunning(Thread.currentThread().getName());
+            try {
+                OfflinePlayer player = roster.getOfflinePlayer(ordinal);
+                topList.offer(ordinal, statSource.getStatistic(player, requestSettings));
+            } catch (Exception e) {
+                MyLogger.logException(e, "TopStatAction", "Error getting statistic for player: " + roster.getName(ordinal));
+            }
+        }
+        return topList;
+    }
+}
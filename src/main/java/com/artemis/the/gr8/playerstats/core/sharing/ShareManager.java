@@ -183,13 +183,13 @@ public final class ShareManager implements Reloadable {
      */
     private void removeExcessResults(String playerName) {
         List<StoredResult> alreadySavedResults = statResultQueue.values()
-                .parallelStream()
+                .stream()
                 .filter(result -> result.executorName().equalsIgnoreCase(playerName))
                 .toList();
 
         if (alreadySavedResults.size() > 25) {
             int hashCode = alreadySavedResults
-                    .parallelStream()
+                    .stream()
                     .min(Comparator.comparing(StoredResult::ID))
                     .orElseThrow().hashCode();
             MyLogger.logMediumLevelMsg("Removing old stat no. " + statResultQueue.get(hashCode).ID() + " for player " + playerName);
@@ -0,0 +1,73 @@
+package com.artemis.the.gr8.playerstats.core.statistic;
+
+import com.artemis.the.gr8.playerstats.api.BatchStatResult;
+import com.artemis.the.gr8.playerstats.core.utils.PlayerRoster;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Keeps a {@link BoundedTopList} and a running total for every statistic
+ * in a batch. Statistics are identified by their index in the batch, so
+ * filling this for one player costs no lookups. Like BoundedTopList, batches
+ * that were filled for different parts of the roster can be merged with
+ * {@link #addAll(BatchTopLists)}.
+ */
+public final class BatchTopLists {
+
+    private final BoundedTopList[] topLists;
+    private final long[] totals;
+
+    /**
+     * @param statCount the number of statistics in the batch
+     * @param capacity the maximum size of each top-list
+     */
+    public BatchTopLists(int statCount, int capacity) {
+        topLists = new BoundedTopList[statCount];
+        totals = new long[statCount];
+        for (int i = 0; i < statCount; i++) {
+            topLists[i] = new BoundedTopList(capacity);
+        }
+    }
+
+    /**
+     * Adds this player's number for the statistic at this index.
+     *
+     * @param statIndex the index of the statistic in the batch
+     * @param ordinal the player's ordinal in the roster
+     * @param value the player's statistic number
+     */
+    public void offer(int statIndex, int ordinal, int value) {
+        totals[statIndex] += value;
+        topLists[statIndex].offer(ordinal, value);
+    }
+
+    /**
+     * Adds all numbers and totals from another batch to this one.
+     *
+     * @param other a BatchTopLists for the same statistics and roster
+     */
+    public void addAll(@NotNull BatchTopLists other) {
+        for (int i = 0; i < totals.length; i++) {
+            totals[i] += other.totals[i];
+            topLists[i].addAll(other.topLists[i]);
+        }
+    }
+
+    /**
+     * @param statKeys the stat-keys of the batch, in index order
+     * @param roster the roster the ordinals in the top-lists belong to
+     * @return a BatchStatResult with the top-lists and totals for each stat-key
+     */
+    @NotNull BatchStatResult toResult(@NotNull List<String> statKeys, @NotNull PlayerRoster roster) {
+        HashMap<String, LinkedHashMap<String, Integer>> resultTopLists = new HashMap<>(statKeys.size() * 2);
+        HashMap<String, Long> resultTotals = new HashMap<>(statKeys.size() * 2);
+        for (int i = 0; i < statKeys.size(); i++) {
+            resultTopLists.put(statKeys.get(i), topLists[i].toLinkedHashMap(roster));
+            resultTotals.put(statKeys.get(i), totals[i]);
+        }
+        return new BatchStatResult(resultTopLists, resultTotals);
+    }
+}
@@ -0,0 +1,23 @@
+package com.artemis.the.gr8.playerstats.core.statistic;
+
+import com.artemis.the.gr8.playerstats.api.BatchStatRequest;
+import com.artemis.the.gr8.playerstats.api.StatRequest;
+import com.artemis.the.gr8.playerstats.core.db.StatKeyUtil;
+import org.jetbrains.annotations.NotNull;
+
+public final class BatchTopStatRequest extends BatchStatRequest {
+
+    public BatchTopStatRequest(int topListSize) {
+        super(topListSize);
+    }
+
+    @Override
+    public @NotNull BatchStatRequest addStatistic(@NotNull String statKey) throws IllegalArgumentException {
+        StatRequest<?> request = StatKeyUtil.toRequest(new TopStatRequest(getTopListSize()), statKey);
+        if (!request.isValid()) {
+            throw new IllegalArgumentException("No matching block, item or entity for stat key: " + statKey);
+        }
+        super.addSettings(statKey, request.getSettings());
+        return this;
+    }
+}
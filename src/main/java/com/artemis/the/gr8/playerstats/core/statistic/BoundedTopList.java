@@ -0,0 +1,167 @@
+package com.artemis.the.gr8.playerstats.core.statistic;
+
+import com.artemis.the.gr8.playerstats.core.utils.PlayerRoster;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.LinkedHashMap;
+
+/**
+ * Keeps the highest statistic numbers it is offered, up to a fixed capacity.
+ * Players are stored by their ordinal in a {@link PlayerRoster}, in a min-heap
+ * over two primitive arrays, so offering a number costs O(log k) and doesn't
+ * allocate anything. Lists that were filled for different parts of the roster
+ * can be merged with {@link #addAll(BoundedTopList)}.
+ * <br>
+ * <br>Numbers of 0 or lower are ignored, since players without a
+ * statistic don't show up in top-lists.
+ */
+public final class BoundedTopList {
+
+    private final int capacity;
+    private final int[] ordinals;
+    private final int[] values;
+    private int size;
+
+    public BoundedTopList(int capacity) {
+        this.capacity = Math.max(0, capacity);
+        ordinals = new int[this.capacity];
+        values = new int[this.capacity];
+        size = 0;
+    }
+
+    /**
+     * Gets a BoundedTopList with the highest numbers in this column.
+     *
+     * @param column statistic numbers, indexed by roster ordinal
+     * @param capacity the maximum size of the top-list
+     * @return the BoundedTopList
+     */
+    public static @NotNull BoundedTopList of(int[] column, int capacity) {
+        BoundedTopList topList = new BoundedTopList(capacity);
+        for (int ordinal = 0; ordinal < column.length; ordinal++) {
+            topList.offer(ordinal, column[ordinal]);
+        }
+        return topList;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Adds this player's number if it belongs in the top-list.
+     *
+     * @param ordinal the player's ordinal in the roster
+     * @param value the player's statistic number
+     */
+    public void offer(int ordinal, int value) {
+        if (value <= 0 || capacity == 0) {
+            return;
+        }
+        if (size < capacity) {
+            ordinals[size] = ordinal;
+            values[size] = value;
+            siftUp(size++);
+        }
+        else if (isLower(ordinals[0], values[0], ordinal, value)) {
+            ordinals[0] = ordinal;
+            values[0] = value;
+            siftDown(0);
+        }
+    }
+
+    /**
+     * Offers all numbers from another top-list to this one.
+     *
+     * @param other a BoundedTopList for the same roster
+     */
+    public void addAll(@NotNull BoundedTopList other) {
+        for (int i = 0; i < other.size; i++) {
+            offer(other.ordinals[i], other.values[i]);
+        }
+    }
+
+    /**
+     * Gets the player names and numbers of this top-list, from highest
+     * to lowest. This does not change the top-list itself.
+     *
+     * @param roster the roster the ordinals in this top-list belong to
+     * @return a LinkedHashMap with player names as keys
+     */
+    public @NotNull LinkedHashMap<String, Integer> toLinkedHashMap(@NotNull PlayerRoster roster) {
+        BoundedTopList copy = new BoundedTopList(capacity);
+        copy.addAll(this);
+
+        int[] sortedOrdinals = new int[size];
+        int[] sortedValues = new int[size];
+        for (int i = size - 1; i >= 0; i--) {
+            sortedOrdinals[i] = copy.ordinals[0];
+            sortedValues[i] = copy.values[0];
+            copy.removeLowest();
+        }
+
+        LinkedHashMap<String, Integer> topList = new LinkedHashMap<>(size * 2);
+        for (int i = 0; i < size; i++) {
+            topList.put(roster.getName(sortedOrdinals[i]), sortedValues[i]);
+        }
+        return topList;
+    }
+
+    private void removeLowest() {
+        size--;
+        ordinals[0] = ordinals[size];
+        values[0] = values[size];
+        siftDown(0);
+    }
+
+    private void siftUp(int index) {
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (!isLower(index, parent)) {
+                break;
+            }
+            swap(index, parent);
+            index = parent;
+        }
+    }
+
+    private void siftDown(int index) {
+        while (true) {
+            int left = 2 * index + 1;
+            if (left >= size) {
+                break;
+            }
+            int right = left + 1;
+            int lowest = (right < size && isLower(right, left)) ? right : left;
+            if (!isLower(lowest, index)) {
+                break;
+            }
+            swap(index, lowest);
+            index = lowest;
+        }
+    }
+
+    private boolean isLower(int index1, int index2) {
+        return isLower(ordinals[index1], values[index1], ordinals[index2], values[index2]);
+    }
+
+    /**
+     * Orders entries by value, and entries with the same value by ordinal,
+     * so the outcome does not depend on the order in which numbers are offered.
+     */
+    private static boolean isLower(int ordinal1, int value1, int ordinal2, int value2) {
+        if (value1 != value2) {
+            return value1 < value2;
+        }
+        return ordinal1 > ordinal2;
+    }
+
+    private void swap(int index1, int index2) {
+        int ordinal = ordinals[index1];
+        int value = values[index1];
+        ordinals[index1] = ordinals[index2];
+        values[index1] = values[index2];
+        ordinals[index2] = ordinal;
+        values[index2] = value;
+    }
+}
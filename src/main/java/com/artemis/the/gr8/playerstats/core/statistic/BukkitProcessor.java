@@ -2,25 +2,34 @@ package com.artemis.the.gr8.playerstats.core.statistic;
 
 import com.artemis.the.gr8.playerstats.core.Main;
 
+import com.artemis.the.gr8.playerstats.api.BatchStatRequest;
+import com.artemis.the.gr8.playerstats.api.BatchStatResult;
 import com.artemis.the.gr8.playerstats.api.StatRequest;
 import com.artemis.the.gr8.playerstats.api.StatResult;
+import com.artemis.the.gr8.playerstats.api.enums.Target;
 import com.artemis.the.gr8.playerstats.core.config.ConfigHandler;
+import com.artemis.the.gr8.playerstats.core.db.StatKeyUtil;
 import com.artemis.the.gr8.playerstats.core.msg.OutputManager;
 import com.artemis.the.gr8.playerstats.core.msg.msgutils.FormattingFunction;
 import com.artemis.the.gr8.playerstats.core.multithreading.ThreadManager;
 import com.artemis.the.gr8.playerstats.core.sharing.ShareManager;
 import com.artemis.the.gr8.playerstats.core.utils.MyLogger;
 import com.artemis.the.gr8.playerstats.core.utils.OfflinePlayerHandler;
+import com.artemis.the.gr8.playerstats.core.utils.PlayerRoster;
 import net.kyori.adventure.text.TextComponent;
+import org.bukkit.Bukkit;
 import org.bukkit.OfflinePlayer;
+import org.bukkit.World;
 import org.bukkit.command.CommandSender;
 import org.bukkit.command.ConsoleCommandSender;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
+import java.io.File;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ForkJoinPool;
-import java.util.stream.Collectors;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Supplier;
 
 final class BukkitProcessor extends RequestProcessor {
 
@@ -28,19 +37,35 @@ final class BukkitProcessor extends RequestProcessor {
     private final ConfigHandler config;
     private final ShareManager shareManager;
     private final OfflinePlayerHandler offlinePlayerHandler;
+    private final StatMatrix statMatrix;
+    private final StatResultCache resultCache;
+    private final StatsFileIndex statsFileIndex;
+    private final StatSource statSource;
 
-    public BukkitProcessor(OutputManager outputManager) {
+    private final SingleFlight<Integer> playerStatFlights;
+    private final SingleFlight<Long> serverStatFlights;
+    private final SingleFlight<LinkedHashMap<String, Integer>> topStatFlights;
+
+    public BukkitProcessor(OutputManager outputManager, StatResultCache resultCache, StatsFileIndex statsFileIndex) {
         this.outputManager = outputManager;
+        this.resultCache = resultCache;
+        this.statsFileIndex = statsFileIndex;
 
         config = ConfigHandler.getInstance();
         shareManager = ShareManager.getInstance();
         offlinePlayerHandler = OfflinePlayerHandler.getInstance();
+        statSource = getStatSource();
+        statMatrix = new StatMatrix(config, this::getAllStatsAsColumn);
+
+        playerStatFlights = new SingleFlight<>();
+        serverStatFlights = new SingleFlight<>();
+        topStatFlights = new SingleFlight<>();
     }
 
     @Override
     public @NotNull StatResult<Integer> processPlayerRequest(StatRequest<?> playerStatRequest) {
         StatRequest.Settings requestSettings = playerStatRequest.getSettings();
-        int stat = getPlayerStat(requestSettings);
+        int stat = playerStatFlights.execute(getResultKey(requestSettings), () -> getPlayerStat(requestSettings));
         FormattingFunction formattingFunction = outputManager.formatPlayerStat(requestSettings, stat);
         TextComponent formattedResult = processFunction(requestSettings.getCommandSender(), formattingFunction);
         String resultAsString = outputManager.textComponentToString(formattedResult);
@@ -51,7 +76,7 @@ final class BukkitProcessor extends RequestProcessor {
     @Override
     public @NotNull StatResult<Long> processServerRequest(StatRequest<?> serverStatRequest) {
         StatRequest.Settings requestSettings = serverStatRequest.getSettings();
-        long stat = getServerStat(requestSettings);
+        long stat = getCachedResult(requestSettings, serverStatFlights, () -> getServerStat(requestSettings));
         FormattingFunction formattingFunction = outputManager.formatServerStat(requestSettings, stat);
         TextComponent formattedResult = processFunction(requestSettings.getCommandSender(), formattingFunction);
         String resultAsString = outputManager.textComponentToString(formattedResult);
@@ -62,7 +87,8 @@ final class BukkitProcessor extends RequestProcessor {
     @Override
     public @NotNull StatResult<LinkedHashMap<String, Integer>> processTopRequest(StatRequest<?> topStatRequest) {
         StatRequest.Settings requestSettings = topStatRequest.getSettings();
-        LinkedHashMap<String, Integer> stats = getTopStats(requestSettings);
+        LinkedHashMap<String, Integer> stats = new LinkedHashMap<>(
+                getCachedResult(requestSettings, topStatFlights, () -> getTopStats(requestSettings)));
         FormattingFunction formattingFunction = outputManager.formatTopStats(requestSettings, stats);
         TextComponent formattedResult = processFunction(requestSettings.getCommandSender(), formattingFunction);
         String resultAsString = outputManager.textComponentToString(formattedResult);
@@ -70,6 +96,87 @@ final class BukkitProcessor extends RequestProcessor {
         return new StatResult<>(stats, formattedResult, resultAsString);
     }
 
+    @Override
+    public @NotNull BatchStatResult processBatchRequest(BatchStatRequest batchStatRequest) {
+        List<String> statKeys = new ArrayList<>(batchStatRequest.getSettings().keySet());
+        StatRequest.Settings[] statSettings = batchStatRequest.getSettings().values().toArray(new StatRequest.Settings[0]);
+        PlayerRoster roster = offlinePlayerHandler.getIncludedPlayerRoster();
+
+        BatchTopLists topLists = invokeStatAction(
+                ThreadManager.getBatchStatAction(statSettings, statSource, batchStatRequest.getTopListSize(), roster),
+                new BatchTopLists(statSettings.length, 0), ThreadManager.Lane.BACKGROUND);
+        return topLists.toResult(statKeys, roster);
+    }
+
+    @Override
+    public boolean hasCachedResult(StatRequest<?> statRequest) {
+        StatRequest.Settings requestSettings = statRequest.getSettings();
+        if (requestSettings.getTarget() == Target.PLAYER) {
+            return false;
+        }
+        if (statMatrix.isEnabled()) {
+            return statMatrix.hasUsableColumn(requestSettings);
+        }
+        int rosterVersion = offlinePlayerHandler.getIncludedPlayerRoster().getVersion();
+        return resultCache.contains(getResultKey(requestSettings), rosterVersion);
+    }
+
+    /**
+     * Gets the result from the cache, or calculates it and stores it
+     * in the cache. Identical requests that arrive while the first one
+     * is still being calculated share that calculation. Only the numbers
+     * are shared: every requester still gets its own formatted result.
+     * <br>
+     * <br>When the snapshot is enabled, it already answers these requests
+     * from memory, and the result cache is skipped, so results are never
+     * older than the snapshot allows.
+     */
+    private <T> @NotNull T getCachedResult(StatRequest.Settings requestSettings, SingleFlight<T> flights, Supplier<T> calculation) {
+        String key = getResultKey(requestSettings);
+        if (statMatrix.isEnabled()) {
+            return flights.execute(key, calculation);
+        }
+        int rosterVersion = offlinePlayerHandler.getIncludedPlayerRoster().getVersion();
+
+        T cached = resultCache.get(key, rosterVersion);
+        if (cached != null) {
+            return cached;
+        }
+        return flights.execute(key, () -> {
+            T result = calculation.get();
+            resultCache.put(key, result, rosterVersion);
+            MyLogger.logHighLevelMsg("Result cache: " + resultCache.getStats());
+            return result;
+        });
+    }
+
+    /**
+     * Reads the stats files of offline players directly if this is enabled in the config,
+     * and the main world has a stats folder. Otherwise, all numbers come from the Bukkit API.
+     */
+    private @NotNull StatSource getStatSource() {
+        if (!config.getStatSource().trim().equalsIgnoreCase("stats-files")) {
+            return StatSource.BUKKIT;
+        }
+        List<World> worlds = Bukkit.getWorlds();
+        File statsDirectory = worlds.isEmpty() ? null : new File(worlds.get(0).getWorldFolder(), "stats");
+        if (statsDirectory == null || !statsDirectory.isDirectory()) {
+            MyLogger.logWarning("No stats folder found in the main world, using the Bukkit API for all statistics");
+            return StatSource.BUKKIT;
+        }
+        MyLogger.logMediumLevelMsg("Reading statistics of offline players from " + statsDirectory.getPath());
+        return new StatsFileSource(statsDirectory, statsFileIndex);
+    }
+
+    private @NotNull String getResultKey(StatRequest.Settings requestSettings) {
+        String key = requestSettings.getTarget() + ":" + StatKeyUtil.keyFor(requestSettings);
+        return switch (requestSettings.getTarget()) {
+            case PLAYER -> key + ":" + requestSettings.getPlayerName().toLowerCase(Locale.ROOT);
+            case SERVER -> key;
+            case TOP -> key + ":" + requestSettings.getTopListSize();
+        };
+    }
+
     private int getPlayerStat(@NotNull StatRequest.Settings requestSettings) {
         OfflinePlayer player;
         if (offlinePlayerHandler.isExcludedPlayer(requestSettings.getPlayerName()) &&
@@ -78,27 +185,21 @@ final class BukkitProcessor extends RequestProcessor {
         } else {
             player = offlinePlayerHandler.getIncludedOfflinePlayer(requestSettings.getPlayerName());
         }
-        return switch (requestSettings.getStatistic().getType()) {
-            case UNTYPED -> player.getStatistic(requestSettings.getStatistic());
-            case ENTITY -> player.getStatistic(requestSettings.getStatistic(), requestSettings.getEntity());
-            case BLOCK -> player.getStatistic(requestSettings.getStatistic(), requestSettings.getBlock());
-            case ITEM -> player.getStatistic(requestSettings.getStatistic(), requestSettings.getItem());
-        };
+        return statSource.getStatistic(player, requestSettings);
     }
 
     private long getServerStat(StatRequest.Settings requestSettings) {
-        List<Integer> numbers = getAllStatsAsync(requestSettings)
-                .values()
-                .parallelStream()
-                .toList();
-        return numbers.parallelStream().mapToLong(Integer::longValue).sum();
+        return statMatrix.getColumn(requestSettings).total();
     }
 
     private LinkedHashMap<String, Integer> getTopStats(StatRequest.Settings requestSettings) {
-        return getAllStatsAsync(requestSettings).entrySet().stream()
-                .sorted(Map.Entry.comparingByValue(Comparator.reverseOrder()))
-                .limit(requestSettings.getTopListSize())
-                .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue, (e1, e2) -> e1, LinkedHashMap::new));
+        if (statMatrix.isEnabled()) {
+            StatMatrix.Column column = statMatrix.getColumn(requestSettings);
+            return BoundedTopList.of(column.values(), requestSettings.getTopListSize())
+                    .toLinkedHashMap(column.roster());
+        }
+        PlayerRoster roster = offlinePlayerHandler.getIncludedPlayerRoster();
+        return getTopStatsAsync(requestSettings, roster).toLinkedHashMap(roster);
     }
 
     private TextComponent processFunction(CommandSender sender, FormattingFunction function) {
@@ -116,35 +217,60 @@ final class BukkitProcessor extends RequestProcessor {
     }
 
     /**
-     * Invokes a bunch of worker pool threads to get the statistics for all players that are stored in the
-     * {@link OfflinePlayerHandler}).
+     * Invokes a bunch of worker pool threads to get the statistics for all players in the {@link PlayerRoster}
+     * (which contains the players that are included by the {@link OfflinePlayerHandler}), ordered by their ordinal.
      */
-    private @NotNull ConcurrentHashMap<String, Integer> getAllStatsAsync(StatRequest.Settings requestSettings) {
+    private @NotNull StatMatrix.Column getAllStatsAsColumn(StatRequest.Settings requestSettings, PlayerRoster roster, @Nullable StatMatrix.Column previous) {
+        if (previous != null) {
+            return extendColumn(requestSettings, roster, previous);
+        }
         long time = System.currentTimeMillis();
+        int[] values = new int[roster.size()];
+        long total = invokeStatAction(ThreadManager.getStatAction(requestSettings, statSource, roster, values), 0L, ThreadManager.Lane.INTERACTIVE);
+        return new StatMatrix.Column(roster, values, total, time);
+    }
 
-        ForkJoinPool commonPool = ForkJoinPool.commonPool();
-        ConcurrentHashMap<String, Integer> allStats;
+    /**
+     * Copies the numbers from a column that was calculated for an earlier roster in the same epoch,
+     * and only gets the statistics for the players that were added since. The new column keeps
+     * the calculation time of the previous one, so it still expires when the previous one would have.
+     */
+    private @NotNull StatMatrix.Column extendColumn(StatRequest.Settings requestSettings, PlayerRoster roster, @NotNull StatMatrix.Column previous) {
+        int fromOrdinal = previous.values().length;
+        int[] values = Arrays.copyOf(previous.values(), roster.size());
+        long added = invokeStatAction(ThreadManager.getStatAction(requestSettings, statSource, roster, values, fromOrdinal), 0L, ThreadManager.Lane.INTERACTIVE);
+        return new StatMatrix.Column(roster, values, previous.total() + added, previous.calculatedAt());
+    }
+
+    /**
+     * Invokes a bunch of worker pool threads to get the highest statistics for the players in the
+     * {@link PlayerRoster}, without keeping the numbers for everyone else.
+     */
+    private @NotNull BoundedTopList getTopStatsAsync(StatRequest.Settings requestSettings, PlayerRoster roster) {
+        return invokeStatAction(ThreadManager.getTopStatAction(requestSettings, statSource, roster), new BoundedTopList(0), ThreadManager.Lane.INTERACTIVE);
+    }
+
+    private <T> @NotNull T invokeStatAction(ForkJoinTask<T> statAction, T resultOnShutdown, ThreadManager.Lane lane) {
+        long time = System.currentTimeMillis();
+
+        ForkJoinPool pool = ThreadManager.getPool(lane);
+        T result;
 
         try {
-            allStats = commonPool.invoke(ThreadManager.getStatAction(requestSettings));
+            result = pool.invoke(statAction);
         } catch (Exception e) {
             if (Main.isShuttingDown()) {
-                return new ConcurrentHashMap<>();
-            }
-            MyLogger.logWarning("The requestSettings could not be executed due to an exception: " + e.getMessage() +
-                    ". This likely happened because Bukkit hasn't fully initialized all player-data yet, or during shutdown. " +
-                    "Try again and it should be fine!");
-            if (e instanceof ConcurrentModificationException) {
-                throw new ConcurrentModificationException(e.toString());
-            } else {
-                throw e;
+                return resultOnShutdown;
             }
+            MyLogger.logWarning("The requestSettings could not be executed due to an exception: " + e.getMessage());
+            throw e;
         }
 
         MyLogger.actionFinished();
         ThreadManager.recordCalcTime(System.currentTimeMillis() - time);
         MyLogger.logMediumLevelTask("Calculated all stats", time);
+        ThreadManager.getPoolStats().forEach(stats -> MyLogger.logHighLevelMsg(stats.toString()));
 
-        return allStats;
+        return result;
     }
 }
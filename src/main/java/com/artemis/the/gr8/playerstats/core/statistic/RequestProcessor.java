@@ -1,5 +1,7 @@
 package com.artemis.the.gr8.playerstats.core.statistic;
 
+import com.artemis.the.gr8.playerstats.api.BatchStatRequest;
+import com.artemis.the.gr8.playerstats.api.BatchStatResult;
 import com.artemis.the.gr8.playerstats.api.StatRequest;
 import com.artemis.the.gr8.playerstats.api.StatResult;
 import org.jetbrains.annotations.NotNull;
@@ -13,4 +15,8 @@ public abstract class RequestProcessor {
     abstract @NotNull StatResult<Long> processServerRequest(StatRequest<?> serverStatRequest);
 
     abstract @NotNull StatResult<LinkedHashMap<String, Integer>> processTopRequest(StatRequest<?> topStatRequest);
+
+    abstract @NotNull BatchStatResult processBatchRequest(BatchStatRequest batchStatRequest);
+
+    abstract boolean hasCachedResult(StatRequest<?> statRequest);
 }
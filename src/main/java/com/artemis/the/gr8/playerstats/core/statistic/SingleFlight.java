@@ -0,0 +1,68 @@
+package com.artemis.the.gr8.playerstats.core.statistic;
+
+import com.artemis.the.gr8.playerstats.core.utils.MyLogger;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Makes sure a calculation only runs once at a time for the same key.
+ * If a calculation for a key is already running, other threads that ask
+ * for the same key wait for that calculation and get the same result,
+ * instead of starting another one.
+ *
+ * @param <V> the type of the result
+ */
+final class SingleFlight<V> {
+
+    private final ConcurrentHashMap<String, CompletableFuture<V>> inFlight;
+
+    SingleFlight() {
+        inFlight = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Runs the calculation for this key, or waits for the result
+     * if the same calculation is already running on another thread.
+     *
+     * @param key identifies the calculation
+     * @param calculation the calculation to run if none is running yet
+     * @return the result of the calculation
+     */
+    V execute(@NotNull String key, @NotNull Supplier<V> calculation) {
+        CompletableFuture<V> future = new CompletableFuture<>();
+        CompletableFuture<V> running = inFlight.putIfAbsent(key, future);
+        if (running != null) {
+            MyLogger.logHighLevelMsg("Waiting for running calculation of " + key);
+            return await(running);
+        }
+
+        try {
+            V result = calculation.get();
+            future.complete(result);
+            return result;
+        } catch (RuntimeException | Error e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, future);
+        }
+    }
+
+    private V await(CompletableFuture<V> running) {
+        try {
+            return running.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            if (e.getCause() instanceof Error error) {
+                throw error;
+            }
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,239 @@
+package com.artemis.the.gr8.playerstats.core.statistic;
+
+import com.artemis.the.gr8.playerstats.api.StatRequest;
+import com.artemis.the.gr8.playerstats.core.Main;
+import com.artemis.the.gr8.playerstats.core.config.ConfigHandler;
+import com.artemis.the.gr8.playerstats.core.db.StatKeyUtil;
+import com.artemis.the.gr8.playerstats.core.utils.MyLogger;
+import com.artemis.the.gr8.playerstats.core.utils.OfflinePlayerHandler;
+import com.artemis.the.gr8.playerstats.core.utils.PlayerRoster;
+import org.bukkit.Bukkit;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps the statistic numbers of all included players in memory. For every
+ * statistic key (see {@link StatKeyUtil#keyFor(StatRequest.Settings)}) a
+ * primitive column is stored, indexed by the players' ordinal in the
+ * {@link PlayerRoster} it was calculated for. Top- and server-statistics
+ * can be answered from these columns without looking up every player again.
+ * <br>
+ * <br>A column can be used until it is older than the configured max-age,
+ * or until the included players change. With the background refresh policy,
+ * a column that is older is used one more time, as long as it is not older
+ * than twice the max-age. If players were only added or
+ * renamed (the roster is still in the same epoch), the column is extended
+ * with the numbers for the new players instead of being calculated again.
+ * The least recently used columns are dropped when the configured maximum
+ * number of statistics is reached.
+ */
+final class StatMatrix {
+
+    enum RefreshPolicy {
+        /** Columns that are too old are calculated again before they are used. */
+        ON_DEMAND,
+        /** Columns that are too old, but not older than twice the max-age, are used one more time, while they are calculated again in the background. */
+        BACKGROUND;
+
+        static RefreshPolicy fromConfig(String value) {
+            if (value != null && value.trim().toLowerCase(Locale.ROOT).equals("background")) {
+                return BACKGROUND;
+            }
+            return ON_DEMAND;
+        }
+    }
+
+    /**
+     * The numbers for one statistic.
+     *
+     * @param roster the roster whose ordinals index <code>values</code>
+     * @param values the statistic number for every player in the roster
+     * @param total the sum of all values
+     * @param calculatedAt the time this column was calculated
+     */
+    record Column(PlayerRoster roster, int[] values, long total, long calculatedAt) {
+
+        boolean isOlderThan(long maxAgeMillis) {
+            return System.currentTimeMillis() - calculatedAt > maxAgeMillis;
+        }
+    }
+
+    /**
+     * Calculates the column for all players in a roster.
+     */
+    @FunctionalInterface
+    interface ColumnLoader {
+
+        /**
+         * @param requestSettings a validated requestSettings object
+         * @param roster the roster to calculate the column for
+         * @param previous a column for an earlier roster in the same epoch,
+         *                 which only needs to be extended with the players
+         *                 that were added since, or null to calculate
+         *                 the whole column
+         * @return the Column
+         */
+        @NotNull Column load(StatRequest.Settings requestSettings, PlayerRoster roster, @Nullable Column previous);
+    }
+
+    private final boolean enabled;
+    private final long maxAgeMillis;
+    private final int maxSize;
+    private final RefreshPolicy refreshPolicy;
+    private final ColumnLoader columnLoader;
+
+    private final LinkedHashMap<String, Column> columns;
+    private final Set<String> refreshingKeys;
+    private final SingleFlight<Column> columnLoads;
+
+    /**
+     * @param config the ConfigHandler to get the snapshot settings from
+     * @param columnLoader the function that calculates the column for all
+     *                     players in the given roster
+     */
+    StatMatrix(ConfigHandler config, ColumnLoader columnLoader) {
+        this.enabled = config.useStatSnapshot();
+        this.maxAgeMillis = Math.max(0, config.getStatSnapshotMaxAge()) * 1000L;
+        this.maxSize = Math.max(1, config.getStatSnapshotMaxSize());
+        this.refreshPolicy = RefreshPolicy.fromConfig(config.getStatSnapshotRefreshPolicy());
+        this.columnLoader = columnLoader;
+
+        columns = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Column> eldest) {
+                return size() > maxSize;
+            }
+        };
+        refreshingKeys = new HashSet<>();
+        columnLoads = new SingleFlight<>();
+    }
+
+    /**
+     * @return whether columns are kept in memory after they have been calculated
+     */
+    boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Gets the column for the statistic in these requestSettings,
+     * and calculates it first if there is no usable column yet.
+     *
+     * @param requestSettings a validated requestSettings object
+     * @return the Column
+     */
+    @NotNull Column getColumn(StatRequest.Settings requestSettings) {
+        PlayerRoster roster = OfflinePlayerHandler.getInstance().getIncludedPlayerRoster();
+        if (!enabled) {
+            return columnLoader.load(requestSettings, roster, null);
+        }
+
+        String key = StatKeyUtil.keyFor(requestSettings);
+        Column cached;
+        synchronized (columns) {
+            cached = columns.get(key);
+        }
+        if (cached != null && cached.roster().getVersion() == roster.getVersion()) {
+            if (!cached.isOlderThan(maxAgeMillis)) {
+                MyLogger.logHighLevelMsg("Using snapshot for " + key);
+                return cached;
+            }
+            if (refreshPolicy == RefreshPolicy.BACKGROUND && !cached.isOlderThan(2 * maxAgeMillis)) {
+                refreshInBackground(key, requestSettings, roster);
+                return cached;
+            }
+        }
+        else if (cached != null && canBeExtended(cached, roster)) {
+            MyLogger.logHighLevelMsg("Extending snapshot for " + key);
+            return loadAndStore(key, requestSettings, roster, cached);
+        }
+
+        return loadAndStore(key, requestSettings, roster, null);
+    }
+
+    /**
+     * @param requestSettings a validated requestSettings object
+     * @return whether {@link #getColumn} can answer these requestSettings
+     * without calculating anything
+     */
+    boolean hasUsableColumn(StatRequest.Settings requestSettings) {
+        if (!enabled) {
+            return false;
+        }
+        PlayerRoster roster = OfflinePlayerHandler.getInstance().getIncludedPlayerRoster();
+        Column cached;
+        synchronized (columns) {
+            cached = columns.get(StatKeyUtil.keyFor(requestSettings));
+        }
+        long maxAge = refreshPolicy == RefreshPolicy.BACKGROUND ? 2 * maxAgeMillis : maxAgeMillis;
+        return cached != null && cached.roster().getVersion() == roster.getVersion() && !cached.isOlderThan(maxAge);
+    }
+
+    /**
+     * Removes all columns from the snapshot.
+     */
+    void clear() {
+        synchronized (columns) {
+            columns.clear();
+        }
+    }
+
+    /**
+     * A column can be extended if its roster is an earlier roster from the same epoch
+     * (so all its players still have the same ordinal), and it hasn't expired yet.
+     */
+    private boolean canBeExtended(Column column, PlayerRoster roster) {
+        PlayerRoster columnRoster = column.roster();
+        return columnRoster.getEpoch() == roster.getEpoch() &&
+                columnRoster.getVersion() < roster.getVersion() &&
+                columnRoster.size() <= roster.size() &&
+                !column.isOlderThan(maxAgeMillis);
+    }
+
+    private void refreshInBackground(String key, StatRequest.Settings requestSettings, PlayerRoster roster) {
+        synchronized (columns) {
+            if (!refreshingKeys.add(key)) {
+                return;
+            }
+        }
+        Bukkit.getScheduler().runTaskAsynchronously(Main.getPluginInstance(), () -> {
+            try {
+                loadAndStore(key, requestSettings, roster, null);
+            } catch (Exception e) {
+                MyLogger.logException(e, "StatMatrix", "refreshInBackground() for " + key);
+            } finally {
+                synchronized (columns) {
+                    refreshingKeys.remove(key);
+                }
+            }
+        });
+    }
+
+    /**
+     * Loads the column (or extends the previous one) and stores it in the snapshot.
+     * If the same column is already being loaded for this roster, this waits
+     * for that load instead of starting another one.
+     */
+    private @NotNull Column loadAndStore(String key, StatRequest.Settings requestSettings, PlayerRoster roster, @Nullable Column previous) {
+        return columnLoads.execute(key + "@" + roster.getVersion(), () -> {
+            Column column = columnLoader.load(requestSettings, roster, previous);
+            store(key, column);
+            return column;
+        });
+    }
+
+    private void store(String key, Column column) {
+        synchronized (columns) {
+            Column present = columns.get(key);
+            if (present == null || present.calculatedAt() <= column.calculatedAt()) {
+                columns.put(key, column);
+            }
+        }
+    }
+}
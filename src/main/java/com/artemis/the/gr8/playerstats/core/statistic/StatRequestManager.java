@@ -1,41 +1,86 @@
 package com.artemis.the.gr8.playerstats.core.statistic;
 
+import com.artemis.the.gr8.playerstats.api.BatchStatRequest;
+import com.artemis.the.gr8.playerstats.api.BatchStatResult;
 import com.artemis.the.gr8.playerstats.api.RequestGenerator;
 import com.artemis.the.gr8.playerstats.api.StatManager;
 import com.artemis.the.gr8.playerstats.api.StatRequest;
 import com.artemis.the.gr8.playerstats.api.StatResult;
 import com.artemis.the.gr8.playerstats.core.Main;
+import com.artemis.the.gr8.playerstats.core.config.ConfigHandler;
 import com.artemis.the.gr8.playerstats.core.msg.OutputManager;
+import com.artemis.the.gr8.playerstats.core.multithreading.ThreadManager;
+import com.artemis.the.gr8.playerstats.core.utils.Closable;
 import com.artemis.the.gr8.playerstats.core.utils.OfflinePlayerHandler;
 import com.artemis.the.gr8.playerstats.core.utils.Reloadable;
+import org.bukkit.Bukkit;
 import org.jetbrains.annotations.Contract;
 import org.jetbrains.annotations.NotNull;
 
+import java.io.File;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Turns user input into a {@link StatRequest} that can be
  * executed to get statistic data.
  */
-public final class StatRequestManager implements StatManager, Reloadable {
+public final class StatRequestManager implements StatManager, Reloadable, Closable {
 
     private static RequestProcessor processor;
+    private static StatResultCache resultCache;
+    private static StatsFileIndex statsFileIndex;
     private final OfflinePlayerHandler offlinePlayerHandler;
 
     public StatRequestManager() {
         offlinePlayerHandler = OfflinePlayerHandler.getInstance();
+        resultCache = new StatResultCache(ConfigHandler.getInstance());
+        statsFileIndex = new StatsFileIndex(new File(Main.getPluginInstance().getDataFolder(), "stats-file-index.bin"));
         processor = getProcessor();
         Main.registerReloadable(this);
+        Main.registerClosable(this);
     }
 
     @Override
     public void reload() {
+        resultCache.reload(ConfigHandler.getInstance());
+        statsFileIndex.save();
         processor = getProcessor();
     }
 
+    @Override
+    public void close() {
+        statsFileIndex.save();
+    }
+
     private @NotNull RequestProcessor getProcessor() {
         OutputManager outputManager = OutputManager.getInstance();
-        return new BukkitProcessor(outputManager);
+        return new BukkitProcessor(outputManager, resultCache, statsFileIndex);
+    }
+
+    /**
+     * @return the hit- and miss-counters of the cache for top- and server-results
+     */
+    public static @NotNull StatResultCache.Stats getResultCacheStats() {
+        return resultCache.getStats();
+    }
+
+    /**
+     * @return true if this request can be answered from the result cache
+     * without calculating anything
+     */
+    public static boolean hasCachedResult(@NotNull StatRequest<?> request) {
+        return processor.hasCachedResult(request);
+    }
+
+    /**
+     * Waits until the players have been loaded for the first time,
+     * unless this is the main thread, which should never be blocked.
+     */
+    private void awaitPlayersReady() {
+        if (!Bukkit.isPrimaryThread()) {
+            offlinePlayerHandler.awaitReady();
+        }
     }
 
     public static StatResult<?> execute(@NotNull StatRequest<?> request) {
@@ -48,7 +93,7 @@ public final class StatRequestManager implements StatManager, Reloadable {
 
     @Override
     public boolean isExcludedPlayer(String playerName) {
-        return offlinePlayerHandler.isExcludedPlayer(playerName);
+        return offlinePlayerHandler.isExcludedPlayerIgnoreCase(playerName);
     }
 
     @Contract("_ -> new")
@@ -59,9 +104,16 @@ public final class StatRequestManager implements StatManager, Reloadable {
 
     @Override
     public @NotNull StatResult<Integer> executePlayerStatRequest(@NotNull StatRequest<Integer> request) {
+        awaitPlayersReady();
         return processor.processPlayerRequest(request);
     }
 
+    @Override
+    public @NotNull CompletableFuture<StatResult<Integer>> executePlayerStatRequestAsync(@NotNull StatRequest<Integer> request) {
+        return offlinePlayerHandler.whenReady()
+                .thenCompose(ready -> ThreadManager.supplyAsync(() -> processor.processPlayerRequest(request)));
+    }
+
     @Contract(" -> new")
     @Override
     public @NotNull RequestGenerator<Long> createServerStatRequest() {
@@ -70,9 +122,16 @@ public final class StatRequestManager implements StatManager, Reloadable {
 
     @Override
     public @NotNull StatResult<Long> executeServerStatRequest(@NotNull StatRequest<Long> request) {
+        awaitPlayersReady();
         return processor.processServerRequest(request);
     }
 
+    @Override
+    public @NotNull CompletableFuture<StatResult<Long>> executeServerStatRequestAsync(@NotNull StatRequest<Long> request) {
+        return offlinePlayerHandler.whenReady()
+                .thenCompose(ready -> ThreadManager.supplyAsync(() -> processor.processServerRequest(request)));
+    }
+
     @Contract("_ -> new")
     @Override
     public @NotNull RequestGenerator<LinkedHashMap<String, Integer>> createTopStatRequest(int topListSize) {
@@ -87,6 +146,31 @@ public final class StatRequestManager implements StatManager, Reloadable {
 
     @Override
     public @NotNull StatResult<LinkedHashMap<String, Integer>> executeTopRequest(@NotNull StatRequest<LinkedHashMap<String, Integer>> request) {
+        awaitPlayersReady();
         return processor.processTopRequest(request);
     }
+
+    @Override
+    public @NotNull CompletableFuture<StatResult<LinkedHashMap<String, Integer>>> executeTopRequestAsync(@NotNull StatRequest<LinkedHashMap<String, Integer>> request) {
+        return offlinePlayerHandler.whenReady()
+                .thenCompose(ready -> ThreadManager.supplyAsync(() -> processor.processTopRequest(request)));
+    }
+
+    @Contract("_ -> new")
+    @Override
+    public @NotNull BatchStatRequest createBatchStatRequest(int topListSize) {
+        return new BatchTopStatRequest(topListSize);
+    }
+
+    @Override
+    public @NotNull BatchStatResult executeBatchStatRequest(@NotNull BatchStatRequest request) {
+        awaitPlayersReady();
+        return processor.processBatchRequest(request);
+    }
+
+    @Override
+    public @NotNull CompletableFuture<BatchStatResult> executeBatchStatRequestAsync(@NotNull BatchStatRequest request) {
+        return offlinePlayerHandler.whenReady()
+                .thenCompose(ready -> ThreadManager.supplyAsync(() -> processor.processBatchRequest(request)));
+    }
 }
\ No newline at end of file
@@ -0,0 +1,146 @@
+package com.artemis.the.gr8.playerstats.core.statistic;
+
+import com.artemis.the.gr8.playerstats.core.config.ConfigHandler;
+import com.artemis.the.gr8.playerstats.core.utils.MyLogger;
+import com.artemis.the.gr8.playerstats.core.utils.PlayerRoster;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the results of top- and server-statistic lookups for a configurable
+ * amount of time, so the same lookup doesn't have to be calculated again
+ * right after. Results are stored together with the version of the
+ * {@link PlayerRoster} they were calculated for, and are no longer used
+ * once players have been excluded, included or reloaded. When the cache
+ * is full, the least recently used result is dropped.
+ */
+public final class StatResultCache {
+
+    /**
+     * @param hits the number of lookups that were answered from the cache
+     * @param misses the number of lookups that had to be calculated
+     * @param evictions the number of results that were dropped because the cache was full
+     * @param size the number of results that are currently stored
+     */
+    public record Stats(long hits, long misses, long evictions, int size) {
+    }
+
+    private record Entry(Object value, int rosterVersion, long storedAt) {
+    }
+
+    private final LinkedHashMap<String, Entry> entries;
+    private final AtomicLong hits;
+    private final AtomicLong misses;
+    private final AtomicLong evictions;
+
+    private volatile boolean enabled;
+    private volatile long ttlMillis;
+    private volatile int maxSize;
+
+    StatResultCache(ConfigHandler config) {
+        entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                if (size() > maxSize) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+        hits = new AtomicLong();
+        misses = new AtomicLong();
+        evictions = new AtomicLong();
+        configure(config);
+    }
+
+    /**
+     * Reads the cache settings again, and removes all stored results.
+     */
+    void reload(ConfigHandler config) {
+        configure(config);
+        invalidateAll();
+    }
+
+    /**
+     * Gets the stored result for this key, if it was calculated for this
+     * roster version and hasn't expired yet.
+     *
+     * @param key the key of the lookup, which includes its target
+     * @param rosterVersion the current version of the included players
+     * @return the result, or null if there is no usable result
+     */
+    @SuppressWarnings("unchecked")
+    <T> @Nullable T get(@NotNull String key, int rosterVersion) {
+        if (!enabled) {
+            return null;
+        }
+        Entry entry = getUsableEntry(key, rosterVersion);
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        MyLogger.logHighLevelMsg("Using cached result for " + key);
+        return (T) entry.value();
+    }
+
+    /**
+     * @return true if a result for this key can be used right now
+     * (this does not count as a hit or miss)
+     */
+    boolean contains(@NotNull String key, int rosterVersion) {
+        return enabled && getUsableEntry(key, rosterVersion) != null;
+    }
+
+    void put(@NotNull String key, @NotNull Object value, int rosterVersion) {
+        if (!enabled) {
+            return;
+        }
+        synchronized (entries) {
+            entries.put(key, new Entry(value, rosterVersion, System.currentTimeMillis()));
+        }
+    }
+
+    /**
+     * Removes all stored results.
+     */
+    public void invalidateAll() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    public @NotNull Stats getStats() {
+        int size;
+        synchronized (entries) {
+            size = entries.size();
+        }
+        return new Stats(hits.get(), misses.get(), evictions.get(), size);
+    }
+
+    private @Nullable Entry getUsableEntry(String key, int rosterVersion) {
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            if (entry == null) {
+                return null;
+            }
+            if (entry.rosterVersion() != rosterVersion ||
+                    System.currentTimeMillis() - entry.storedAt() > ttlMillis) {
+                entries.remove(key);
+                return null;
+            }
+            return entry;
+        }
+    }
+
+    private void configure(ConfigHandler config) {
+        enabled = config.useResultCache();
+        ttlMillis = Math.max(0, config.getResultCacheTTL()) * 1000L;
+        maxSize = Math.max(1, config.getResultCacheMaxSize());
+    }
+}
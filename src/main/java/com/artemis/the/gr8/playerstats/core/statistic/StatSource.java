@@ -0,0 +1,47 @@
+package com.artemis.the.gr8.playerstats.core.statistic;
+
+import com.artemis.the.gr8.playerstats.api.StatRequest;
+import org.bukkit.OfflinePlayer;
+
+/**
+ * Where the statistic numbers of players are read from.
+ */
+@FunctionalInterface
+public interface StatSource {
+
+    /**
+     * Reads the numbers through the Bukkit API. For offline players,
+     * the server loads the player's stats file again on every call.
+     */
+    StatSource BUKKIT = (player, requestSettings) -> switch (requestSettings.getStatistic().getType()) {
+        case UNTYPED -> player.getStatistic(requestSettings.getStatistic());
+        case ENTITY -> player.getStatistic(requestSettings.getStatistic(), requestSettings.getEntity());
+        case BLOCK -> player.getStatistic(requestSettings.getStatistic(), requestSettings.getBlock());
+        case ITEM -> player.getStatistic(requestSettings.getStatistic(), requestSettings.getItem());
+    };
+
+    /**
+     * Gets the number for the statistic in these requestSettings for this player.
+     *
+     * @param player the player to get the number for
+     * @param requestSettings a validated requestSettings object
+     * @return the number
+     */
+    int getStatistic(OfflinePlayer player, StatRequest.Settings requestSettings);
+
+    /**
+     * Gets the numbers for several statistics for this player at once,
+     * and puts them in <code>values</code> in the same order as the settings.
+     * Sources that read a whole file per player override this
+     * to only read the file once.
+     *
+     * @param player the player to get the numbers for
+     * @param requestSettings validated requestSettings objects
+     * @param values the array to put the numbers in, with the same length as requestSettings
+     */
+    default void getStatistics(OfflinePlayer player, StatRequest.Settings[] requestSettings, int[] values) {
+        for (int i = 0; i < requestSettings.length; i++) {
+            values[i] = getStatistic(player, requestSettings[i]);
+        }
+    }
+}
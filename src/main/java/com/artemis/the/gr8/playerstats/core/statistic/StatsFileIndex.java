@@ -0,0 +1,302 @@
+package com.artemis.the.gr8.playerstats.core.statistic;
+
+import com.artemis.the.gr8.playerstats.core.utils.MyLogger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Remembers the numbers that were read from every stats file, together with
+ * the size and modification time the file had when it was read. As long as
+ * a file still has the same size and modification time, its numbers are
+ * taken from here instead of parsing the file again, so a refresh only
+ * parses the files of players that have played since.
+ * <br>
+ * <br>Only statistics that were requested on their own are kept, in two
+ * small sorted arrays per player, and at most {@link #MAX_KEYS_PER_ENTRY}
+ * of them: the ones that were requested most recently. The index is written
+ * to the plugin's data folder when the plugin is reloaded or disabled, and
+ * read again the first time it is used after a restart.
+ */
+final class StatsFileIndex {
+
+    private static final int MAGIC = 0x50535449;
+    private static final int FORMAT_VERSION = 1;
+    static final int MAX_KEYS_PER_ENTRY = 32;
+
+    /**
+     * The numbers that were read from one stats file.
+     *
+     * @param size the size of the file when it was read
+     * @param lastModified the modification time of the file when it was read
+     * @param keyCodes the codes of the statistics that were read, in ascending order
+     * @param values the number for every code in keyCodes
+     */
+    record Entry(long size, long lastModified, int[] keyCodes, int[] values) {
+
+        boolean isCurrent(long size, long lastModified) {
+            return this.size == size && this.lastModified == lastModified;
+        }
+
+        /**
+         * Puts the number for every code in <code>codes</code> into <code>target</code>.
+         *
+         * @return false if this entry doesn't have a number for all codes
+         */
+        boolean getValues(int[] codes, int[] target) {
+            for (int i = 0; i < codes.length; i++) {
+                int index = Arrays.binarySearch(keyCodes, codes[i]);
+                if (index < 0) {
+                    return false;
+                }
+                target[i] = values[index];
+            }
+            return true;
+        }
+
+        /**
+         * @param codes codes in ascending order, that this entry has a number for
+         * @return an entry with the numbers for only these codes
+         */
+        Entry only(int[] codes) {
+            int[] selected = new int[codes.length];
+            getValues(codes, selected);
+            return new Entry(size, lastModified, codes, selected);
+        }
+    }
+
+    private final File indexFile;
+    private final ConcurrentHashMap<VanillaStatKey, Integer> keyCodes;
+    private final ArrayList<VanillaStatKey> keys;
+    private final ConcurrentHashMap<UUID, Entry> entries;
+    private final ConcurrentHashMap<Integer, Long> lastRequested;
+    private final AtomicLong requestClock;
+
+    private volatile Path statsDirectory;
+    private volatile boolean changed;
+
+    /**
+     * @param indexFile the file in the plugin's data folder the index is stored in
+     */
+    StatsFileIndex(@NotNull File indexFile) {
+        this.indexFile = indexFile;
+        keyCodes = new ConcurrentHashMap<>();
+        keys = new ArrayList<>();
+        entries = new ConcurrentHashMap<>();
+        lastRequested = new ConcurrentHashMap<>();
+        requestClock = new AtomicLong();
+    }
+
+    /**
+     * Makes sure the index holds the numbers for the files in this folder.
+     * The first time this is called, the stored index is read from disk.
+     * If the folder is not the one the index was made for, the index starts over.
+     */
+    void open(@NotNull Path statsDirectory) {
+        if (statsDirectory.equals(this.statsDirectory)) {
+            return;
+        }
+        synchronized (this) {
+            if (statsDirectory.equals(this.statsDirectory)) {
+                return;
+            }
+            clear();
+            load(statsDirectory);
+            this.statsDirectory = statsDirectory;
+        }
+    }
+
+    /**
+     * @return the code for this statistic, which stays the same
+     * for as long as the index exists
+     */
+    int getKeyCode(@NotNull VanillaStatKey key) {
+        Integer code = keyCodes.get(key);
+        if (code != null) {
+            return code;
+        }
+        synchronized (keys) {
+            return keyCodes.computeIfAbsent(key, k -> {
+                keys.add(k);
+                return keys.size() - 1;
+            });
+        }
+    }
+
+    @NotNull VanillaStatKey getKey(int keyCode) {
+        synchronized (keys) {
+            return keys.get(keyCode);
+        }
+    }
+
+    /**
+     * Decides which statistics a player's entry should keep, after these codes
+     * were requested on their own: the requested codes, and then the codes
+     * the entry already had that were requested most recently, up to
+     * {@link #MAX_KEYS_PER_ENTRY}.
+     *
+     * @return the codes to keep, in ascending order
+     */
+    int[] codesToKeep(int[] requestedCodes, int[] previousCodes) {
+        touch(requestedCodes);
+        LinkedHashSet<Integer> kept = new LinkedHashSet<>();
+        for (int code : requestedCodes) {
+            kept.add(code);
+        }
+        Arrays.stream(previousCodes).boxed()
+                .filter(code -> !kept.contains(code))
+                .sorted(Comparator.comparingLong((Integer code) -> lastRequested.getOrDefault(code, 0L)).reversed())
+                .forEachOrdered(kept::add);
+        return kept.stream().limit(MAX_KEYS_PER_ENTRY).mapToInt(Integer::intValue).sorted().toArray();
+    }
+
+    /**
+     * Remembers that these statistics were requested on their own just now.
+     */
+    void touch(int[] codes) {
+        long now = requestClock.incrementAndGet();
+        for (int code : codes) {
+            lastRequested.put(code, now);
+        }
+    }
+
+    @Nullable Entry get(@NotNull UUID uniqueID) {
+        return entries.get(uniqueID);
+    }
+
+    void put(@NotNull UUID uniqueID, @NotNull Entry entry) {
+        entries.put(uniqueID, entry);
+        changed = true;
+    }
+
+    void remove(@NotNull UUID uniqueID) {
+        if (entries.remove(uniqueID) != null) {
+            changed = true;
+        }
+    }
+
+    /**
+     * Writes the index to disk, if anything changed since it was read or last written.
+     */
+    synchronized void save() {
+        if (statsDirectory == null || !changed) {
+            return;
+        }
+        changed = false;
+        long time = System.currentTimeMillis();
+        File tempFile = new File(indexFile.getPath() + ".tmp");
+        try {
+            Files.createDirectories(indexFile.getParentFile().toPath());
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+                write(out);
+            }
+            Files.move(tempFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            MyLogger.logMediumLevelMsg("Saved stats-file index with " + entries.size() + " players (" +
+                    (System.currentTimeMillis() - time) + "ms)");
+        } catch (IOException e) {
+            changed = true;
+            MyLogger.logWarning("Could not save stats-file index: " + e.getMessage());
+        }
+    }
+
+    private void write(DataOutputStream out) throws IOException {
+        List<VanillaStatKey> keysToWrite;
+        synchronized (keys) {
+            keysToWrite = new ArrayList<>(keys);
+        }
+        List<Map.Entry<UUID, Entry>> entriesToWrite = new ArrayList<>(entries.entrySet());
+
+        // Only the keys that entries use are written, numbered by their position in the file.
+        // Numbering them in ascending order keeps the codes of every entry sorted.
+        TreeSet<Integer> usedCodes = new TreeSet<>();
+        for (Map.Entry<UUID, Entry> player : entriesToWrite) {
+            for (int code : player.getValue().keyCodes()) {
+                usedCodes.add(code);
+            }
+        }
+        HashMap<Integer, Integer> fileCodes = new HashMap<>();
+        for (int code : usedCodes) {
+            fileCodes.put(code, fileCodes.size());
+        }
+
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT_VERSION);
+        out.writeUTF(statsDirectory.toAbsolutePath().toString());
+        out.writeInt(usedCodes.size());
+        for (int code : usedCodes) {
+            VanillaStatKey key = keysToWrite.get(code);
+            out.writeUTF(key.category());
+            out.writeUTF(key.id());
+        }
+        out.writeInt(entriesToWrite.size());
+        for (Map.Entry<UUID, Entry> player : entriesToWrite) {
+            Entry entry = player.getValue();
+            out.writeLong(player.getKey().getMostSignificantBits());
+            out.writeLong(player.getKey().getLeastSignificantBits());
+            out.writeLong(entry.size());
+            out.writeLong(entry.lastModified());
+            out.writeInt(entry.keyCodes().length);
+            for (int i = 0; i < entry.keyCodes().length; i++) {
+                out.writeInt(fileCodes.get(entry.keyCodes()[i]));
+                out.writeInt(entry.values()[i]);
+            }
+        }
+    }
+
+    private void load(Path statsDirectory) {
+        if (!indexFile.isFile()) {
+            return;
+        }
+        long time = System.currentTimeMillis();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION ||
+                    !in.readUTF().equals(statsDirectory.toAbsolutePath().toString())) {
+                MyLogger.logLowLevelMsg("Stats-file index is outdated, all stats files will be read again");
+                return;
+            }
+            int keyCount = in.readInt();
+            for (int i = 0; i < keyCount; i++) {
+                getKeyCode(new VanillaStatKey(in.readUTF(), in.readUTF()));
+            }
+            int entryCount = in.readInt();
+            for (int i = 0; i < entryCount; i++) {
+                UUID uniqueID = new UUID(in.readLong(), in.readLong());
+                long size = in.readLong();
+                long lastModified = in.readLong();
+                int length = in.readInt();
+                if (length < 0 || length > MAX_KEYS_PER_ENTRY) {
+                    throw new IOException("Entry with " + length + " statistics");
+                }
+                int[] codes = new int[length];
+                int[] values = new int[length];
+                for (int j = 0; j < length; j++) {
+                    codes[j] = in.readInt();
+                    values[j] = in.readInt();
+                }
+                entries.put(uniqueID, new Entry(size, lastModified, codes, values));
+            }
+            MyLogger.logMediumLevelMsg("Loaded stats-file index with " + entryCount + " players (" +
+                    (System.currentTimeMillis() - time) + "ms)");
+        } catch (IOException | RuntimeException e) {
+            MyLogger.logWarning("Could not read stats-file index, all stats files will be read again: " + e.getMessage());
+            clear();
+        }
+    }
+
+    private void clear() {
+        synchronized (keys) {
+            keys.clear();
+            keyCodes.clear();
+        }
+        entries.clear();
+        lastRequested.clear();
+        changed = false;
+    }
+}
@@ -0,0 +1,183 @@
+package com.artemis.the.gr8.playerstats.core.statistic;
+
+import com.artemis.the.gr8.playerstats.api.StatRequest;
+import com.artemis.the.gr8.playerstats.core.utils.MyLogger;
+import com.google.gson.stream.JsonReader;
+import org.bukkit.OfflinePlayer;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.UUID;
+import java.util.stream.IntStream;
+
+/**
+ * Reads the numbers of offline players directly from their vanilla stats
+ * file (world/stats/&lt;uuid&gt;.json), with a streaming JSON parser that
+ * skips every category and statistic that wasn't asked for. Nothing is
+ * shared between calls, so the workers of a stat action can read files
+ * in parallel. Online players are always read through the Bukkit API,
+ * because their file is only updated when the server saves.
+ * <br>
+ * <br>Numbers that were read before are kept in a {@link StatsFileIndex},
+ * and a file is only parsed again if its size or modification time changed.
+ * <br>
+ * <br>Players without a stats file have no statistics yet, and get 0.
+ * If a file can't be read, or is still in the pre-1.13 format, or a statistic
+ * has no known vanilla id, that player is read through the Bukkit API instead.
+ */
+final class StatsFileSource implements StatSource {
+
+    private final Path statsDirectory;
+    private final StatsFileIndex index;
+
+    /**
+     * @param statsDirectory the stats folder in the main world's folder
+     * @param index the index with the numbers that were read before
+     */
+    StatsFileSource(@NotNull File statsDirectory, @NotNull StatsFileIndex index) {
+        this.statsDirectory = statsDirectory.toPath();
+        this.index = index;
+    }
+
+    @Override
+    public int getStatistic(OfflinePlayer player, StatRequest.Settings requestSettings) {
+        int[] values = new int[1];
+        getStatistics(player, new StatRequest.Settings[]{requestSettings}, values);
+        return values[0];
+    }
+
+    @Override
+    public void getStatistics(OfflinePlayer player, StatRequest.Settings[] requestSettings, int[] values) {
+        if (player.isOnline() || !getIndexedStatistics(player.getUniqueId(), requestSettings, values)) {
+            StatSource.BUKKIT.getStatistics(player, requestSettings, values);
+        }
+    }
+
+    /**
+     * Gets the numbers from the index if the file hasn't changed since it was
+     * last read, and reads the file otherwise. When a file is read, all statistics
+     * that were already indexed for this player are read again as well,
+     * so the index entry stays complete.
+     * <br>
+     * <br>Only a statistic that is requested on its own is added to the index.
+     * Batches, like the ones that fill the database, ask for thousands of
+     * statistics at once, and would make every entry hold all of them.
+     *
+     * @return false if the file could not be used, and the numbers
+     * should be read in another way
+     */
+    private boolean getIndexedStatistics(UUID uniqueID, StatRequest.Settings[] requestSettings, int[] values) {
+        VanillaStatKey[] requestedKeys = new VanillaStatKey[requestSettings.length];
+        for (int i = 0; i < requestSettings.length; i++) {
+            requestedKeys[i] = VanillaStatKey.of(requestSettings[i]);
+            if (requestedKeys[i] == null) {
+                return false;
+            }
+        }
+        index.open(statsDirectory);
+        Path file = statsDirectory.resolve(uniqueID + ".json");
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            index.remove(uniqueID);
+            Arrays.fill(values, 0, requestSettings.length, 0);
+            return true;
+        } catch (IOException e) {
+            MyLogger.logHighLevelMsg("Could not read stats file " + file.getFileName() + ": " + e.getMessage());
+            return false;
+        }
+        long size = attributes.size();
+        long lastModified = attributes.lastModifiedTime().toMillis();
+
+        int[] requestedCodes = new int[requestSettings.length];
+        for (int i = 0; i < requestSettings.length; i++) {
+            requestedCodes[i] = index.getKeyCode(requestedKeys[i]);
+        }
+        StatsFileIndex.Entry entry = index.get(uniqueID);
+        if (entry != null && entry.isCurrent(size, lastModified) && entry.getValues(requestedCodes, values)) {
+            if (requestSettings.length == 1) {
+                index.touch(requestedCodes);
+            }
+            return true;
+        }
+
+        int[] previousCodes = entry == null ? new int[0] : entry.keyCodes();
+        int[] indexedCodes = requestSettings.length == 1 ?
+                index.codesToKeep(requestedCodes, previousCodes) : previousCodes;
+        int[] codes = IntStream.concat(Arrays.stream(requestedCodes), Arrays.stream(indexedCodes))
+                .distinct().sorted().toArray();
+        int[] readValues = new int[codes.length];
+        if (!readStatsFile(file, codes, readValues)) {
+            return false;
+        }
+        StatsFileIndex.Entry readEntry = new StatsFileIndex.Entry(size, lastModified, codes, readValues);
+        if (indexedCodes.length > 0) {
+            index.put(uniqueID, readEntry.only(indexedCodes));
+        }
+        return readEntry.getValues(requestedCodes, values);
+    }
+
+    /**
+     * @return false if the file could not be used, and the numbers
+     * should be read in another way
+     */
+    private boolean readStatsFile(Path file, int[] keyCodes, int[] values) {
+        HashMap<String, HashMap<String, Integer>> wanted = new HashMap<>();
+        for (int i = 0; i < keyCodes.length; i++) {
+            VanillaStatKey key = index.getKey(keyCodes[i]);
+            wanted.computeIfAbsent(key.category(), category -> new HashMap<>()).put(key.id(), i);
+        }
+
+        try (JsonReader reader = new JsonReader(Files.newBufferedReader(file, StandardCharsets.UTF_8))) {
+            boolean foundStats = false;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (!reader.nextName().equals("stats")) {
+                    reader.skipValue();
+                    continue;
+                }
+                foundStats = true;
+                readCategories(reader, wanted, values);
+            }
+            reader.endObject();
+            return foundStats;
+        } catch (NoSuchFileException e) {
+            return true;
+        } catch (IOException | IllegalStateException | NumberFormatException e) {
+            MyLogger.logHighLevelMsg("Could not read stats file " + file.getFileName() + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    private static void readCategories(JsonReader reader, HashMap<String, HashMap<String, Integer>> wanted, int[] values) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            HashMap<String, Integer> wantedIds = wanted.get(reader.nextName());
+            if (wantedIds == null) {
+                reader.skipValue();
+                continue;
+            }
+            reader.beginObject();
+            while (reader.hasNext()) {
+                Integer index = wantedIds.get(VanillaStatKey.normalizeId(reader.nextName()));
+                if (index == null) {
+                    reader.skipValue();
+                } else {
+                    long value = reader.nextLong();
+                    values[index] = (int) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, value));
+                }
+            }
+            reader.endObject();
+        }
+        reader.endObject();
+    }
+}
@@ -0,0 +1,133 @@
+package com.artemis.the.gr8.playerstats.core.statistic;
+
+import com.artemis.the.gr8.playerstats.api.StatRequest;
+import com.artemis.the.gr8.playerstats.core.utils.MyLogger;
+import org.bukkit.Keyed;
+import org.bukkit.Statistic;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The place of a statistic in a vanilla stats file (world/stats/&lt;uuid&gt;.json),
+ * such as <code>minecraft:mined</code> / <code>minecraft:stone</code>.
+ * This is the file-format counterpart of the keys from
+ * {@link com.artemis.the.gr8.playerstats.core.db.StatKeyUtil}.
+ *
+ * @param category the category the statistic is stored under
+ * @param id the id of the statistic within its category
+ */
+record VanillaStatKey(String category, String id) {
+
+    private static final String NAMESPACE = "minecraft:";
+
+    /** The untyped statistics whose Bukkit name is not the same as their vanilla id. */
+    private static final Map<String, String> CUSTOM_IDS = Map.ofEntries(
+            Map.entry("ARMOR_CLEANED", "clean_armor"),
+            Map.entry("BANNER_CLEANED", "clean_banner"),
+            Map.entry("BEACON_INTERACTION", "interact_with_beacon"),
+            Map.entry("BREWINGSTAND_INTERACTION", "interact_with_brewingstand"),
+            Map.entry("CAKE_SLICES_EATEN", "eat_cake_slice"),
+            Map.entry("CAULDRON_FILLED", "fill_cauldron"),
+            Map.entry("CAULDRON_USED", "use_cauldron"),
+            Map.entry("CHEST_OPENED", "open_chest"),
+            Map.entry("CRAFTING_TABLE_INTERACTION", "interact_with_crafting_table"),
+            Map.entry("DISPENSER_INSPECTED", "inspect_dispenser"),
+            Map.entry("DIVE_ONE_CM", "walk_under_water_one_cm"),
+            Map.entry("DROP_COUNT", "drop"),
+            Map.entry("DROPPER_INSPECTED", "inspect_dropper"),
+            Map.entry("ENDERCHEST_OPENED", "open_enderchest"),
+            Map.entry("FLOWER_POTTED", "pot_flower"),
+            Map.entry("FURNACE_INTERACTION", "interact_with_furnace"),
+            Map.entry("HOPPER_INSPECTED", "inspect_hopper"),
+            Map.entry("ITEM_ENCHANTED", "enchant_item"),
+            Map.entry("NOTEBLOCK_PLAYED", "play_noteblock"),
+            Map.entry("NOTEBLOCK_TUNED", "tune_noteblock"),
+            Map.entry("PLAY_ONE_MINUTE", "play_time"),
+            Map.entry("RECORD_PLAYED", "play_record"),
+            Map.entry("SHULKER_BOX_OPENED", "open_shulker_box"),
+            Map.entry("TRAPPED_CHEST_TRIGGERED", "trigger_trapped_chest"));
+
+    /** The untyped statistics whose vanilla id is their Bukkit name in lowercase. */
+    private static final Set<String> SAME_IDS = Set.of(
+            "ANIMALS_BRED", "AVIATE_ONE_CM", "BELL_RING", "BOAT_ONE_CM", "CLEAN_SHULKER_BOX",
+            "CLIMB_ONE_CM", "CROUCH_ONE_CM", "DAMAGE_ABSORBED", "DAMAGE_BLOCKED_BY_SHIELD",
+            "DAMAGE_DEALT", "DAMAGE_DEALT_ABSORBED", "DAMAGE_DEALT_RESISTED", "DAMAGE_RESISTED",
+            "DAMAGE_TAKEN", "DEATHS", "FALL_ONE_CM", "FISH_CAUGHT", "FLY_ONE_CM", "HORSE_ONE_CM",
+            "INTERACT_WITH_ANVIL", "INTERACT_WITH_BLAST_FURNACE", "INTERACT_WITH_CAMPFIRE",
+            "INTERACT_WITH_CARTOGRAPHY_TABLE", "INTERACT_WITH_GRINDSTONE", "INTERACT_WITH_LECTERN",
+            "INTERACT_WITH_LOOM", "INTERACT_WITH_SMITHING_TABLE", "INTERACT_WITH_SMOKER",
+            "INTERACT_WITH_STONECUTTER", "JUMP", "LEAVE_GAME", "MINECART_ONE_CM", "MOB_KILLS",
+            "OPEN_BARREL", "PIG_ONE_CM", "PLAYER_KILLS", "RAID_TRIGGER", "RAID_WIN", "SLEEP_IN_BED",
+            "SNEAK_TIME", "SPRINT_ONE_CM", "STRIDER_ONE_CM", "SWIM_ONE_CM", "TALKED_TO_VILLAGER",
+            "TARGET_HIT", "TIME_SINCE_DEATH", "TIME_SINCE_REST", "TOTAL_WORLD_TIME",
+            "TRADED_WITH_VILLAGER", "WALK_ON_WATER_ONE_CM", "WALK_ONE_CM", "WALK_UNDER_WATER_ONE_CM");
+
+    /** The untyped statistics without a known vanilla id, that were already reported. */
+    private static final Set<String> UNKNOWN_IDS = ConcurrentHashMap.newKeySet();
+
+    /** Ids that were renamed in later Minecraft versions, and can still be found in older files. */
+    private static final Map<String, String> LEGACY_IDS = Map.of(
+            NAMESPACE + "play_one_minute", NAMESPACE + "play_time");
+
+    /**
+     * @param requestSettings a validated requestSettings object
+     * @return the place of this statistic in a stats file, or null for an
+     * untyped statistic whose vanilla id is not known, which should then
+     * be read through the Bukkit API
+     */
+    static @Nullable VanillaStatKey of(@NotNull StatRequest.Settings requestSettings) {
+        Statistic statistic = requestSettings.getStatistic();
+        return switch (statistic.getType()) {
+            case UNTYPED -> ofUntyped(statistic);
+            case BLOCK -> new VanillaStatKey(getCategory(statistic), idOf(requestSettings.getBlock()));
+            case ITEM -> new VanillaStatKey(getCategory(statistic), idOf(requestSettings.getItem()));
+            case ENTITY -> new VanillaStatKey(getCategory(statistic), idOf(requestSettings.getEntity()));
+        };
+    }
+
+    private static @Nullable VanillaStatKey ofUntyped(@NotNull Statistic statistic) {
+        String name = statistic.name();
+        String id = CUSTOM_IDS.get(name);
+        if (id == null && SAME_IDS.contains(name)) {
+            id = name.toLowerCase(Locale.ROOT);
+        }
+        if (id == null) {
+            if (UNKNOWN_IDS.add(name)) {
+                MyLogger.logWarning("No vanilla stats file id is known for " + name +
+                        ", it will be read through the Bukkit API instead");
+            }
+            return null;
+        }
+        return new VanillaStatKey(NAMESPACE + "custom", NAMESPACE + id);
+    }
+
+    /**
+     * @return the current id for an id that was read from a stats file
+     */
+    static @NotNull String normalizeId(@NotNull String id) {
+        return LEGACY_IDS.getOrDefault(id, id);
+    }
+
+    private static @NotNull String getCategory(@NotNull Statistic statistic) {
+        return NAMESPACE + switch (statistic) {
+            case MINE_BLOCK -> "mined";
+            case BREAK_ITEM -> "broken";
+            case CRAFT_ITEM -> "crafted";
+            case USE_ITEM -> "used";
+            case PICKUP -> "picked_up";
+            case DROP -> "dropped";
+            case KILL_ENTITY -> "killed";
+            case ENTITY_KILLED_BY -> "killed_by";
+            default -> statistic.name().toLowerCase(Locale.ROOT);
+        };
+    }
+
+    private static @NotNull String idOf(@NotNull Keyed keyed) {
+        return keyed.getKey().toString();
+    }
+}
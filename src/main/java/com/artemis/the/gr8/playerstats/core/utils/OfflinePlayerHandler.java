@@ -6,11 +6,16 @@ import com.artemis.the.gr8.playerstats.core.multithreading.PlayerLoadAction;
 import com.artemis.the.gr8.playerstats.core.multithreading.ThreadManager;
 import org.bukkit.Bukkit;
 import org.bukkit.OfflinePlayer;
+import org.bukkit.World;
+import org.bukkit.scheduler.BukkitTask;
 import org.jetbrains.annotations.Contract;
 import org.jetbrains.annotations.NotNull;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Predicate;
 
 /**
@@ -19,19 +24,43 @@ import java.util.function.Predicate;
  * calculations, and can retrieve the corresponding OfflinePlayer
  * object for a given player-name.
  */
-public final class OfflinePlayerHandler extends YamlFileHandler {
+public final class OfflinePlayerHandler extends YamlFileHandler implements Closable {
+
+    /** How long to wait after startup before checking the players that were restored from the snapshot. */
+    private static final long SNAPSHOT_CHECK_DELAY_TICKS = 60 * 20L;
+    /** How long {@link #awaitReady()} waits for the players to be loaded. */
+    private static final long READY_TIMEOUT_SECONDS = 30;
 
     private static volatile OfflinePlayerHandler instance;
     private final ConfigHandler config;
-    private static ConcurrentHashMap<String, UUID> includedPlayerUUIDs;
-    private static ConcurrentHashMap<String, UUID> excludedPlayerUUIDs;
+    private final File snapshotFile;
+
+    private static final AtomicInteger includedPlayersVersion = new AtomicInteger();
+    private static volatile PlayerRoster includedRoster = new PlayerRoster(0, new String[0], new UUID[0]);
+    private static volatile PlayerRoster excludedRoster = new PlayerRoster(0, new String[0], new UUID[0]);
+    private static final ConcurrentHashMap<UUID, Long> lastPlayedTimes = new ConcurrentHashMap<>();
+    /** Players added by {@link #updatePlayer(OfflinePlayer)}, with the roster version they were added at. Guarded by the class lock. */
+    private static final HashMap<UUID, Integer> joinedPlayerVersions = new HashMap<>();
+    /** The number of loads of all players that are running. Guarded by the class lock. */
+    private static int runningLoads;
+    private final CompletableFuture<Void> playersReady = new CompletableFuture<>();
+    private volatile boolean playersLoaded;
+    private BukkitTask reconcileTask;
 
     private OfflinePlayerHandler() {
         super("excluded_players.yml");
         config = ConfigHandler.getInstance();
+        snapshotFile = new File(Main.getPluginInstance().getDataFolder(), "player-roster.bin");
 
-        loadOfflinePlayers();
+        if (restoreSnapshot()) {
+            Bukkit.getScheduler().runTaskLaterAsynchronously(Main.getPluginInstance(),
+                    this::loadAllPlayers, SNAPSHOT_CHECK_DELAY_TICKS);
+        } else {
+            loadOfflinePlayers();
+        }
+        scheduleReconciliation();
         Main.registerReloadable(this);
+        Main.registerClosable(this);
     }
 
     public static OfflinePlayerHandler getInstance() {
@@ -52,6 +81,98 @@ public final class OfflinePlayerHandler extends YamlFileHandler {
     public void reload() {
         super.reload();
         loadOfflinePlayers();
+        scheduleReconciliation();
+    }
+
+    @Override
+    public void close() {
+        if (reconcileTask != null) {
+            reconcileTask.cancel();
+        }
+        saveSnapshot();
+    }
+
+    /**
+     * @return true once the included and excluded players have been
+     * loaded (or restored from the snapshot) for the first time
+     */
+    public boolean isReady() {
+        return playersReady.isDone();
+    }
+
+    /**
+     * Waits until the included and excluded players have been loaded for
+     * the first time, for at most 30 seconds. This should not be called
+     * from the main thread.
+     *
+     * @return true if the players are loaded, or false if they
+     * were still loading when the time ran out
+     */
+    public boolean awaitReady() {
+        try {
+            playersReady.get(READY_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            return true;
+        } catch (TimeoutException e) {
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException e) {
+            return true;
+        }
+    }
+
+    /**
+     * @return a new CompletableFuture that completes once the included and
+     * excluded players have been loaded for the first time
+     */
+    public @NotNull CompletableFuture<Void> whenReady() {
+        return playersReady.copy();
+    }
+
+    /**
+     * Updates the included players for this one player, without loading
+     * all other players again. This is meant for players that just joined:
+     * new players are added at the end of the roster, players that changed
+     * their name get their new name, and players that no longer pass the
+     * whitelist, ban or last-played settings are removed.
+     *
+     * @param player the player to update
+     */
+    public void updatePlayer(@NotNull OfflinePlayer player) {
+        String playerName = player.getName();
+        if (playerName == null) {
+            return;
+        }
+        UUID uuid = player.getUniqueId();
+        boolean passesFilters = passesFilters(player);
+        if (player.isOnline()) {
+            lastPlayedTimes.put(uuid, System.currentTimeMillis());
+        }
+
+        synchronized (OfflinePlayerHandler.class) {
+            int excludedOrdinal = excludedRoster.getOrdinal(uuid);
+            if (excludedOrdinal != -1) {
+                if (!excludedRoster.getName(excludedOrdinal).equals(playerName)) {
+                    excludedRoster = excludedRoster.with(includedPlayersVersion.get(), playerName, uuid);
+                }
+                return;
+            }
+
+            int ordinal = includedRoster.getOrdinal(uuid);
+            if (passesFilters && (ordinal == -1 || !includedRoster.getName(ordinal).equals(playerName))) {
+                int version = includedPlayersVersion.incrementAndGet();
+                includedRoster = includedRoster.with(version, playerName, uuid);
+                if (runningLoads > 0) {
+                    joinedPlayerVersions.put(uuid, version);
+                }
+                MyLogger.logMediumLevelMsg("Updated included players for " + playerName);
+            }
+            else if (!passesFilters && ordinal != -1) {
+                includedRoster = includedRoster.without(includedPlayersVersion.incrementAndGet(), uuid);
+                MyLogger.logMediumLevelMsg("Removed " + playerName + " from included players");
+            }
+        }
     }
 
     /**
@@ -62,44 +183,78 @@ public final class OfflinePlayerHandler extends YamlFileHandler {
      * @return true if this player is included
      */
     public boolean isIncludedPlayer(String playerName) {
-        return includedPlayerUUIDs.containsKey(playerName);
+        return includedRoster.contains(playerName);
     }
 
+    /**
+     * @param playerName String (case-sensitive)
+     * @return true if this player is on the exclude-list
+     */
     public boolean isExcludedPlayer(String playerName) {
-        return excludedPlayerUUIDs.containsKey(playerName);
+        return excludedRoster.contains(playerName);
+    }
+
+    /**
+     * @param playerName String (not case-sensitive)
+     * @return true if this player is on the exclude-list
+     */
+    public boolean isExcludedPlayerIgnoreCase(String playerName) {
+        return excludedRoster.getOrdinalIgnoreCase(playerName) != -1;
     }
 
     public boolean isExcludedPlayer(UUID uniqueID) {
-        return excludedPlayerUUIDs.containsValue(uniqueID);
+        return excludedRoster.contains(uniqueID);
     }
 
+    /**
+     * Moves an included player to the exclude-list.
+     *
+     * @param playerName String (not case-sensitive)
+     * @return true if the player was included, and is now excluded
+     */
     public boolean addPlayerToExcludeList(String playerName) {
-        if (isIncludedPlayer(playerName)) {
-            UUID uuid = includedPlayerUUIDs.get(playerName);
+        synchronized (OfflinePlayerHandler.class) {
+            int ordinal = includedRoster.getOrdinalIgnoreCase(playerName);
+            if (ordinal == -1) {
+                return false;
+            }
+            String name = includedRoster.getName(ordinal);
+            UUID uuid = includedRoster.getUUID(ordinal);
 
             super.writeEntryToList("excluded", uuid.toString());
-            includedPlayerUUIDs.remove(playerName);
-            excludedPlayerUUIDs.put(playerName, uuid);
+            int version = includedPlayersVersion.incrementAndGet();
+            excludedRoster = excludedRoster.with(version, name, uuid);
+            includedRoster = includedRoster.without(version, uuid);
             return true;
         }
-        return false;
     }
 
+    /**
+     * Moves a player from the exclude-list back to the included players.
+     *
+     * @param playerName String (not case-sensitive)
+     * @return true if the player was excluded, and is now included
+     */
     public boolean removePlayerFromExcludeList(String playerName) {
-        if (isExcludedPlayer(playerName)) {
-            UUID uuid = excludedPlayerUUIDs.get(playerName);
+        synchronized (OfflinePlayerHandler.class) {
+            int ordinal = excludedRoster.getOrdinalIgnoreCase(playerName);
+            if (ordinal == -1) {
+                return false;
+            }
+            String name = excludedRoster.getName(ordinal);
+            UUID uuid = excludedRoster.getUUID(ordinal);
 
             super.removeEntryFromList("excluded", uuid.toString());
-            excludedPlayerUUIDs.remove(playerName);
-            includedPlayerUUIDs.put(playerName, uuid);
+            int version = includedPlayersVersion.incrementAndGet();
+            includedRoster = includedRoster.with(version, name, uuid);
+            excludedRoster = excludedRoster.without(version, uuid);
             return true;
         }
-        return false;
     }
 
     @Contract(" -> new")
     public @NotNull ArrayList<String> getExcludedPlayerNames() {
-        return Collections.list(excludedPlayerUUIDs.keys());
+        return excludedRoster.getNames();
     }
 
     /**
@@ -110,7 +265,7 @@ public final class OfflinePlayerHandler extends YamlFileHandler {
      */
     @Contract(" -> new")
     public @NotNull ArrayList<String> getIncludedOfflinePlayerNames() {
-        return Collections.list(includedPlayerUUIDs.keys());
+        return includedRoster.getNames();
     }
 
     /**
@@ -120,12 +275,69 @@ public final class OfflinePlayerHandler extends YamlFileHandler {
      * @return the number of included OfflinePlayers
      */
     public int getIncludedPlayerCount() {
-        return includedPlayerUUIDs.size();
+        return includedRoster.size();
+    }
+
+    /**
+     * Gets the names of all included and excluded players, so they can be used
+     * without asking Bukkit for every player separately.
+     *
+     * @return a new map of UUIDs and player names
+     */
+    @Contract(" -> new")
+    public @NotNull Map<UUID, String> getKnownPlayerNames() {
+        PlayerRoster included = includedRoster;
+        PlayerRoster excluded = excludedRoster;
+        HashMap<UUID, String> names = new HashMap<>(Math.max(16, (int) ((included.size() + excluded.size()) / 0.75f) + 1));
+        for (int ordinal = 0; ordinal < included.size(); ordinal++) {
+            names.put(included.getUUID(ordinal), included.getName(ordinal));
+        }
+        for (int ordinal = 0; ordinal < excluded.size(); ordinal++) {
+            names.put(excluded.getUUID(ordinal), excluded.getName(ordinal));
+        }
+        return names;
+    }
+
+    /**
+     * Gets the UUIDs of all players that are not included in statistic
+     * calculations: the players on the exclude-list, and the players that
+     * don't pass the whitelist, ban or last-played settings.
+     * This should not be called from the main thread.
+     *
+     * @return a new set of UUIDs
+     */
+    @Contract(" -> new")
+    public @NotNull Set<UUID> getNotIncludedPlayerUUIDs() {
+        PlayerRoster included = includedRoster;
+        PlayerRoster excluded = excludedRoster;
+        HashSet<UUID> uuids = new HashSet<>();
+        for (OfflinePlayer player : Bukkit.getOfflinePlayers()) {
+            if (!included.contains(player.getUniqueId())) {
+                uuids.add(player.getUniqueId());
+            }
+        }
+        for (int ordinal = 0; ordinal < excluded.size(); ordinal++) {
+            uuids.add(excluded.getUUID(ordinal));
+        }
+        return uuids;
+    }
+
+    /**
+     * Gets a {@link PlayerRoster} for all OfflinePlayers that are currently
+     * included in statistic calculations. The same roster is returned
+     * until the included players change (by reloading, or by excluding
+     * or including someone), at which point a new roster is swapped in.
+     *
+     * @return the PlayerRoster
+     */
+    public @NotNull PlayerRoster getIncludedPlayerRoster() {
+        return includedRoster;
     }
 
     /**
-     * Uses the playerName to get the player's UUID from a private HashMap,
-     * and uses the UUID to get the corresponding OfflinePlayer Object.
+     * Uses the playerName to get the player's UUID from the included
+     * {@link PlayerRoster}, and uses the UUID to get the corresponding
+     * OfflinePlayer Object.
      *
      * @param playerName name of the target player (case-sensitive)
      * @return OfflinePlayer
@@ -133,8 +345,10 @@ public final class OfflinePlayerHandler extends YamlFileHandler {
      * of players that should be included in statistic calculations
      */
     public @NotNull OfflinePlayer getIncludedOfflinePlayer(String playerName) throws IllegalArgumentException {
-        if (includedPlayerUUIDs.get(playerName) != null) {
-            return Bukkit.getOfflinePlayer(includedPlayerUUIDs.get(playerName));
+        PlayerRoster roster = includedRoster;
+        int ordinal = roster.getOrdinal(playerName);
+        if (ordinal != -1) {
+            return roster.getOfflinePlayer(ordinal);
         }
         else {
             MyLogger.logWarning("Cannot calculate statistics for player-name: " + playerName +
@@ -145,23 +359,58 @@ public final class OfflinePlayerHandler extends YamlFileHandler {
     }
 
     public @NotNull OfflinePlayer getExcludedOfflinePlayer(String playerName) throws IllegalArgumentException {
-        if (excludedPlayerUUIDs.get(playerName) != null) {
-            return Bukkit.getOfflinePlayer(excludedPlayerUUIDs.get(playerName));
+        PlayerRoster roster = excludedRoster;
+        int ordinal = roster.getOrdinal(playerName);
+        if (ordinal != -1) {
+            return roster.getOfflinePlayer(ordinal);
         }
         throw new IllegalArgumentException("There is no player on the exclude-list with this name");
     }
 
     private void loadOfflinePlayers() {
         ExecutorService executor = Executors.newSingleThreadExecutor();
-        executor.execute(() -> {
+        executor.execute(this::loadAllPlayers);
+        executor.shutdown();
+    }
+
+    /**
+     * Loads all excluded and included players, and swaps in the new rosters
+     * when they are complete. Requests that arrive before the first load
+     * is finished wait for it (see {@link #awaitReady()}), instead of
+     * using a roster that is still empty.
+     */
+    private void loadAllPlayers() {
+        try {
             loadExcludedPlayerNames();
             loadIncludedOfflinePlayers();
-        });
-        executor.shutdown();
+            playersLoaded = true;
+            saveSnapshot();
+        } catch (RuntimeException e) {
+            MyLogger.logException(e, "OfflinePlayerHandler", "loadAllPlayers()");
+        } finally {
+            playersReady.complete(null);
+        }
     }
 
     private void loadIncludedOfflinePlayers() {
         long startTime = System.currentTimeMillis();
+        int startVersion;
+        synchronized (OfflinePlayerHandler.class) {
+            startVersion = includedPlayersVersion.get();
+            runningLoads++;
+        }
+        try {
+            loadIncludedOfflinePlayers(startTime, startVersion);
+        } finally {
+            synchronized (OfflinePlayerHandler.class) {
+                if (--runningLoads == 0) {
+                    joinedPlayerVersions.clear();
+                }
+            }
+        }
+    }
+
+    private void loadIncludedOfflinePlayers(long startTime, int startVersion) {
 
         OfflinePlayer[] offlinePlayers;
         if (config.whitelistOnly()) {
@@ -171,56 +420,243 @@ public final class OfflinePlayerHandler extends YamlFileHandler {
         } else {
             offlinePlayers = Bukkit.getOfflinePlayers();
         }
-        int size = includedPlayerUUIDs != null ? includedPlayerUUIDs.size() : 16;
-        includedPlayerUUIDs = new ConcurrentHashMap<>(size);
+        ConcurrentHashMap<String, UUID> includedPlayerUUIDs = new ConcurrentHashMap<>(Math.max(16, includedRoster.size()));
+        PlayerRoster excluded = excludedRoster;
 
-        long minLastPlayed = config.getSinceAbsoluteTimestamp();
-        if (minLastPlayed > 0) {
-            // Use absolute timestamp
-            ForkJoinPool.commonPool().invoke(new PlayerLoadAction(offlinePlayers, includedPlayerUUIDs, minLastPlayed));
-        } else {
-            // Use relative days - ThreadManager handles the calculation internally
-            ForkJoinPool.commonPool().invoke(ThreadManager.getPlayerLoadAction(offlinePlayers, includedPlayerUUIDs));
-        }
+        ForkJoinPool pool = ThreadManager.getPool(ThreadManager.Lane.BACKGROUND);
+        List<World> worlds = Bukkit.getWorlds();
+        Map<UUID, PlayerMetadataReader.PlayerMetadata> metadata = PlayerMetadataReader.readAll(Bukkit.getWorldContainer(),
+                worlds.isEmpty() ? null : worlds.get(0).getWorldFolder(), getKnownPlayerNames(), pool);
+        pool.invoke(ThreadManager.getPlayerLoadAction(offlinePlayers, includedPlayerUUIDs, lastPlayedTimes, excluded, metadata));
 
+        applyLoadedPlayers(includedPlayerUUIDs, startVersion);
         MyLogger.actionFinished();
         MyLogger.logLowLevelTask(("Loaded " + includedPlayerUUIDs.size() + " offline players"), startTime);
     }
+
     private void loadExcludedPlayerNames() {
         long time = System.currentTimeMillis();
 
-        excludedPlayerUUIDs = new ConcurrentHashMap<>();
+        PlayerRoster current = excludedRoster;
+        HashMap<UUID, String> knownNames = new HashMap<>(current.size());
+        for (int ordinal = 0; ordinal < current.size(); ordinal++) {
+            knownNames.put(current.getUUID(ordinal), current.getName(ordinal));
+        }
+        LinkedHashMap<String, UUID> excludedPlayerUUIDs = readExcludedPlayers(knownNames);
+
+        synchronized (OfflinePlayerHandler.class) {
+            excludedRoster = PlayerRoster.of(includedPlayersVersion.get(), excludedPlayerUUIDs);
+        }
+        MyLogger.logLowLevelTask("Loaded " + excludedPlayerUUIDs.size() + " excluded players from file", time);
+    }
+
+    /**
+     * Reads the UUIDs from the exclude-list file. Players whose name is already known
+     * keep that name (renames are picked up when they join), so only new entries
+     * have to be looked up through Bukkit.
+     *
+     * @param knownNames the names that are already known for some UUIDs
+     * @return a map of player names and UUIDs, in the order of the file
+     */
+    private @NotNull LinkedHashMap<String, UUID> readExcludedPlayers(@NotNull Map<UUID, String> knownNames) {
+        LinkedHashMap<String, UUID> excludedPlayerUUIDs = new LinkedHashMap<>();
         List<String> excluded = super.getFileConfiguration().getStringList("excluded");
         excluded.stream()
                 .filter(Objects::nonNull)
                 .map(UUID::fromString)
                         .forEach(uuid -> {
-                            OfflinePlayer player = Bukkit.getOfflinePlayer(uuid);
-                            String playerName = player.getName();
+                            String playerName = knownNames.get(uuid);
+                            if (playerName == null) {
+                                playerName = Bukkit.getOfflinePlayer(uuid).getName();
+                            }
                             if (playerName != null) {
                                 excludedPlayerUUIDs.put(playerName, uuid);
                             }
                         });
+        return excludedPlayerUUIDs;
+    }
 
-        MyLogger.logLowLevelTask("Loaded " + excludedPlayerUUIDs.size() + " excluded players from file", time);
+    /**
+     * Restores the included and excluded players from the snapshot file, if there
+     * is one that was made with the same whitelist and ban settings, and a
+     * last-played limit that is not stricter than the current one.
+     *
+     * @return true if the players were restored
+     */
+    private boolean restoreSnapshot() {
+        long time = System.currentTimeMillis();
+        RosterSnapshot snapshot = RosterSnapshot.read(snapshotFile);
+        if (snapshot == null) {
+            return false;
+        }
+        long minLastPlayed = config.getSinceAbsoluteTimestamp();
+        if (snapshot.whitelistOnly() != config.whitelistOnly() ||
+                snapshot.excludeBanned() != config.excludeBanned() ||
+                minLastPlayed < snapshot.minLastPlayed()) {
+            MyLogger.logLowLevelMsg("Player settings changed since the last snapshot, loading all players again");
+            return false;
+        }
+
+        HashMap<UUID, String> knownNames = new HashMap<>();
+        LinkedHashMap<String, UUID> includedPlayerUUIDs = new LinkedHashMap<>(Math.max(16, snapshot.players().size()));
+        for (RosterSnapshot.Entry player : snapshot.players()) {
+            if (player.excluded()) {
+                knownNames.put(player.uniqueID(), player.name());
+            } else if (player.lastPlayed() >= minLastPlayed) {
+                includedPlayerUUIDs.put(player.name(), player.uniqueID());
+            }
+            if (player.lastPlayed() > 0) {
+                lastPlayedTimes.put(player.uniqueID(), player.lastPlayed());
+            }
+        }
+        LinkedHashMap<String, UUID> excludedPlayerUUIDs = readExcludedPlayers(knownNames);
+        includedPlayerUUIDs.values().removeAll(new HashSet<>(excludedPlayerUUIDs.values()));
+
+        synchronized (OfflinePlayerHandler.class) {
+            int version = includedPlayersVersion.incrementAndGet();
+            excludedRoster = PlayerRoster.of(version, excludedPlayerUUIDs);
+            includedRoster = PlayerRoster.of(version, includedPlayerUUIDs);
+        }
+        playersLoaded = true;
+        playersReady.complete(null);
+        MyLogger.logLowLevelTask("Restored " + includedPlayerUUIDs.size() + " players from snapshot", time);
+        return true;
+    }
+
+    /**
+     * Writes the current included and excluded players to the snapshot file,
+     * so they can be restored right away the next time the plugin starts.
+     */
+    private synchronized void saveSnapshot() {
+        if (!playersLoaded) {
+            return;
+        }
+        PlayerRoster included;
+        PlayerRoster excluded;
+        synchronized (OfflinePlayerHandler.class) {
+            included = includedRoster;
+            excluded = excludedRoster;
+        }
+        List<RosterSnapshot.Entry> players = new ArrayList<>(included.size() + excluded.size());
+        for (int ordinal = 0; ordinal < included.size(); ordinal++) {
+            UUID uuid = included.getUUID(ordinal);
+            players.add(new RosterSnapshot.Entry(uuid, included.getName(ordinal), lastPlayedTimes.getOrDefault(uuid, 0L), false));
+        }
+        for (int ordinal = 0; ordinal < excluded.size(); ordinal++) {
+            UUID uuid = excluded.getUUID(ordinal);
+            players.add(new RosterSnapshot.Entry(uuid, excluded.getName(ordinal), lastPlayedTimes.getOrDefault(uuid, 0L), true));
+        }
+
+        long time = System.currentTimeMillis();
+        try {
+            new RosterSnapshot(config.whitelistOnly(), config.excludeBanned(), config.getSinceAbsoluteTimestamp(), players)
+                    .write(snapshotFile);
+            MyLogger.logMediumLevelTask("Saved snapshot of " + players.size() + " players", time);
+        } catch (IOException e) {
+            MyLogger.logWarning("Could not save player snapshot: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Swaps in the players that were loaded. If the only difference with
+     * the current roster is that players were added or renamed, the current
+     * roster is extended, so numbers that were already calculated for it
+     * can still be used. If nothing changed, the current roster is kept.
+     * Players that were excluded while the load was running stay excluded,
+     * and players that joined for the first time while it was running,
+     * after the players to load were listed, stay included.
+     *
+     * @param startVersion the roster version when the load started
+     */
+    private static void applyLoadedPlayers(@NotNull Map<String, UUID> loaded, int startVersion) {
+        synchronized (OfflinePlayerHandler.class) {
+            PlayerRoster excluded = excludedRoster;
+            PlayerRoster current = includedRoster;
+            HashMap<String, UUID> loadedPlayers = new HashMap<>(loaded);
+            joinedPlayerVersions.forEach((uuid, version) -> {
+                int ordinal = current.getOrdinal(uuid);
+                if (version > startVersion && ordinal != -1) {
+                    loadedPlayers.putIfAbsent(current.getName(ordinal), uuid);
+                }
+            });
+            loadedPlayers.values().removeIf(excluded::contains);
+            HashSet<UUID> loadedUUIDs = new HashSet<>(loadedPlayers.values());
+            for (int ordinal = 0; ordinal < current.size(); ordinal++) {
+                if (!loadedUUIDs.contains(current.getUUID(ordinal))) {
+                    includedRoster = PlayerRoster.of(includedPlayersVersion.incrementAndGet(), loadedPlayers);
+                    return;
+                }
+            }
+
+            HashMap<String, UUID> changes = new HashMap<>();
+            loadedPlayers.forEach((playerName, uuid) -> {
+                if (!uuid.equals(current.getUUID(playerName))) {
+                    changes.put(playerName, uuid);
+                }
+            });
+            if (!changes.isEmpty()) {
+                includedRoster = current.withAll(includedPlayersVersion.incrementAndGet(), changes);
+                MyLogger.logLowLevelMsg("Added or renamed " + changes.size() + " included players");
+            }
+        }
+    }
+
+    /**
+     * Checks the whitelist, ban and last-played settings for one player,
+     * in the same way {@link PlayerLoadAction} does when all players are loaded.
+     */
+    private boolean passesFilters(@NotNull OfflinePlayer player) {
+        boolean allowed;
+        if (config.whitelistOnly()) {
+            allowed = player.isWhitelisted();
+        } else {
+            allowed = !(config.excludeBanned() && player.isBanned());
+        }
+        return allowed && (player.isOnline() || player.getLastPlayed() >= config.getSinceAbsoluteTimestamp());
+    }
+
+    /**
+     * Periodically loads all offline players again in the background, to pick
+     * up changes that were missed by {@link #updatePlayer(OfflinePlayer)}
+     * (such as players that were banned or removed from the whitelist while offline).
+     */
+    private void scheduleReconciliation() {
+        if (reconcileTask != null) {
+            reconcileTask.cancel();
+            reconcileTask = null;
+        }
+        int minutes = config.getRosterReconcileInterval();
+        if (minutes <= 0) {
+            return;
+        }
+        long periodTicks = minutes * 60L * 20L;
+        reconcileTask = Bukkit.getScheduler().runTaskTimerAsynchronously(Main.getPluginInstance(), () -> {
+            MyLogger.logLowLevelMsg("Checking included players for changes...");
+            loadIncludedOfflinePlayers();
+        }, periodTicks, periodTicks);
     }
 
     private OfflinePlayer[] getWhitelistedPlayers() {
         return Bukkit.getWhitelistedPlayers().toArray(OfflinePlayer[]::new);
     }
 
+    /**
+     * The parallel streams are submitted to the background pool,
+     * so they run on its threads instead of on the common pool.
+     */
     private @NotNull OfflinePlayer[] getNonBannedPlayers() {
+        ForkJoinPool pool = ThreadManager.getPool(ThreadManager.Lane.BACKGROUND);
         if (Bukkit.getPluginManager().isPluginEnabled("LiteBans")) {
-            return Arrays.stream(Bukkit.getOfflinePlayers())
+            return pool.submit(() -> Arrays.stream(Bukkit.getOfflinePlayers())
                     .parallel()
                     .filter(Predicate.not(OfflinePlayer::isBanned))
-                    .toArray(OfflinePlayer[]::new);
+                    .toArray(OfflinePlayer[]::new)).join();
         }
 
         Set<OfflinePlayer> banList = Bukkit.getBannedPlayers();
-        return Arrays.stream(Bukkit.getOfflinePlayers())
+        return pool.submit(() -> Arrays.stream(Bukkit.getOfflinePlayers())
                 .parallel()
                 .filter(Predicate.not(banList::contains))
-                .toArray(OfflinePlayer[]::new);
+                .toArray(OfflinePlayer[]::new)).join();
     }
 }
\ No newline at end of file
@@ -0,0 +1,146 @@
+package com.artemis.the.gr8.playerstats.core.utils;
+
+import com.google.gson.stream.JsonReader;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Reads the names and last-played times of all players at once, instead of
+ * asking Bukkit for every player separately (which can mean reading that
+ * player's data file from disk). Names come from the server's usercache.json,
+ * which is parsed once, and last-played times come from the modification time
+ * of the files in the world's playerdata folder, which are read in parallel.
+ */
+public final class PlayerMetadataReader {
+
+    private PlayerMetadataReader() {}
+
+    /**
+     * @param name the player's name, or null if it is not known
+     * @param lastPlayed the last time the player's data was saved, or 0 if this is not known
+     */
+    public record PlayerMetadata(@Nullable String name, long lastPlayed) {
+    }
+
+    /**
+     * Reads the names and last-played times of all players.
+     *
+     * @param serverDirectory the folder with usercache.json
+     * @param worldDirectory the main world's folder, or null to skip last-played times
+     * @param knownNames names that are already known, which are used
+     *                   for players that are not in the usercache
+     * @param pool the pool to read the playerdata folder on
+     * @return a map of UUIDs and metadata
+     */
+    public static @NotNull Map<UUID, PlayerMetadata> readAll(@NotNull File serverDirectory, @Nullable File worldDirectory,
+                                                            @NotNull Map<UUID, String> knownNames, @NotNull ForkJoinPool pool) {
+        long time = System.currentTimeMillis();
+        Map<UUID, String> names = readNames(serverDirectory, knownNames);
+        Map<UUID, Long> lastPlayedTimes = worldDirectory == null ? Map.of() : readLastPlayedTimes(worldDirectory, pool);
+
+        HashMap<UUID, PlayerMetadata> metadata = new HashMap<>(Math.max(16, (int) (lastPlayedTimes.size() / 0.75f) + 1));
+        lastPlayedTimes.forEach((uuid, lastPlayed) -> metadata.put(uuid, new PlayerMetadata(names.get(uuid), lastPlayed)));
+        names.forEach((uuid, name) -> metadata.putIfAbsent(uuid, new PlayerMetadata(name, 0L)));
+        MyLogger.logMediumLevelTask("Read metadata for " + metadata.size() + " players", time);
+        return metadata;
+    }
+
+    /**
+     * Gets the names from usercache.json, and adds the known names
+     * for players that are not in it.
+     *
+     * @param serverDirectory the folder with usercache.json
+     * @param knownNames names that are already known
+     * @return a map of UUIDs and player names
+     */
+    public static @NotNull Map<UUID, String> readNames(@NotNull File serverDirectory, @NotNull Map<UUID, String> knownNames) {
+        HashMap<UUID, String> names = new HashMap<>(knownNames);
+        names.putAll(readUserCache(serverDirectory));
+        return names;
+    }
+
+    /**
+     * Parses usercache.json, which holds the names of the players
+     * that joined most recently.
+     *
+     * @return a map of UUIDs and player names
+     */
+    private static @NotNull Map<UUID, String> readUserCache(@NotNull File serverDirectory) {
+        File userCache = new File(serverDirectory, "usercache.json");
+        if (!userCache.isFile()) {
+            userCache = new File("usercache.json");
+            if (!userCache.isFile()) {
+                return Map.of();
+            }
+        }
+
+        HashMap<UUID, String> names = new HashMap<>();
+        try (JsonReader reader = new JsonReader(Files.newBufferedReader(userCache.toPath(), StandardCharsets.UTF_8))) {
+            reader.beginArray();
+            while (reader.hasNext()) {
+                String name = null;
+                String uuid = null;
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    switch (reader.nextName()) {
+                        case "name" -> name = reader.nextString();
+                        case "uuid" -> uuid = reader.nextString();
+                        default -> reader.skipValue();
+                    }
+                }
+                reader.endObject();
+                if (name != null && uuid != null) {
+                    try {
+                        names.put(UUID.fromString(uuid), name);
+                    } catch (IllegalArgumentException ignored) {
+                        // skip entries with an invalid UUID
+                    }
+                }
+            }
+            reader.endArray();
+        } catch (IOException | IllegalStateException e) {
+            MyLogger.logWarning("Could not read usercache.json: " + e.getMessage());
+        }
+        return names;
+    }
+
+    /**
+     * Gets the modification time of every file in the world's playerdata folder.
+     * A player's file is saved while they are online and when they log out,
+     * so for offline players this is the last time they played.
+     *
+     * @return a map of UUIDs and last-played times
+     */
+    private static @NotNull Map<UUID, Long> readLastPlayedTimes(@NotNull File worldDirectory, @NotNull ForkJoinPool pool) {
+        File playerDataDir = new File(worldDirectory, "playerdata");
+        File[] playerFiles = playerDataDir.listFiles((dir, name) -> name.endsWith(".dat"));
+        if (playerFiles == null || playerFiles.length == 0) {
+            return Map.of();
+        }
+
+        ConcurrentHashMap<UUID, Long> lastPlayedTimes = new ConcurrentHashMap<>(playerFiles.length);
+        pool.submit(() -> Arrays.stream(playerFiles)
+                .parallel()
+                .forEach(playerFile -> {
+                    String fileName = playerFile.getName();
+                    try {
+                        UUID uuid = UUID.fromString(fileName.substring(0, fileName.length() - 4));
+                        lastPlayedTimes.put(uuid, Files.getLastModifiedTime(playerFile.toPath()).toMillis());
+                    } catch (IllegalArgumentException | IOException e) {
+                        // skip files with an invalid name, or that were removed in the meantime
+                    }
+                })).join();
+        return lastPlayedTimes;
+    }
+}
@@ -0,0 +1,274 @@
+package com.artemis.the.gr8.playerstats.core.utils;
+
+import org.bukkit.Bukkit;
+import org.bukkit.OfflinePlayer;
+import org.bukkit.entity.Player;
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * An immutable snapshot of a group of players, such as all players that
+ * are currently included in statistic calculations. Every player is assigned
+ * a dense ordinal (their position in this roster), so per-player numbers
+ * can be stored in primitive arrays of {@link #size()} length. Players can
+ * be looked up by name (with or without matching capital letters) and
+ * by UUID, all in constant time.
+ * <br>
+ * <br>A roster belongs to exactly one version of the player-list.
+ * Whenever players are loaded, excluded or included again, the
+ * {@link OfflinePlayerHandler} swaps in a new roster with a new version.
+ * Rosters that only differ because players were added at the end or
+ * renamed share the same epoch: within an epoch, every player keeps
+ * their ordinal, so numbers stored for an older roster can be extended
+ * instead of calculated again. Ordinals from older epochs should
+ * no longer be used.
+ */
+public final class PlayerRoster {
+
+    private static final int NOT_FOUND = -1;
+
+    private final int version;
+    private final int epoch;
+    private final String[] names;
+    private final UUID[] uuids;
+    private final OfflinePlayer[] offlinePlayers;
+
+    private final HashMap<String, Integer> ordinalsByName;
+    private final HashMap<String, Integer> ordinalsByLowerCaseName;
+    private final HashMap<UUID, Integer> ordinalsByUUID;
+
+    PlayerRoster(int version, @NotNull String[] names, @NotNull UUID[] uuids) {
+        this(version, version, names, uuids, new OfflinePlayer[uuids.length]);
+    }
+
+    private PlayerRoster(int version, int epoch, @NotNull String[] names, @NotNull UUID[] uuids, @NotNull OfflinePlayer[] offlinePlayers) {
+        if (names.length != uuids.length) {
+            throw new IllegalArgumentException("Every player in the roster needs both a name and a UUID");
+        }
+        this.version = version;
+        this.epoch = epoch;
+        this.names = names;
+        this.uuids = uuids;
+        this.offlinePlayers = offlinePlayers;
+
+        int capacity = Math.max(16, (int) (names.length / 0.75f) + 1);
+        ordinalsByName = new HashMap<>(capacity);
+        ordinalsByLowerCaseName = new HashMap<>(capacity);
+        ordinalsByUUID = new HashMap<>(capacity);
+        for (int ordinal = 0; ordinal < names.length; ordinal++) {
+            ordinalsByName.put(names[ordinal], ordinal);
+            ordinalsByLowerCaseName.putIfAbsent(names[ordinal].toLowerCase(Locale.ROOT), ordinal);
+            ordinalsByUUID.put(uuids[ordinal], ordinal);
+        }
+    }
+
+    /**
+     * Builds a roster from a map of player names and UUIDs.
+     */
+    @Contract("_, _ -> new")
+    static @NotNull PlayerRoster of(int version, @NotNull Map<String, UUID> players) {
+        String[] names = new String[players.size()];
+        UUID[] uuids = new UUID[players.size()];
+        int ordinal = 0;
+        for (Map.Entry<String, UUID> entry : players.entrySet()) {
+            if (ordinal == names.length) {
+                break;
+            }
+            names[ordinal] = entry.getKey();
+            uuids[ordinal] = entry.getValue();
+            ordinal++;
+        }
+        return new PlayerRoster(version, Arrays.copyOf(names, ordinal), Arrays.copyOf(uuids, ordinal));
+    }
+
+    /**
+     * @return the version of the player-list this roster was built from
+     */
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * @return the version of the first roster in which all players
+     * had the same ordinal they have in this roster
+     */
+    public int getEpoch() {
+        return epoch;
+    }
+
+    /**
+     * @return the number of players in this roster
+     */
+    public int size() {
+        return names.length;
+    }
+
+    public @NotNull String getName(int ordinal) {
+        return names[ordinal];
+    }
+
+    public @NotNull UUID getUUID(int ordinal) {
+        return uuids[ordinal];
+    }
+
+    /**
+     * @param playerName the name of the player (case-sensitive)
+     * @return the player's ordinal, or -1 if this player is not in the roster
+     */
+    public int getOrdinal(String playerName) {
+        return playerName == null ? NOT_FOUND : ordinalsByName.getOrDefault(playerName, NOT_FOUND);
+    }
+
+    /**
+     * @param playerName the name of the player (not case-sensitive)
+     * @return the player's ordinal, or -1 if this player is not in the roster
+     */
+    public int getOrdinalIgnoreCase(String playerName) {
+        if (playerName == null) {
+            return NOT_FOUND;
+        }
+        int ordinal = getOrdinal(playerName);
+        if (ordinal != NOT_FOUND) {
+            return ordinal;
+        }
+        return ordinalsByLowerCaseName.getOrDefault(playerName.toLowerCase(Locale.ROOT), NOT_FOUND);
+    }
+
+    /**
+     * @return the player's ordinal, or -1 if this player is not in the roster
+     */
+    public int getOrdinal(UUID uniqueID) {
+        return uniqueID == null ? NOT_FOUND : ordinalsByUUID.getOrDefault(uniqueID, NOT_FOUND);
+    }
+
+    /**
+     * @param playerName the name of the player (case-sensitive)
+     */
+    public boolean contains(String playerName) {
+        return getOrdinal(playerName) != NOT_FOUND;
+    }
+
+    public boolean contains(UUID uniqueID) {
+        return getOrdinal(uniqueID) != NOT_FOUND;
+    }
+
+    /**
+     * @param playerName the name of the player (case-sensitive)
+     * @return the player's UUID, or null if this player is not in the roster
+     */
+    public @Nullable UUID getUUID(String playerName) {
+        int ordinal = getOrdinal(playerName);
+        return ordinal == NOT_FOUND ? null : uuids[ordinal];
+    }
+
+    /**
+     * @return a new ArrayList with the names of all players, in ordinal order
+     */
+    @Contract(" -> new")
+    public @NotNull ArrayList<String> getNames() {
+        return new ArrayList<>(Arrays.asList(names));
+    }
+
+    /**
+     * Gets the OfflinePlayer for this ordinal. Players are resolved through
+     * Bukkit the first time they are needed, and the result is kept for
+     * as long as this roster is used. If the kept object is a Player that
+     * has logged out since, the player is resolved again.
+     *
+     * @param ordinal the player's ordinal in this roster
+     * @return the OfflinePlayer
+     */
+    public @NotNull OfflinePlayer getOfflinePlayer(int ordinal) {
+        OfflinePlayer player = offlinePlayers[ordinal];
+        if (player == null || (player instanceof Player onlinePlayer && !onlinePlayer.isOnline())) {
+            player = Bukkit.getOfflinePlayer(uuids[ordinal]);
+            offlinePlayers[ordinal] = player;
+        }
+        return player;
+    }
+
+    /**
+     * Gets a copy of this roster with one player added or renamed. A player
+     * that is already in the roster (by UUID) keeps their ordinal and only gets
+     * the new name, and a new player is added at the end, so both stay within
+     * this roster's epoch. If another player in the roster has this name,
+     * that player is removed first, which starts a new epoch.
+     *
+     * @return the new roster
+     */
+    @Contract("_, _, _ -> new")
+    @NotNull PlayerRoster with(int newVersion, @NotNull String playerName, @NotNull UUID uniqueID) {
+        return withAll(newVersion, Map.of(playerName, uniqueID));
+    }
+
+    /**
+     * Gets a copy of this roster with all these players added or renamed,
+     * in the same way as {@link #with(int, String, UUID)}.
+     *
+     * @param players a map of player names and UUIDs
+     * @return the new roster
+     */
+    @Contract("_, _ -> new")
+    @NotNull PlayerRoster withAll(int newVersion, @NotNull Map<String, UUID> players) {
+        PlayerRoster base = this;
+        for (Map.Entry<String, UUID> player : players.entrySet()) {
+            int nameOwner = base.getOrdinal(player.getKey());
+            if (nameOwner != NOT_FOUND && !base.uuids[nameOwner].equals(player.getValue())) {
+                base = base.without(newVersion, base.uuids[nameOwner]);
+            }
+        }
+
+        String[] newNames = Arrays.copyOf(base.names, base.size() + players.size());
+        UUID[] newUUIDs = Arrays.copyOf(base.uuids, base.size() + players.size());
+        OfflinePlayer[] newOfflinePlayers = Arrays.copyOf(base.offlinePlayers, base.size() + players.size());
+        int size = base.size();
+        for (Map.Entry<String, UUID> player : players.entrySet()) {
+            int existing = base.getOrdinal(player.getValue());
+            if (existing != NOT_FOUND) {
+                newNames[existing] = player.getKey();
+            } else {
+                newNames[size] = player.getKey();
+                newUUIDs[size] = player.getValue();
+                size++;
+            }
+        }
+        return new PlayerRoster(newVersion, base.epoch, Arrays.copyOf(newNames, size),
+                Arrays.copyOf(newUUIDs, size), Arrays.copyOf(newOfflinePlayers, size));
+    }
+
+    /**
+     * Gets a copy of this roster without the player with this UUID.
+     * The ordinals of all players that come after this player shift down
+     * by one, so the new roster starts a new epoch.
+     *
+     * @return the new roster
+     */
+    @Contract("_, _ -> new")
+    @NotNull PlayerRoster without(int newVersion, @NotNull UUID uniqueID) {
+        int removed = getOrdinal(uniqueID);
+        if (removed == NOT_FOUND) {
+            return new PlayerRoster(newVersion, epoch, names, uuids, offlinePlayers);
+        }
+        int size = size() - 1;
+        String[] newNames = new String[size];
+        UUID[] newUUIDs = new UUID[size];
+        OfflinePlayer[] newOfflinePlayers = new OfflinePlayer[size];
+        copyWithout(names, newNames, removed);
+        copyWithout(uuids, newUUIDs, removed);
+        copyWithout(offlinePlayers, newOfflinePlayers, removed);
+        return new PlayerRoster(newVersion, newVersion, newNames, newUUIDs, newOfflinePlayers);
+    }
+
+    private static void copyWithout(Object[] source, Object[] target, int index) {
+        System.arraycopy(source, 0, target, 0, index);
+        System.arraycopy(source, index + 1, target, index, source.length - index - 1);
+    }
+}
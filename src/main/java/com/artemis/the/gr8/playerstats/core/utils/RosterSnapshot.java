@@ -0,0 +1,92 @@
+package com.artemis.the.gr8.playerstats.core.utils;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * A compact binary copy of the included and excluded players, which is
+ * stored in the plugin's data folder. It is read when the plugin starts,
+ * so statistics can be calculated right away, while the full list of
+ * offline players is loaded again in the background.
+ *
+ * @param whitelistOnly the include-whitelist-only setting the players were loaded with
+ * @param excludeBanned the exclude-banned-players setting the players were loaded with
+ * @param minLastPlayed the last-played limit the players were loaded with
+ * @param players all included and excluded players, in roster order
+ */
+record RosterSnapshot(boolean whitelistOnly, boolean excludeBanned, long minLastPlayed, List<Entry> players) {
+
+    private static final int MAGIC = 0x50535250;
+    private static final int FORMAT_VERSION = 1;
+
+    /**
+     * @param uniqueID the player's UUID
+     * @param name the player's name
+     * @param lastPlayed the last time the player was seen, or 0 if this is not known
+     * @param excluded whether the player is on the exclude-list
+     */
+    record Entry(UUID uniqueID, String name, long lastPlayed, boolean excluded) {
+    }
+
+    /**
+     * @return the snapshot in this file, or null if there is no
+     * usable snapshot
+     */
+    static @Nullable RosterSnapshot read(@NotNull File file) {
+        if (!file.isFile()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+                return null;
+            }
+            boolean whitelistOnly = in.readBoolean();
+            boolean excludeBanned = in.readBoolean();
+            long minLastPlayed = in.readLong();
+            int count = in.readInt();
+            List<Entry> players = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                UUID uniqueID = new UUID(in.readLong(), in.readLong());
+                long lastPlayed = in.readLong();
+                boolean excluded = in.readBoolean();
+                players.add(new Entry(uniqueID, in.readUTF(), lastPlayed, excluded));
+            }
+            return new RosterSnapshot(whitelistOnly, excludeBanned, minLastPlayed, players);
+        } catch (IOException | RuntimeException e) {
+            MyLogger.logWarning("Could not read player snapshot: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Writes this snapshot to a temporary file first, and then replaces
+     * the given file with it, so a snapshot is never half-written.
+     */
+    void write(@NotNull File file) throws IOException {
+        File tempFile = new File(file.getPath() + ".tmp");
+        Files.createDirectories(file.getParentFile().toPath());
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeBoolean(whitelistOnly);
+            out.writeBoolean(excludeBanned);
+            out.writeLong(minLastPlayed);
+            out.writeInt(players.size());
+            for (Entry player : players) {
+                out.writeLong(player.uniqueID().getMostSignificantBits());
+                out.writeLong(player.uniqueID().getLeastSignificantBits());
+                out.writeLong(player.lastPlayed());
+                out.writeBoolean(player.excluded());
+                out.writeUTF(player.name());
+            }
+        }
+        Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+}